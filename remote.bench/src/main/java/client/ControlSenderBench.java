@@ -0,0 +1,112 @@
+package client;
+
+import common.Commands;
+import common.ControlProtocol;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Thời gian EDT bỏ ra cho 1 sự kiện control khi gửi qua ControlSender tới socket loopback (phân vị, ns).
+ * reader=fast: phía sharer đọc và giải mã frame liên tục; reader=stalled: không đọc gì, socket đầy và
+ * writer bị chặn — thời gian trên EDT phải không đổi. Cuối mỗi lần chạy in thống kê của ControlSender
+ * (events/packet, số sự kiện bị bỏ khi hàng đợi đầy, thời gian enqueue lớn nhất). Benchmark gửi dồn dập
+ * nhanh hơn nhiều so với người dùng thật nên hàng đợi thường chạm MAX_PENDING_BYTES: di chuột được gộp,
+ * còn phím thì với reader=stalled vượt MAX_OVERFLOW_EVENTS và ControlSender đóng kết nối (describe in "closed").
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ControlSenderBench {
+    @Param({ "fast", "stalled" })
+    public String reader;
+
+    @Param({ "0", "2" })
+    public int batchMs;
+
+    private ServerSocket listener;
+    private Socket viewer;
+    private Socket sharer;
+    private ControlSender sender;
+    private volatile long receivedEvents = 0;
+    private volatile long receivedFrames = 0;
+    private int next = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        listener = new ServerSocket(0, 1, loopback);
+        viewer = new Socket(loopback, listener.getLocalPort());
+        sharer = listener.accept();
+        sender = new ControlSender(viewer.getOutputStream(), batchMs * 1_000_000L, null);
+        sender.setProtocolVersion(ControlProtocol.VERSION);
+        if ("fast".equals(reader)) {
+            Thread thread = new Thread(this::readEvents, "ControlSenderBench-sharer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    // Như ReceiveEvent, bỏ phần Robot
+    private void readEvents() {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(sharer.getInputStream()));
+            ControlProtocol.BatchReader batch = new ControlProtocol.BatchReader();
+            ControlProtocol.Event event = new ControlProtocol.Event();
+            while (true) {
+                if (in.readUnsignedByte() != ControlProtocol.BATCH) {
+                    throw new IOException("Expected control batch");
+                }
+                batch.read(in, ControlProtocol.BATCH);
+                long count = 0;
+                while (batch.next(event)) {
+                    count++;
+                }
+                receivedEvents += count;
+                receivedFrames++;
+            }
+        } catch (IOException e) {
+            // Socket đóng khi kết thúc
+        }
+    }
+
+    @Benchmark
+    public void enqueue() {
+        int i = next++;
+        if ((i & 1) == 0) {
+            sender.sendPointer(Commands.MOVE_MOUSE, 0, (i & 1023) / 1024.0, (i & 511) / 512.0);
+        } else {
+            sender.sendEvent(Commands.PRESS_KEY, 65 + (i & 15));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        System.out.println("[ControlSenderBench] " + reader + " batch=" + batchMs + "ms: " + sender.describe()
+                + (receivedFrames == 0 ? "" : String.format(", sharer events/frame=%.2f",
+                        (double) receivedEvents / receivedFrames)));
+        sender.close();
+        viewer.close();
+        sharer.close();
+        listener.close();
+    }
+}
@@ -0,0 +1,90 @@
+package client;
+
+import common.codec.Codecs;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import server.BenchFrames;
+
+/*
+ * Thread giải mã của ReceiveScreen với 1 delta: đọc thông điệp, áp lên framebuffer (RegionDecoder)
+ * rồi scale các vùng đổi sang ảnh theo kích thước panel (ScreenSurface). Áp lại cùng delta cho cùng kết quả.
+ * region=diff: các vùng đổi thật của kịch bản; 64 / 256: 1 vùng vuông cạnh đó bắt đầu tại góc vùng đổi
+ * (nội dung của kịch bản); full: 1 vùng cả màn hình.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class DeltaApplyBench {
+    private static final int PANEL_WIDTH = 1600;
+    private static final int PANEL_HEIGHT = 900;
+
+    @Param({ "typing", "scrolling", "video" })
+    public String scenario;
+
+    @Param({ "all", "jpeg" })
+    public String codecs;
+
+    @Param({ "diff", "64", "256", "full" })
+    public String region;
+
+    private byte[] message;
+    private BufferedImage framebuffer;
+    private final RegionDecoder decoder = new RegionDecoder(2048);
+    private final ScreenSurface surface = new ScreenSurface();
+    private final List<Rectangle> dirty = new ArrayList<>();
+
+    @Setup
+    public void setup() throws IOException {
+        BufferedImage[] frames = BenchFrames.capture(scenario, 1920, 1080, 2);
+        int codecMask = "jpeg".equals(codecs) ? 1 << Codecs.JPEG : Codecs.SUPPORTED_MASK;
+        int width = frames[1].getWidth();
+        int height = frames[1].getHeight();
+        if ("diff".equals(region)) {
+            message = BenchFrames.deltaMessage(frames[0], frames[1], codecMask, 0.7f);
+        } else if ("full".equals(region)) {
+            message = BenchFrames.regionMessage(frames[1], new Rectangle(width, height), codecMask, 0.7f);
+        } else {
+            int size = Integer.parseInt(region);
+            Rectangle changed = BenchFrames.changeBox(frames[0], frames[1]);
+            int x = changed != null ? Math.min(changed.x, width - size) : 0;
+            int y = changed != null ? Math.min(changed.y, height - size) : 0;
+            message = BenchFrames.regionMessage(frames[1], new Rectangle(x, y, size, size), codecMask, 0.7f);
+        }
+        framebuffer = new BufferedImage(frames[0].getWidth(), frames[0].getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = framebuffer.createGraphics();
+        g.drawImage(frames[0], 0, 0, null);
+        g.dispose();
+        // Lần đầu dựng ảnh scale cả màn hình; các lần sau chỉ scale vùng đổi như khi đang chạy
+        surface.update(framebuffer, dirty, PANEL_WIDTH, PANEL_HEIGHT);
+    }
+
+    @Benchmark
+    public List<Rectangle> applyDelta() throws IOException {
+        ScreenMessageQueue.ScreenMessage parsed = ScreenMessageQueue.ScreenMessage.read(
+                new DataInputStream(new ByteArrayInputStream(message)));
+        dirty.clear();
+        decoder.apply(parsed, framebuffer, dirty);
+        return surface.update(framebuffer, dirty, PANEL_WIDTH, PANEL_HEIGHT);
+    }
+}
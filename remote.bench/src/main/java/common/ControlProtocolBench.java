@@ -0,0 +1,128 @@
+package common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * 1 sự kiện control đi trọn đường: ControlEvent ghi ra DataOutputStream, ReceiveEvent đọc byte đầu,
+ * giải mã và điền ControlProtocol.Event. format text = CSV qua writeUTF (version 0), binary = version 1.
+ * Điểm chính là sự kiện/µs; cột wireBytes là byte/µs trên dây, nên byte/sự kiện = wireBytes / điểm chính.
+ * Tọa độ như ControlEvent tính từ panel có kích thước lẻ (chuỗi số thực dài như khi chạy thật).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ControlProtocolBench {
+    private static final int PANEL_WIDTH = 1591;
+    private static final int PANEL_HEIGHT = 863;
+    private static final int POSITIONS = 1024;
+
+    @Param({ "text", "binary" })
+    public String format;
+
+    @Param({ "move", "key" })
+    public String event;
+
+    private boolean binary;
+    private boolean pointer;
+    private final double[] xs = new double[POSITIONS];
+    private final double[] ys = new double[POSITIONS];
+    private int next = 0;
+
+    private final byte[] eventBuffer = new byte[ControlProtocol.MAX_EVENT_BYTES];
+    private final Wire wire = new Wire();
+    private final DataOutputStream out = new DataOutputStream(wire);
+    private final ControlProtocol.Event decoded = new ControlProtocol.Event();
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long wireBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            wireBytes = 0;
+        }
+    }
+
+    // Bộ đệm ghi dùng lại mảng; phía đọc trỏ thẳng vào mảng đó, không chép
+    private static class Wire extends ByteArrayOutputStream {
+        private final Input input = new Input();
+        private final DataInputStream in = new DataInputStream(input);
+
+        DataInputStream read() {
+            input.rewind(buf, count);
+            return in;
+        }
+    }
+
+    private static class Input extends ByteArrayInputStream {
+        Input() {
+            super(new byte[0]);
+        }
+
+        void rewind(byte[] data, int length) {
+            buf = data;
+            pos = 0;
+            count = length;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        binary = "binary".equals(format);
+        pointer = "move".equals(event);
+        Random random = new Random(1);
+        for (int i = 0; i < POSITIONS; i++) {
+            xs[i] = (double) random.nextInt(PANEL_WIDTH) / PANEL_WIDTH;
+            ys[i] = (double) random.nextInt(PANEL_HEIGHT) / PANEL_HEIGHT;
+        }
+    }
+
+    @Benchmark
+    public ControlProtocol.Event roundTrip(Bytes bytes) throws IOException {
+        int i = next++ & (POSITIONS - 1);
+        wire.reset();
+        if (binary) {
+            int n = pointer
+                    ? ControlProtocol.writePointer(eventBuffer, Commands.MOVE_MOUSE, 0, xs[i], ys[i])
+                    : ControlProtocol.writeEvent(eventBuffer, Commands.PRESS_KEY, 65 + (i & 15));
+            out.write(eventBuffer, 0, n);
+        } else {
+            out.writeUTF(pointer
+                    ? ControlProtocol.textPointer(Commands.MOVE_MOUSE, 0, xs[i], ys[i])
+                    : ControlProtocol.textEvent(Commands.PRESS_KEY, 65 + (i & 15)));
+        }
+        bytes.wireBytes += wire.size();
+
+        DataInputStream in = wire.read();
+        int first = in.readUnsignedByte();
+        if (first == ControlProtocol.MARKER) {
+            ControlProtocol.readEvent(in, decoded);
+        } else if (!ControlProtocol.parseText(ControlProtocol.readUTF(in, first), decoded)) {
+            throw new IOException("Missing parts");
+        }
+        return decoded;
+    }
+}
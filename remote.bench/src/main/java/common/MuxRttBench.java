@@ -0,0 +1,148 @@
+package common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.MuxRelay;
+
+/*
+ * Round-trip của kênh control trên kết nối mux khi kênh screen chạy hết tốc độ (phân vị, µs).
+ * Sharer gửi liên tục thông điệp screen 64 KB; viewer gửi 8 byte trên control, sharer trả lại ngay.
+ * screen=fast: viewer đọc screen liên tục; screen=stalled: viewer ngừng đọc screen (giải mã không theo kịp)
+ * — round-trip control phải giữ nguyên, không bị chặn sau hàng đợi screen. path=direct: 2 MuxConnection nối thẳng;
+ * path=relay: đi qua SelectorLoop của relay server như khi chạy thật.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MuxRttBench {
+    private static final int SCREEN_MESSAGE = 64 * 1024;
+
+    @Param({ "fast", "stalled" })
+    public String screen;
+
+    @Param({ "direct", "relay" })
+    public String path;
+
+    private ServerSocket listener;
+    private MuxRelay relay;
+    private Socket sharerSocket;
+    private Socket viewerSocket;
+    private MuxConnection sharer;
+    private MuxConnection viewer;
+    private DataOutputStream ping;
+    private DataInputStream pong;
+    private volatile boolean running = true;
+
+    @Setup
+    public void setup() throws Exception {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        if ("relay".equals(path)) {
+            relay = new MuxRelay();
+            sharerSocket = SocketChannel.open(relay.getAddress()).socket();
+            viewerSocket = SocketChannel.open(relay.getAddress()).socket();
+            relay.pair();
+        } else {
+            listener = new ServerSocket(0, 1, loopback);
+            sharerSocket = new Socket(loopback, listener.getLocalPort());
+            viewerSocket = listener.accept();
+        }
+        sharer = new MuxConnection(sharerSocket);
+        viewer = new MuxConnection(viewerSocket);
+
+        start("MuxRttBench-screen", this::sendScreen);
+        start("MuxRttBench-echo", this::echo);
+        if ("fast".equals(screen)) {
+            start("MuxRttBench-decode", this::readScreen);
+        }
+        ping = new DataOutputStream(viewer.getSocket(MuxConnection.CHANNEL_CONTROL).getOutputStream());
+        pong = new DataInputStream(viewer.getSocket(MuxConnection.CHANNEL_CONTROL).getInputStream());
+    }
+
+    private static void start(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Benchmark
+    public long controlRoundTrip() throws IOException {
+        ping.writeLong(System.nanoTime());
+        ping.flush();
+        return pong.readLong();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        running = false;
+        sharer.close();
+        viewer.close();
+        if (listener != null) {
+            listener.close();
+        }
+        if (relay != null) {
+            relay.close();
+        }
+    }
+
+    private void sendScreen() {
+        byte[] message = new byte[SCREEN_MESSAGE];
+        try {
+            OutputStream out = sharer.getSocket(MuxConnection.CHANNEL_SCREEN).getOutputStream();
+            while (running) {
+                out.write(message);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // Đóng ở tearDown
+        }
+    }
+
+    private void readScreen() {
+        byte[] buffer = new byte[SCREEN_MESSAGE];
+        try {
+            InputStream in = viewer.getSocket(MuxConnection.CHANNEL_SCREEN).getInputStream();
+            while (in.read(buffer) != -1) {
+                // bỏ
+            }
+        } catch (IOException e) {
+            // Đóng ở tearDown
+        }
+    }
+
+    private void echo() {
+        try {
+            DataInputStream in = new DataInputStream(sharer.getSocket(MuxConnection.CHANNEL_CONTROL).getInputStream());
+            DataOutputStream out = new DataOutputStream(
+                    sharer.getSocket(MuxConnection.CHANNEL_CONTROL).getOutputStream());
+            while (true) {
+                out.writeLong(in.readLong());
+                out.flush();
+            }
+        } catch (IOException e) {
+            // Đóng ở tearDown
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package common.codec;
+
+import common.ImagePixels;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import server.BenchFrames;
+
+/*
+ * Từng codec trên 1 ô 64x64 (khối RegionEncoder chia vùng) của 3 loại nội dung lấy từ frame tổng hợp 1080p:
+ * text = dòng chữ trong danh sách, photo = vùng video (nhiễu + chuyển màu), flat = nền desktop + khung cửa sổ.
+ * Điểm chính là µs/ô; setup in số byte/ô, tỉ lệ nén so với 24 bit/pixel và codec mà TileClassifier sẽ chọn.
+ * palette-rle không mã hóa được ô hơn 256 màu: setup in "không áp dụng" và benchmark không làm gì.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class CodecBench {
+    private static final int TILE = 64;
+    private static final float QUALITY = 0.7f;
+
+    @Param({ "jpeg", "zlib", "palette-rle" })
+    public String codec;
+
+    @Param({ "text", "photo", "flat" })
+    public String tile;
+
+    private FrameCodec frameCodec;
+    private BufferedImage frame;
+    private Rectangle region;
+    private final EncodeBuffer buffer = new EncodeBuffer(64 * 1024);
+    private byte[] encoded;
+    private int encodedLength;
+    private final BufferedImage target = new BufferedImage(TILE, TILE, BufferedImage.TYPE_INT_RGB);
+    private final Rectangle targetRegion = new Rectangle(TILE, TILE);
+    private boolean applicable;
+
+    @Setup
+    public void setup() throws IOException {
+        for (FrameCodec candidate : Codecs.createAll()) {
+            if (candidate != null && candidate.getName().equals(codec)) {
+                frameCodec = candidate;
+            }
+        }
+        if (frameCodec == null) {
+            throw new IllegalArgumentException("Unknown codec: " + codec);
+        }
+
+        // Tọa độ theo bố cục của SyntheticFrameSource ở 1920x1080
+        String scenario;
+        Point origin;
+        if ("text".equals(tile)) {
+            scenario = "static";
+            origin = new Point(1080, 96);
+        } else if ("photo".equals(tile)) {
+            scenario = "video";
+            origin = new Point(1200, 720);
+        } else if ("flat".equals(tile)) {
+            scenario = "static";
+            origin = new Point(64, 40);
+        } else {
+            throw new IllegalArgumentException("Unknown tile: " + tile);
+        }
+        frame = BenchFrames.capture(scenario, 1920, 1080, 1)[0];
+        region = new Rectangle(origin.x, origin.y, TILE, TILE);
+
+        byte chosen = new TileClassifier().classify(ImagePixels.of(frame), region, Codecs.SUPPORTED_MASK);
+        try {
+            frameCodec.encode(frame, region, QUALITY, buffer);
+            applicable = true;
+        } catch (IOException e) {
+            System.out.println("[CodecBench] " + codec + "/" + tile + ": không áp dụng (" + e.getMessage() + ")");
+            return;
+        }
+        encodedLength = buffer.size();
+        encoded = Arrays.copyOf(buffer.array(), encodedLength);
+        System.out.printf("[CodecBench] %s/%s: %d B/tile (%.1f:1), classifier chọn %s%n", codec, tile, encodedLength,
+                TILE * TILE * 3.0 / encodedLength, Codecs.createAll()[chosen].getName());
+    }
+
+    @Benchmark
+    public int encode() throws IOException {
+        if (!applicable) {
+            return 0;
+        }
+        buffer.reset();
+        frameCodec.encode(frame, region, QUALITY, buffer);
+        return buffer.size();
+    }
+
+    @Benchmark
+    public BufferedImage decode() throws IOException {
+        if (applicable) {
+            frameCodec.decode(encoded, encodedLength, target, targetRegion);
+        }
+        return target;
+    }
+}
@@ -0,0 +1,69 @@
+package monitor.ml;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Đường xử lý 1 sự kiện Sysmon của MonitoringManager: tiền xử lý đặc trưng và chấm điểm bằng model ONNX
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DetectorBench {
+    private final Preprocessor preprocessor = new Preprocessor();
+    private final AnomalyDetector detector = new AnomalyDetector();
+    private Map<String, Object> event;
+    private float[] features;
+
+    @Setup
+    public void setup() throws Exception {
+        preprocessor.loadArtifacts();
+        detector.initialize();
+
+        // Cùng các khóa FeatureExtractor.extractFeatures tạo ra
+        event = new HashMap<>();
+        event.put("event_code", 1);
+        event.put("timestamp", "2024-05-14T21:37:12.345Z");
+        event.put("user", "DESKTOP-01\\user");
+        event.put("image_path", "C:\\Windows\\System32\\WindowsPowerShell\\v1.0\\powershell.exe");
+        event.put("process_name", "powershell.exe");
+        event.put("parent_image", "C:\\Windows\\System32\\cmd.exe");
+        event.put("parent_name", "cmd.exe");
+        event.put("command_line", "powershell.exe -NoProfile -ExecutionPolicy Bypass -EncodedCommand SQBFAFgA");
+        event.put("dest_port", 0);
+        features = preprocessor.preprocess(event);
+    }
+
+    @TearDown
+    public void tearDown() {
+        detector.close();
+    }
+
+    @Benchmark
+    public float[] preprocess() {
+        return preprocessor.preprocess(event);
+    }
+
+    @Benchmark
+    public AnomalyDetector.AnomalyResult predict() throws Exception {
+        return detector.predict(features);
+    }
+
+    @Benchmark
+    public AnomalyDetector.AnomalyResult preprocessAndPredict() throws Exception {
+        return detector.predict(preprocessor.preprocess(event));
+    }
+}
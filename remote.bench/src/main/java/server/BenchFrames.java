@@ -0,0 +1,79 @@
+package server;
+
+import common.ScreenProtocol;
+import common.codec.EncodeBuffer;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Dữ liệu đầu vào dùng chung cho các benchmark: frame tổng hợp (SyntheticFrameSource, lặp lại được)
+ * và thông điệp delta đúng định dạng ShareScreen gửi. Nằm trong package server để dùng được
+ * các lớp package-private của pipeline; benchmark phía viewer (package client) gọi qua đây.
+ */
+public final class BenchFrames {
+    public static final long SEED = 1;
+
+    private BenchFrames() {
+    }
+
+    // count frame liên tiếp của kịch bản (xem SyntheticFrameSource.SCENARIOS)
+    public static BufferedImage[] capture(String scenario, int width, int height, int count) {
+        SyntheticFrameSource source = new SyntheticFrameSource(width, height, scenario, SEED);
+        Rectangle area = new Rectangle(width, height);
+        BufferedImage[] frames = new BufferedImage[count];
+        for (int i = 0; i < count; i++) {
+            frames[i] = source.capture(area);
+        }
+        return frames;
+    }
+
+    // MSG_DELTA từ previous sang next như stage diff + encode (không dò cuộn, không cache khối)
+    public static byte[] deltaMessage(BufferedImage previous, BufferedImage next, int codecMask, float quality)
+            throws IOException {
+        TileDiffer differ = new TileDiffer();
+        differ.diff(previous, next);
+        List<Rectangle> regions = DirtyRegions.merge(new DirtyTiles(differ), next.getWidth(), next.getHeight());
+        return encodeDelta(next, regions, codecMask, quality);
+    }
+
+    // MSG_DELTA gồm đúng 1 vùng rect của frame, để đo chi phí theo kích thước vùng
+    public static byte[] regionMessage(BufferedImage frame, Rectangle rect, int codecMask, float quality)
+            throws IOException {
+        return encodeDelta(frame, Collections.singletonList(rect), codecMask, quality);
+    }
+
+    // Vùng đổi giữa 2 frame (null nếu giống hệt)
+    public static Rectangle changeBox(BufferedImage previous, BufferedImage next) {
+        return new TileDiffer().diff(previous, next);
+    }
+
+    private static byte[] encodeDelta(BufferedImage next, List<Rectangle> regions, int codecMask, float quality)
+            throws IOException {
+        RegionEncoder encoder = new RegionEncoder();
+        encoder.setCodecMask(codecMask);
+        EncodeBuffer buffer = new EncodeBuffer(256 * 1024);
+        List<RegionEncoder.EncodedRegion> encoded = encoder.encode(next, regions, quality, buffer);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(buffer.size() + 1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(ScreenProtocol.MSG_DELTA);
+        out.writeInt(1);
+        out.writeInt(encoded.size());
+        for (RegionEncoder.EncodedRegion region : encoded) {
+            out.writeInt(region.rect.x);
+            out.writeInt(region.rect.y);
+            out.writeInt(region.rect.width);
+            out.writeInt(region.rect.height);
+            out.writeByte(region.codec);
+            out.writeInt(region.length);
+            out.write(buffer.array(), region.offset, region.length);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,83 @@
+package server;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Stage diff của ShareScreen: so ô (thay cho findChangeBoundingBox cũ) và dò cuộn, trên 2 frame 1080p liên tiếp.
+ * Từ không đổi gì (static), đổi vài pixel (cursor-blink) tới đổi cả màn hình (full-change).
+ * Mỗi iteration in số byte cấp phát trên 1 op của thread benchmark (diff ở trạng thái ổn định phải là 0 B/op);
+ * chi tiết GC dùng thêm -prof gc.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class DiffBench {
+    @Param({ "static", "cursor-blink", "typing", "scrolling", "video", "full-change" })
+    public String scenario;
+
+    private BufferedImage previous;
+    private BufferedImage next;
+    private Rectangle changeBox;
+    private final TileDiffer differ = new TileDiffer();
+    private final ScrollDetector detector = new ScrollDetector();
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private long worker;
+    private long allocatedAtStart;
+    private long ops;
+
+    @Setup
+    public void setup() {
+        BufferedImage[] frames = BenchFrames.capture(scenario, 1920, 1080, 2);
+        previous = frames[0];
+        next = frames[1];
+        changeBox = new TileDiffer().diff(previous, next);
+    }
+
+    // Fixture Level.Iteration chạy trên chính thread benchmark
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        worker = Thread.currentThread().getId();
+        ops = 0;
+        allocatedAtStart = threads.getThreadAllocatedBytes(worker);
+    }
+
+    @Benchmark
+    public Rectangle tileDiff() {
+        ops++;
+        return differ.diff(previous, next);
+    }
+
+    // Như ShareScreen: không có ô đổi thì không dò cuộn
+    @Benchmark
+    public ScrollDetector.Shift detectScroll() {
+        ops++;
+        return changeBox != null ? detector.detect(previous, next, changeBox) : null;
+    }
+
+    @TearDown(Level.Iteration)
+    public void endIteration() {
+        long allocated = threads.getThreadAllocatedBytes(worker) - allocatedAtStart;
+        System.out.printf("[DiffBench] %s: %.1f B/op allocated%n", scenario, ops > 0 ? (double) allocated / ops : 0);
+    }
+}
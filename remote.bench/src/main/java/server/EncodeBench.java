@@ -0,0 +1,80 @@
+package server;
+
+import common.codec.Codecs;
+import common.codec.EncodeBuffer;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Stage encode của ShareScreen (thay cho compressImage cũ): vùng thay đổi, cả màn hình,
+ * và tra cache khối khi mọi khối đều đã có ở viewer. codecs=jpeg là viewer cũ chỉ giải mã JPEG.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class EncodeBench {
+    private static final float QUALITY = 0.7f;
+
+    @Param({ "typing", "scrolling", "video" })
+    public String scenario;
+
+    @Param({ "all", "jpeg" })
+    public String codecs;
+
+    private BufferedImage frame;
+    private List<Rectangle> regions;
+    private final RegionEncoder encoder = new RegionEncoder();
+    private final EncodeBuffer buffer = new EncodeBuffer(4 * 1024 * 1024);
+    private TileCache tileCache;
+
+    @Setup
+    public void setup() throws IOException {
+        BufferedImage[] frames = BenchFrames.capture(scenario, 1920, 1080, 2);
+        frame = frames[1];
+        TileDiffer differ = new TileDiffer();
+        differ.diff(frames[0], frame);
+        regions = DirtyRegions.merge(new DirtyTiles(differ), frame.getWidth(), frame.getHeight());
+        encoder.setCodecMask("jpeg".equals(codecs) ? 1 << Codecs.JPEG : Codecs.SUPPORTED_MASK);
+
+        tileCache = new TileCache(4096, new PipelineMetrics());
+        tileCache.encodeHits(frame, DirtyTiles.all(frame.getWidth(), frame.getHeight()), buffer);
+        tileCache.encodeStores(1024, buffer);
+    }
+
+    @Benchmark
+    public List<RegionEncoder.EncodedRegion> encodeDelta() throws IOException {
+        buffer.reset();
+        return encoder.encode(frame, regions, QUALITY, buffer);
+    }
+
+    @Benchmark
+    public List<RegionEncoder.EncodedRegion> encodeFull() throws IOException {
+        buffer.reset();
+        return encoder.encode(frame, Collections.singletonList(new Rectangle(frame.getWidth(), frame.getHeight())),
+                QUALITY, buffer);
+    }
+
+    @Benchmark
+    public List<RegionEncoder.EncodedRegion> tileCacheHits() throws IOException {
+        buffer.reset();
+        return tileCache.encodeHits(frame, DirtyTiles.all(frame.getWidth(), frame.getHeight()), buffer);
+    }
+}
@@ -0,0 +1,137 @@
+package server;
+
+import common.Commands;
+import common.ControlProtocol;
+import java.awt.Rectangle;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Thread đọc của ReceiveEvent đẩy sự kiện vào InputInjector, sink giả thay Robot.
+ * Điểm chính là số sự kiện thread đọc đẩy vào được mỗi ms (hàng đợi đầy thì submit chờ);
+ * mỗi iteration in số sự kiện sink thực thi mỗi giây và độ trễ hàng đợi lớn nhất.
+ * sink=slow: mỗi lời gọi tốn ~50 µs như Robot trên máy thật; mix=moves: chỉ di chuột (được gộp khi hàng đợi dồn),
+ * mix=keys: nhấn/nhả phím (không bao giờ gộp, nên thread đọc bị giới hạn bởi tốc độ sink khi hàng đợi đầy).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InputInjectorBench {
+    private static final Rectangle AREA = new Rectangle(1920, 1080);
+
+    @Param({ "instant", "slow" })
+    public String sink;
+
+    @Param({ "keys", "moves" })
+    public String mix;
+
+    private InputInjector injector;
+    private final ControlProtocol.Event event = new ControlProtocol.Event();
+    private int next = 0;
+    private long iterationStart;
+    private long executedAtStart;
+
+    // Chỉ thread của InputInjector gọi
+    static class FakeSink implements InputSink {
+        private final long costTokens;
+        long checksum = 0;
+
+        FakeSink(long costTokens) {
+            this.costTokens = costTokens;
+        }
+
+        private void work(int value) {
+            if (costTokens > 0) {
+                Blackhole.consumeCPU(costTokens);
+            }
+            checksum += value;
+        }
+
+        @Override
+        public void mouseMove(int x, int y) {
+            work(x ^ y);
+        }
+
+        @Override
+        public void mousePress(int buttons) {
+            work(buttons);
+        }
+
+        @Override
+        public void mouseRelease(int buttons) {
+            work(buttons);
+        }
+
+        @Override
+        public void mouseWheel(int amount) {
+            work(amount);
+        }
+
+        @Override
+        public void keyPress(int keyCode) {
+            work(keyCode);
+        }
+
+        @Override
+        public void keyRelease(int keyCode) {
+            work(keyCode);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        // consumeCPU: ~1 token vài ns, 20000 token ≈ 50 µs trên máy build
+        injector = new InputInjector(new FakeSink("slow".equals(sink) ? 20_000 : 0), () -> AREA);
+    }
+
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        injector.takeMaxQueueNanos();
+        executedAtStart = injector.getExecuted();
+        iterationStart = System.nanoTime();
+    }
+
+    @Benchmark
+    public void submit() throws InterruptedException {
+        int i = next++;
+        if ("moves".equals(mix)) {
+            event.command = Commands.MOVE_MOUSE;
+            event.arg = 0;
+            event.x = (i & 1023) / 1024.0;
+            event.y = (i & 511) / 512.0;
+        } else {
+            event.command = (i & 1) == 0 ? Commands.PRESS_KEY : Commands.RELEASE_KEY;
+            event.arg = 65 + ((i >> 1) & 15);
+        }
+        injector.submit(event, i + 1);
+    }
+
+    @TearDown(Level.Iteration)
+    public void endIteration() {
+        double seconds = (System.nanoTime() - iterationStart) / 1e9;
+        System.out.printf("[InputInjectorBench] sink thực thi %.0f sự kiện/s, độ trễ hàng đợi lớn nhất %.2f ms%n",
+                (injector.getExecuted() - executedAtStart) / seconds, injector.takeMaxQueueNanos() / 1e6);
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.println("[InputInjectorBench] " + injector.describe());
+        injector.close();
+    }
+}
@@ -0,0 +1,46 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * 1 SelectorLoop relay kết nối mux trong cùng JVM, cho benchmark ở package khác (common.MuxRttBench).
+ * Kết nối tới getAddress() theo thứ tự sharer rồi viewer, sau đó gọi pair().
+ */
+public class MuxRelay {
+    private final ServerSocketChannel listener;
+    private final Map<SocketChannel, SelectorLoop> owners = new ConcurrentHashMap<>();
+    private final SelectorLoop loop;
+
+    public MuxRelay() throws IOException {
+        listener = ServerSocketChannel.open();
+        listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        loop = new SelectorLoop("RelayLoop-mux", owners);
+        Thread thread = new Thread(loop, "RelayLoop-mux");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public SocketAddress getAddress() throws IOException {
+        return listener.getLocalAddress();
+    }
+
+    public void pair() throws IOException {
+        SocketChannel sharer = listener.accept();
+        SocketChannel viewer = listener.accept();
+        owners.put(sharer, loop);
+        owners.put(viewer, loop);
+        Session session = new Session("bench", "", "1920", "1080", new ConcurrentHashMap<>(), null);
+        loop.register(sharer.socket(), viewer.socket(), session, "mux");
+    }
+
+    public void close() throws IOException {
+        listener.close();
+    }
+}
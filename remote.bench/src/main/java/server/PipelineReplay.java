@@ -0,0 +1,100 @@
+package server;
+
+import common.ScreenProtocol;
+import common.codec.Codecs;
+import common.codec.EncodeBuffer;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Chạy lại chuỗi frame qua stage diff + encode của ShareScreen trên 1 thread: không capture, không gửi,
+ * không con trỏ; quality và ngưỡng full frame cố định ở giá trị đầu của AdaptiveController.
+ * frame() trả về số byte thông điệp đúng như writeRegions ghi (header + từng vùng), 0 nếu không gửi gì.
+ * copyRect = viewer báo CAP_COPY_RECT (dò cuộn, gửi lệnh chép); cacheBlocks > 0 = viewer báo CAP_TILE_CACHE.
+ */
+public final class PipelineReplay {
+    // Như ShareScreen
+    private static final int MIN_SCROLL_TILES = 64;
+    private static final float QUALITY = 0.7f;
+    private static final float CACHE_STORE_MIN_RATIO = 0.25f;
+    private static final int HEADER_BYTES = 1 + 4 + 4;
+    private static final int REGION_HEADER_BYTES = 4 * 4 + 1 + 4;
+
+    private final TileDiffer differ = new TileDiffer();
+    private final ReferenceFrame reference = new ReferenceFrame();
+    private final ScrollDetector scrollDetector;
+    private final RegionEncoder encoder = new RegionEncoder();
+    private final TileCache tileCache;
+    private final EncodeBuffer buffer = new EncodeBuffer(4 * 1024 * 1024);
+
+    public PipelineReplay(boolean copyRect, int cacheBlocks) {
+        this.scrollDetector = copyRect ? new ScrollDetector() : null;
+        this.tileCache = cacheBlocks > 0 ? new TileCache(cacheBlocks, new PipelineMetrics()) : null;
+        encoder.setCodecMask(Codecs.SUPPORTED_MASK);
+    }
+
+    public long frame(BufferedImage image) throws IOException {
+        BufferedImage previous = reference.getImage();
+        Rectangle changeBox = differ.diff(previous, image);
+        boolean full = previous == null || previous.getWidth() != image.getWidth()
+                || previous.getHeight() != image.getHeight();
+        List<ScrollDetector.Shift> shifts = new ArrayList<>(1);
+        if (changeBox != null && !full && scrollDetector != null && differ.getDirtyCount() >= MIN_SCROLL_TILES) {
+            ScrollDetector.Shift shift = scrollDetector.detect(previous, image, changeBox);
+            if (shift != null) {
+                reference.apply(shift);
+                shifts.add(shift);
+                changeBox = differ.diff(previous, image);
+            }
+        }
+        if (changeBox == null && !full && shifts.isEmpty()) {
+            return 0;
+        }
+        DirtyTiles dirty = new DirtyTiles(differ);
+        reference.update(image, full ? null : dirty);
+
+        buffer.reset();
+        Rectangle screen = new Rectangle(image.getWidth(), image.getHeight());
+        List<Rectangle> regions = null;
+        float changedAreaRatio = 1f;
+        if (!full) {
+            regions = DirtyRegions.merge(dirty, screen.width, screen.height);
+            changedAreaRatio = (float) DirtyRegions.totalArea(regions) / ((long) screen.width * screen.height);
+            full = changedAreaRatio > AdaptiveController.MIN_FULL_FRAME_THRESHOLD;
+        }
+        List<RegionEncoder.EncodedRegion> encoded = new ArrayList<>();
+        if (full) {
+            regions = Collections.singletonList(screen);
+        } else {
+            for (ScrollDetector.Shift shift : shifts) {
+                encoded.add(encoder.encodeCopy(shift, buffer));
+            }
+        }
+        if (tileCache != null) {
+            DirtyTiles cacheDirty = full ? DirtyTiles.all(screen.width, screen.height) : dirty;
+            List<RegionEncoder.EncodedRegion> hits = tileCache.encodeHits(image, cacheDirty, buffer);
+            if (!hits.isEmpty()) {
+                encoded.addAll(hits);
+                regions = DirtyRegions.merge(cacheDirty, screen.width, screen.height);
+            }
+        }
+        int imageStart = buffer.size();
+        encoded.addAll(encoder.encode(image, regions, QUALITY, buffer));
+        if (tileCache != null && (full || changedAreaRatio >= CACHE_STORE_MIN_RATIO)) {
+            long pixels = Math.max(1, DirtyRegions.totalArea(regions));
+            int bytesPerBlock = (int) ((long) (buffer.size() - imageStart)
+                    * ScreenProtocol.CACHE_BLOCK_SIZE * ScreenProtocol.CACHE_BLOCK_SIZE / pixels);
+            encoded.addAll(tileCache.encodeStores(bytesPerBlock, buffer));
+        }
+
+        long bytes = HEADER_BYTES;
+        for (RegionEncoder.EncodedRegion region : encoded) {
+            bytes += REGION_HEADER_BYTES + region.length;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,253 @@
+package server;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Bão kết nối lại vào relay chạy trong cùng JVM (ClientHandler + Session + RelayEngine như ServerRelay, cổng ngẫu nhiên):
+ * N sharer × 3 kênh kết nối cùng lúc, rồi N viewer × 3 kênh (relay bắt đầu), rồi --rounds lần mọi viewer
+ * rớt mạng và kết nối lại cùng lúc. In phân vị thời gian handshake (gửi chào → nhận trả lời) từng pha,
+ * RSS đỉnh (VmHWM) và số thread đỉnh. Mặc định chạy 1 JVM con cho mỗi THREAD_MODE để RSS đo riêng từng chế độ;
+ * virtual cần JDK 21+, JDK cũ hơn ServerExecutor tự về platform (dòng kết quả ghi chế độ thật).
+ *
+ * ClientHandler nhận tối đa 100 session (MAX_CLIENTS), nên --sharers lớn hơn thì phần dư bị từ chối và được đếm riêng.
+ *
+ * java -cp remote.bench/target/benchmarks.jar server.ReconnectStorm [--sharers 100] [--rounds 3]
+ *      [--thread-mode both|platform|virtual] [--relay-mode nio|thread] [--clients 64]
+ */
+public class ReconnectStorm {
+    private static final String[] CHANNELS = { "screen", "control", "chat" };
+    private static final int TIMEOUT_MS = 30_000;
+
+    private final int sharers;
+    private final int rounds;
+    private final ExecutorService clients;
+    private final InetSocketAddress address;
+    private final List<Socket> sharerSockets = new ArrayList<>();
+    private List<Socket> viewerSockets = new ArrayList<>();
+
+    ReconnectStorm(int sharers, int rounds, int clientThreads, InetSocketAddress address) {
+        this.sharers = sharers;
+        this.rounds = rounds;
+        this.clients = Executors.newFixedThreadPool(clientThreads);
+        this.address = address;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int sharers = 100;
+        int rounds = 3;
+        int clientThreads = 64;
+        String threadMode = "both";
+        String relayMode = RelayEngine.MODE_NIO;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--sharers":
+                    sharers = Integer.parseInt(value);
+                    break;
+                case "--rounds":
+                    rounds = Integer.parseInt(value);
+                    break;
+                case "--clients":
+                    clientThreads = Integer.parseInt(value);
+                    break;
+                case "--thread-mode":
+                    threadMode = value;
+                    break;
+                case "--relay-mode":
+                    relayMode = value;
+                    break;
+                default:
+                    System.err.println("[ReconnectStorm] Tham số không hợp lệ: " + args[i]);
+                    return;
+            }
+        }
+
+        if ("both".equals(threadMode)) {
+            for (String mode : new String[] { ServerExecutor.MODE_PLATFORM, ServerExecutor.MODE_VIRTUAL }) {
+                runChild(args, mode);
+            }
+            return;
+        }
+
+        // Relay như ServerRelay.startPort, nhưng 1 cổng ngẫu nhiên nhận cả 3 loại kết nối (connectType nằm trong lời chào)
+        ServerExecutor executor = new ServerExecutor(threadMode);
+        RelayEngine relayEngine = new RelayEngine(relayMode, Runtime.getRuntime().availableProcessors(), executor);
+        relayEngine.start();
+        Map<String, Session> activeSessions = new ConcurrentHashMap<>();
+        ServerSocketChannel listener = ServerSocketChannel.open();
+        listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4096);
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    SocketChannel channel = listener.accept();
+                    executor.execute(new ClientHandler(channel.socket(), activeSessions, relayEngine));
+                }
+            } catch (IOException e) {
+                // listener đóng khi kết thúc
+            }
+        }, "ReconnectStorm-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        ReconnectStorm storm = new ReconnectStorm(sharers, rounds, clientThreads,
+                (InetSocketAddress) listener.getLocalAddress());
+        List<String> results = storm.run();
+        System.out.println();
+        for (String line : results) {
+            System.out.println("[ReconnectStorm] " + executor.getMode() + "/" + relayEngine.getMode() + " " + line);
+        }
+        System.out.printf("[ReconnectStorm] %s/%s peak RSS %s, peak threads %d%n", executor.getMode(),
+                relayEngine.getMode(), peakRss(), ManagementFactory.getThreadMXBean().getPeakThreadCount());
+        storm.close();
+        listener.close();
+        System.exit(0);
+    }
+
+    // Chạy lại chính lớp này trong JVM mới với 1 THREAD_MODE cụ thể
+    private static void runChild(String[] args, String mode) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ReconnectStorm.class.getName());
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!"--thread-mode".equals(args[i])) {
+                command.add(args[i]);
+                command.add(args[i + 1]);
+            }
+        }
+        command.add("--thread-mode");
+        command.add(mode);
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        // Log của relay rất nhiều; chỉ giữ dòng kết quả
+        try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"))) {
+            String line;
+            while ((line = out.readLine()) != null) {
+                if (line.startsWith("[ReconnectStorm]") || line.startsWith("[ServerExecutor]")) {
+                    System.out.println(line);
+                }
+            }
+        }
+        process.waitFor();
+    }
+
+    List<String> run() throws Exception {
+        List<String> results = new ArrayList<>();
+        results.add(describe("sharers", connectAll("sharer", sharerSockets)));
+        results.add(describe("viewers", connectAll("viewer", viewerSockets)));
+        for (int round = 1; round <= rounds; round++) {
+            // Cả văn phòng rớt mạng: mọi viewer đóng socket cùng lúc rồi kết nối lại ngay
+            for (Socket socket : viewerSockets) {
+                socket.close();
+            }
+            viewerSockets = new ArrayList<>();
+            results.add(describe("reconnect " + round, connectAll("viewer", viewerSockets)));
+        }
+        return results;
+    }
+
+    void close() throws IOException {
+        clients.shutdownNow();
+        for (Socket socket : sharerSockets) {
+            socket.close();
+        }
+        for (Socket socket : viewerSockets) {
+            socket.close();
+        }
+    }
+
+    // Mọi kết nối của 1 pha bắt đầu cùng lúc; trả về thời gian handshake (ns) của từng kết nối
+    private long[] connectAll(String type, List<Socket> sockets) throws Exception {
+        List<Future<Long>> pending = new ArrayList<>();
+        List<Socket> opened = Collections.synchronizedList(sockets);
+        for (int i = 0; i < sharers; i++) {
+            String username = "storm-" + i;
+            for (String channel : CHANNELS) {
+                pending.add(clients.submit(() -> handshake(username, type, channel, opened)));
+            }
+        }
+        long[] latencies = new long[pending.size()];
+        int failed = 0;
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = pending.get(i).get();
+            if (latencies[i] < 0) {
+                failed++;
+            }
+        }
+        if (failed > 0) {
+            System.out.println("[ReconnectStorm] " + type + ": " + failed + " handshake bị từ chối hoặc lỗi");
+        }
+        return latencies;
+    }
+
+    private long handshake(String username, String type, String channel, List<Socket> opened) {
+        long start = System.nanoTime();
+        try {
+            Socket socket = new Socket();
+            socket.connect(address, TIMEOUT_MS);
+            socket.setSoTimeout(TIMEOUT_MS);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeUTF(username + ",storm," + type + ",1920,1080," + channel);
+            out.flush();
+            String reply = new DataInputStream(socket.getInputStream()).readUTF();
+            long elapsed = System.nanoTime() - start;
+            opened.add(socket);
+            return reply.startsWith("true") ? elapsed : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static String describe(String phase, long[] latencies) {
+        long[] ok = Arrays.stream(latencies).filter(l -> l >= 0).sorted().toArray();
+        if (ok.length == 0) {
+            return phase + ": không có handshake thành công";
+        }
+        return String.format("%-12s %5d handshakes p50 %.1f ms, p99 %.1f ms, max %.1f ms", phase + ":", ok.length,
+                percentile(ok, 50) / 1e6, percentile(ok, 99) / 1e6, ok[ok.length - 1] / 1e6);
+    }
+
+    private static long percentile(long[] sorted, int p) {
+        return sorted[Math.min(sorted.length - 1, (int) ((long) sorted.length * p / 100))];
+    }
+
+    // VmHWM: RSS đỉnh của process (Linux); nơi khác dùng heap đã cấp làm xấp xỉ
+    private static String peakRss() {
+        File status = new File("/proc/self/status");
+        if (status.exists()) {
+            try {
+                for (String line : Files.readAllLines(status.toPath())) {
+                    if (line.startsWith("VmHWM:")) {
+                        long kb = Long.parseLong(line.replaceAll("[^0-9]", ""));
+                        return String.format("%.1f MB", kb / 1024.0);
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                // dùng xấp xỉ bên dưới
+            }
+        }
+        return String.format("~%.1f MB (heap)", Runtime.getRuntime().totalMemory() / (1024.0 * 1024.0));
+    }
+}
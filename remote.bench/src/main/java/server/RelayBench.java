@@ -0,0 +1,160 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Relay qua loopback: sender → relay → receiver, mỗi op chuyển 1 MB và chờ receiver nhận đủ.
+ * channelType như RelayEngine truyền vào: stream (control/chat), screen (SocketChannel, direct buffer), mux (theo frame).
+ * engine=thread: RelayThread (stream = vòng byte[] + flush cũ); nio-direct / nio-heap: SelectorLoop với bộ đệm đọc
+ * dùng chung là direct hoặc heap ByteBuffer. Mỗi iteration in MB/s và MB/s trên 1 core relay (RelayCpu).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RelayBench {
+    private static final int CHUNKS_PER_OP = 64;
+
+    @Param({ "stream", "screen", "mux" })
+    public String channelType;
+
+    @Param({ "thread", "nio-direct", "nio-heap" })
+    public String engine;
+
+    private ServerSocketChannel listener;
+    private SocketChannel sender;
+    private SocketChannel receiver;
+    private OutputStream out;
+    // 1 frame mux đầy (16 KB), dùng cho cả 3 chế độ
+    private final byte[] chunk = new byte[MuxProtocol.HEADER_SIZE + MuxProtocol.MAX_PAYLOAD];
+    private final Object lock = new Object();
+    private long sent = 0;
+    private long received = 0;
+
+    private long iterationStart;
+    private long receivedAtStart;
+    private long cpuAtStart;
+
+    @Setup
+    public void setup() throws Exception {
+        listener = ServerSocketChannel.open();
+        listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        sender = SocketChannel.open(listener.getLocalAddress());
+        SocketChannel relayFrom = listener.accept();
+        receiver = SocketChannel.open(listener.getLocalAddress());
+        SocketChannel relayTo = listener.accept();
+
+        Runnable relay;
+        if ("thread".equals(engine)) {
+            relay = new RelayThread(relayFrom.socket(), relayTo.socket(), null, "sharer", channelType);
+        } else {
+            // SelectorLoop cần session để ghi số liệu; relay 2 chiều nhưng benchmark chỉ gửi 1 chiều
+            Map<SocketChannel, SelectorLoop> owners = new ConcurrentHashMap<>();
+            SelectorLoop loop = new SelectorLoop("RelayLoop-bench", owners, "nio-direct".equals(engine));
+            Session session = new Session("bench", "", "1920", "1080", new ConcurrentHashMap<>(), null);
+            owners.put(relayFrom, loop);
+            owners.put(relayTo, loop);
+            loop.register(relayFrom.socket(), relayTo.socket(), session,
+                    "stream".equals(channelType) ? "control" : channelType);
+            relay = loop;
+        }
+        Thread relayThread = new Thread(relay, "RelayBench-relay");
+        relayThread.setDaemon(true);
+        relayThread.start();
+
+        InputStream in = receiver.socket().getInputStream();
+        Thread sink = new Thread(() -> drain(in), "RelayBench-sink");
+        sink.setDaemon(true);
+        sink.start();
+
+        chunk[0] = MuxProtocol.CHANNEL_SCREEN;
+        chunk[1] = MuxProtocol.FLAG_END;
+        int length = MuxProtocol.MAX_PAYLOAD;
+        chunk[2] = (byte) (length >>> 24);
+        chunk[3] = (byte) (length >>> 16);
+        chunk[4] = (byte) (length >>> 8);
+        chunk[5] = (byte) length;
+        out = sender.socket().getOutputStream();
+    }
+
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        synchronized (lock) {
+            receivedAtStart = received;
+        }
+        cpuAtStart = RelayCpu.nanos();
+        iterationStart = System.nanoTime();
+    }
+
+    @Benchmark
+    public long relay1MB() throws Exception {
+        for (int i = 0; i < CHUNKS_PER_OP; i++) {
+            out.write(chunk);
+        }
+        synchronized (lock) {
+            sent += (long) CHUNKS_PER_OP * chunk.length;
+            while (received < sent) {
+                lock.wait();
+            }
+            return received;
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void endIteration() {
+        double seconds = (System.nanoTime() - iterationStart) / 1e9;
+        double cores = (RelayCpu.nanos() - cpuAtStart) / 1e9 / seconds;
+        double mb;
+        synchronized (lock) {
+            mb = (received - receivedAtStart) / (1024.0 * 1024.0);
+        }
+        System.out.printf("[RelayBench] %s %s: %.1f MB/s, relay CPU %.2f cores, %.1f MB/s/core%n", engine, channelType,
+                mb / seconds, cores, cores > 0 ? mb / seconds / cores : 0);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        sender.close();
+        receiver.close();
+        listener.close();
+    }
+
+    private void drain(InputStream in) {
+        byte[] buffer = new byte[64 * 1024];
+        try {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                synchronized (lock) {
+                    received += n;
+                    lock.notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            // receiver đóng ở tearDown
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package server;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+
+/*
+ * CPU đã dùng của các thread relay, để benchmark tính MB/s trên 1 core relay (không tính thread gửi/nhận
+ * của chính benchmark): SelectorLoop đặt tên RelayLoop-*, ServerExecutor (platform) relay-worker-*,
+ * RelayBench chạy RelayThread trên RelayBench-relay.
+ */
+final class RelayCpu {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private RelayCpu() {
+    }
+
+    static long nanos() {
+        long total = 0;
+        for (ThreadInfo info : THREADS.getThreadInfo(THREADS.getAllThreadIds())) {
+            if (info == null) {
+                continue;
+            }
+            String name = info.getThreadName();
+            if (name.startsWith("RelayLoop-") || name.startsWith("relay-worker-") || name.startsWith("RelayBench-relay")) {
+                long cpu = THREADS.getThreadCpuTime(info.getThreadId());
+                if (cpu > 0) {
+                    total += cpu;
+                }
+            }
+        }
+        return total;
+    }
+
+    static int threadCount() {
+        return THREADS.getThreadCount();
+    }
+}
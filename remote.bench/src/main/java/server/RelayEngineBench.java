@@ -0,0 +1,184 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * RelayEngine với nhiều session cùng lúc qua loopback, engine=nio (SelectorLoop) và engine=thread (RelayThread).
+ * Mỗi session đăng ký đủ 3 kênh như Session (screen, control, chat); chỉ kênh screen có dữ liệu,
+ * control/chat đứng yên như phần lớn thời gian thật. 1 op = mỗi session chuyển CHUNK byte sharer → viewer.
+ * Mỗi iteration in MB/s, CPU của các thread relay (RelayCpu, không tính thread của benchmark),
+ * MB/s trên 1 core relay và số session/core nếu mỗi session cần SESSION_RATE_MB (≈ 1 luồng delta 1080p).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RelayEngineBench {
+    private static final int CHUNK = 16 * 1024;
+    private static final double SESSION_RATE_MB = 1.0;
+    private static final String[] CHANNELS = { "screen", "control", "chat" };
+
+    @Param({ "nio", "thread" })
+    public String engine;
+
+    @Param({ "16", "256" })
+    public int sessions;
+
+    private ServerSocketChannel listener;
+    private ServerExecutor executor;
+    private final List<SocketChannel> sockets = new ArrayList<>();
+    private SocketChannel[] senders;
+    private Selector receivers;
+    private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK);
+    private final Object lock = new Object();
+    private long sent = 0;
+    private long received = 0;
+    private volatile boolean running = true;
+
+    private long iterationStart;
+    private long receivedAtStart;
+    private long cpuAtStart;
+
+    @Setup
+    public void setup() throws Exception {
+        listener = ServerSocketChannel.open();
+        listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        executor = new ServerExecutor(ServerExecutor.MODE_PLATFORM);
+        RelayEngine relayEngine = new RelayEngine(engine, Runtime.getRuntime().availableProcessors(), executor);
+        relayEngine.start();
+
+        Map<String, Session> map = new ConcurrentHashMap<>();
+        senders = new SocketChannel[sessions];
+        receivers = Selector.open();
+        for (int i = 0; i < sessions; i++) {
+            Session session = new Session("bench-" + i, "", "1920", "1080", map, relayEngine);
+            for (String channel : CHANNELS) {
+                SocketChannel sharer = connect();
+                SocketChannel sharerRelay = listener.accept();
+                SocketChannel viewer = connect();
+                SocketChannel viewerRelay = listener.accept();
+                relayEngine.relay(sharerRelay.socket(), viewerRelay.socket(), session, channel);
+                if ("screen".equals(channel)) {
+                    senders[i] = sharer;
+                    viewer.configureBlocking(false);
+                    viewer.register(receivers, SelectionKey.OP_READ);
+                }
+            }
+        }
+
+        Thread sink = new Thread(this::drain, "RelayEngineBench-sink");
+        sink.setDaemon(true);
+        sink.start();
+    }
+
+    private SocketChannel connect() throws IOException {
+        SocketChannel channel = SocketChannel.open(listener.getLocalAddress());
+        sockets.add(channel);
+        return channel;
+    }
+
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        synchronized (lock) {
+            receivedAtStart = received;
+        }
+        cpuAtStart = RelayCpu.nanos();
+        iterationStart = System.nanoTime();
+    }
+
+    @Benchmark
+    public long relayChunk() throws Exception {
+        for (SocketChannel sender : senders) {
+            chunk.clear();
+            while (chunk.hasRemaining()) {
+                sender.write(chunk);
+            }
+        }
+        synchronized (lock) {
+            sent += (long) CHUNK * senders.length;
+            while (received < sent) {
+                lock.wait();
+            }
+            return received;
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void endIteration() {
+        double seconds = (System.nanoTime() - iterationStart) / 1e9;
+        double cores = (RelayCpu.nanos() - cpuAtStart) / 1e9 / seconds;
+        double mb;
+        synchronized (lock) {
+            mb = (received - receivedAtStart) / (1024.0 * 1024.0);
+        }
+        double mbPerCore = cores > 0 ? mb / seconds / cores : 0;
+        System.out.printf("[RelayEngineBench] %s %d sessions: %.1f MB/s, relay CPU %.2f cores, %.1f MB/s/core,"
+                + " ~%.0f sessions/core at %.1f MB/s each, %d threads%n", engine, sessions, mb / seconds, cores,
+                mbPerCore, mbPerCore / SESSION_RATE_MB, SESSION_RATE_MB, RelayCpu.threadCount());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        running = false;
+        for (SocketChannel socket : sockets) {
+            socket.close();
+        }
+        receivers.close();
+        listener.close();
+        executor.shutdown();
+    }
+
+    private void drain() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+        try {
+            while (running) {
+                receivers.select(100);
+                long n = 0;
+                for (SelectionKey key : receivers.selectedKeys()) {
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    int read;
+                    while ((read = channel.read(buffer)) > 0) {
+                        n += read;
+                        buffer.clear();
+                    }
+                }
+                receivers.selectedKeys().clear();
+                if (n > 0) {
+                    synchronized (lock) {
+                        received += n;
+                        lock.notifyAll();
+                    }
+                }
+            }
+        } catch (Exception e) {
+            // Socket đóng ở tearDown
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package server;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Byte trên dây khi cuộn, có và không có copy-rect (CAP_COPY_RECT): FRAMES frame liên tiếp của kịch bản
+ * chạy qua diff + encode (PipelineReplay). Setup in KB/frame (không tính full frame đầu) cho từng cấu hình;
+ * điểm chính là thời gian diff + dò cuộn + encode cả chuỗi.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ScrollBench {
+    private static final int FRAMES = 40;
+
+    @Param({ "scrolling", "mixed" })
+    public String scenario;
+
+    @Param({ "on", "off" })
+    public String copyRect;
+
+    private BufferedImage[] frames;
+
+    @Setup
+    public void setup() throws IOException {
+        frames = BenchFrames.capture(scenario, 1920, 1080, FRAMES);
+        PipelineReplay replay = new PipelineReplay("on".equals(copyRect), 0);
+        replay.frame(frames[0]);
+        long bytes = 0;
+        for (int i = 1; i < FRAMES; i++) {
+            bytes += replay.frame(frames[i]);
+        }
+        System.out.printf("%n[ScrollBench] %s copy-rect=%s: %.1f KB/frame over %d frames%n", scenario, copyRect,
+                bytes / 1024.0 / (FRAMES - 1), FRAMES - 1);
+    }
+
+    @Benchmark
+    public long replay() throws IOException {
+        PipelineReplay replay = new PipelineReplay("on".equals(copyRect), 0);
+        long bytes = 0;
+        for (BufferedImage frame : frames) {
+            bytes += replay.frame(frame);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,68 @@
+package server;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Byte trên dây khi chuyển cửa sổ, có và không có cache khối (CAP_TILE_CACHE, VIEWER_CACHE_BLOCKS như
+ * ReceiveScreen): FRAMES frame của kịch bản chạy qua diff + encode (PipelineReplay, copy-rect bật như viewer thật).
+ * window-switch đổi cửa sổ mỗi 10 frame (quay lại màn hình cũ mỗi 20 frame); mixed để so với nội dung đổi liên tục.
+ * Setup in KB/frame (không tính full frame đầu); điểm chính là thời gian diff + tra cache + encode cả chuỗi.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class TileCacheBench {
+    private static final int FRAMES = 60;
+    private static final int VIEWER_CACHE_BLOCKS = 2048;
+
+    @Param({ "window-switch", "mixed" })
+    public String scenario;
+
+    @Param({ "on", "off" })
+    public String cache;
+
+    private BufferedImage[] frames;
+
+    @Setup
+    public void setup() throws IOException {
+        frames = BenchFrames.capture(scenario, 1920, 1080, FRAMES);
+        PipelineReplay replay = newReplay();
+        replay.frame(frames[0]);
+        long bytes = 0;
+        for (int i = 1; i < FRAMES; i++) {
+            bytes += replay.frame(frames[i]);
+        }
+        System.out.printf("%n[TileCacheBench] %s cache=%s: %.1f KB/frame over %d frames%n", scenario, cache,
+                bytes / 1024.0 / (FRAMES - 1), FRAMES - 1);
+    }
+
+    @Benchmark
+    public long replay() throws IOException {
+        PipelineReplay replay = newReplay();
+        long bytes = 0;
+        for (BufferedImage frame : frames) {
+            bytes += replay.frame(frame);
+        }
+        return bytes;
+    }
+
+    private PipelineReplay newReplay() {
+        return new PipelineReplay(true, "on".equals(cache) ? VIEWER_CACHE_BLOCKS : 0);
+    }
+}
@@ -5,15 +5,20 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
-public class ClientHandler extends Thread {
+public class ClientHandler implements Runnable {
     private final Socket clientSocket;
     private final Map<String, Session> activeSessions;
+    private final RelayEngine relayEngine;
     private final int MAX_CLIENTS = 100;
+    // Tra/tạo session của mọi ClientHandler đi qua lock này; không ghi socket khi đang giữ lock
+    private static final ReentrantLock SESSIONS_LOCK = new ReentrantLock();
 
-    public ClientHandler(Socket clientSocket, Map<String, Session> activeSessions) {
+    public ClientHandler(Socket clientSocket, Map<String, Session> activeSessions, RelayEngine relayEngine) {
         this.clientSocket = clientSocket;
         this.activeSessions = activeSessions;
+        this.relayEngine = relayEngine;
     }
 
     @Override
@@ -64,30 +69,35 @@ public class ClientHandler extends Thread {
 
         // Nó gửi "true,..." cho cả 3 kết nối, điều này là OK
         // vì MainStart (Sharer) đọc cả 3.
-        synchronized (activeSessions) {
+        String reply = acceptSharer(username, password, connectType, w, h);
+        dos.writeUTF(reply);
+        if (reply.startsWith("false")) {
+            clientSocket.close();
+        }
+    }
+
+    // Quyết định dưới SESSIONS_LOCK, trả về câu trả lời để ghi sau khi nhả lock
+    private String acceptSharer(String username, String password, String connectType, String w, String h)
+            throws IOException {
+        SESSIONS_LOCK.lock();
+        try {
             Session session = activeSessions.get(username);
             if (session == null) {
 
                 if (activeSessions.size() >= MAX_CLIENTS) {
-                    dos.writeUTF("false,Server is full");
-                    clientSocket.close();
-                    return;
+                    return "false,Server is full";
                 }
-                session = new Session(username, password, w, h, activeSessions);
+                session = new Session(username, password, w, h, activeSessions, relayEngine);
                 activeSessions.put(username, session);
             }
 
             if (session.isActive()) {
                 System.out.println("[ClientHandler] REJECT: Session is ACTIVE, not allowing duplicate sharer");
-                dos.writeUTF("false,Session is already active");
-                clientSocket.close();
-                return;
+                return "false,Session is already active";
             }
             if (!session.checkPassword(password)) {
                 System.out.println("[ClientHandler] REJECT: Password mismatch for session: " + username);
-                dos.writeUTF("false,Username already exists with different password");
-                clientSocket.close();
-                return;
+                return "false,Username already exists with different password";
             }
             System.out.println("[ClientHandler] ACCEPT: Session is WAITING, allowing reconnection");
 
@@ -95,11 +105,12 @@ public class ClientHandler extends Thread {
 
             if (session.isSharerReady()) {
                 System.out.println("Sharer '" + username + "' is now fully connected and ready.");
-                dos.writeUTF("true,Sharer is ready");
-            } else {
-                System.out.println("Sharer '" + username + "' connected one channel. Waiting for the other.");
-                dos.writeUTF("true,Channel connected");
+                return "true,Sharer is ready";
             }
+            System.out.println("Sharer '" + username + "' connected one channel. Waiting for the other.");
+            return "true,Channel connected";
+        } finally {
+            SESSIONS_LOCK.unlock();
         }
     }
 
@@ -107,8 +118,11 @@ public class ClientHandler extends Thread {
             DataOutputStream dos)
             throws IOException {
         Session session;
-        synchronized (activeSessions) {
+        SESSIONS_LOCK.lock();
+        try {
             session = activeSessions.get(username);
+        } finally {
+            SESSIONS_LOCK.unlock();
         }
         if (session == null) {
             dos.writeUTF("false,Session not found");
@@ -125,15 +139,22 @@ public class ClientHandler extends Thread {
             clientSocket.close();
             return;
         }
+        if ("mux".equals(connectType) != session.isMux()) {
+            // Sharer và viewer phải cùng dùng mux hoặc cùng dùng 3 socket
+            dos.writeUTF("false,Protocol mismatch (mux/legacy)");
+            clientSocket.close();
+            return;
+        }
 
         // Giao socket cho session VÀ để Session tự gửi tín hiệu "START_SESSION"
         System.out.println(
                 "[ClientHandler] Viewer connecting to session: " + username + ", status: " + session.getStatus());
 
-        session.setViewerSocketAndAttemptRelay(clientSocket, connectType);
-
+        // Trả lời viewer TRƯỚC khi giao socket: với RelayEngine (NIO) socket chuyển sang
+        // non-blocking ngay khi relay bắt đầu nên không ghi trực tiếp được nữa
         switch (connectType) {
             case "screen":
+            case "mux":
 
                 dos.writeUTF("true," + session.getWidth() + "," + session.getHeight());
                 break;
@@ -147,8 +168,11 @@ public class ClientHandler extends Thread {
                 break;
             default:
                 dos.writeUTF("false,Unknown connectType");
-                break;
+                return;
         }
+        dos.flush();
+
+        session.setViewerSocketAndAttemptRelay(clientSocket, connectType);
 
     }
 }
\ No newline at end of file
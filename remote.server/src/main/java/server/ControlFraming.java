@@ -0,0 +1,92 @@
+package server;
+
+import java.nio.ByteBuffer;
+
+// Biên thông điệp trên kênh control, phải khớp với common.ControlProtocol phía client:
+// [0xFF][mã lệnh][varint zigzag] (+ 2 tọa độ ushort với lệnh có con trỏ), [0xFE][ushort len][len byte],
+// [0xFD][ushort len][int seq][len byte], [0xFC][mã lệnh][ubyte n][n byte];
+// byte đầu khác là writeUTF [ushort len][len byte].
+// Relay chỉ chèn lệnh của server (RESTART_SHARESCREEN...) vào giữa 2 thông điệp trọn vẹn.
+final class ControlFraming {
+    static final int MARKER = 0xFF;
+    static final int BATCH = 0xFE;
+    static final int BATCH_SEQ = 0xFD;
+    static final int SIZED = 0xFC;
+    static final int MAX_MESSAGE_BYTES = 7 + 0xFFFF;
+
+    // Mã lệnh Commands: PRESS_MOUSE (-1) tới MOUSE_DRAGGED (-8); MOVE_MOUSE và MOUSE_DRAGGED có tọa độ
+    private static final int MIN_ABBREV = -8;
+    private static final int MOVE_MOUSE = -5;
+    private static final int MOUSE_DRAGGED = -8;
+    private static final int MAX_VARINT_BYTES = 5;
+
+    private ControlFraming() {
+    }
+
+    // Vị trí ngay sau thông điệp trọn vẹn cuối cùng trong [position, limit) của data;
+    // -1 nếu gặp mã lệnh lạ (không biết độ dài, không tách được)
+    static int completeEnd(ByteBuffer data) {
+        int offset = data.position();
+        int limit = data.limit();
+        int length;
+        while ((length = messageLength(data, offset, limit)) > 0) {
+            offset += length;
+        }
+        return length < 0 ? -1 : offset;
+    }
+
+    // Độ dài thông điệp bắt đầu ở offset; 0 nếu chưa nhận đủ, -1 nếu mã lệnh lạ
+    private static int messageLength(ByteBuffer data, int offset, int limit) {
+        int available = limit - offset;
+        if (available < 1) {
+            return 0;
+        }
+        int first = data.get(offset) & 0xFF;
+        int length;
+        if (first == MARKER) {
+            if (available < 2) {
+                return 0;
+            }
+            int abbrev = data.get(offset + 1);
+            if (abbrev >= 0 || abbrev < MIN_ABBREV) {
+                return -1;
+            }
+            length = 2;
+            while (true) {
+                if (length >= available) {
+                    return 0;
+                }
+                if (length - 2 == MAX_VARINT_BYTES) {
+                    return -1;
+                }
+                if ((data.get(offset + length++) & 0x80) == 0) {
+                    break;
+                }
+            }
+            if (abbrev == MOVE_MOUSE || abbrev == MOUSE_DRAGGED) {
+                length += 4;
+            }
+        } else if (first == SIZED) {
+            if (available < 3) {
+                return 0;
+            }
+            length = 3 + (data.get(offset + 2) & 0xFF);
+        } else if (first == BATCH || first == BATCH_SEQ) {
+            int header = first == BATCH ? 3 : 7;
+            if (available < header) {
+                return 0;
+            }
+            length = header + unsignedShort(data, offset + 1);
+        } else {
+            if (available < 2) {
+                return 0;
+            }
+            length = 2 + unsignedShort(data, offset);
+        }
+        return length <= available ? length : 0;
+    }
+
+    private static int unsignedShort(ByteBuffer data, int offset) {
+        return (data.get(offset) & 0xFF) << 8 | (data.get(offset + 1) & 0xFF);
+    }
+}
@@ -0,0 +1,202 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/*
+ * Hàng đợi frame mux gửi tới 1 endpoint, chia theo kênh.
+ * - Kênh có id nhỏ hơn luôn được gửi trước (control > chat > screen).
+ * - Một frame đã bắt đầu ghi thì phải ghi xong mới chuyển kênh.
+ * - Khi hàng đợi screen vượt SCREEN_SOFT_LIMIT và có thông điệp SYNC (full frame) mới tới,
+ *   các thông điệp DROPPABLE chưa gửi đứng trước nó bị bỏ thay vì làm trễ input.
+ *   offer() trả về số byte payload đã bỏ để relay cấp lại cửa sổ gửi cho bên gửi.
+ * - Thông điệp control của bên gửi có thể trải trên nhiều frame (chỉ frame cuối có FLAG_END). Frame control
+ *   chỉ được lấy ra gửi khi đã nhận tới FLAG_END, và thông điệp server chèn vào (inject) đợi tới ranh giới đó,
+ *   nên không bao giờ nằm giữa 1 thông điệp; bên gửi rớt giữa chừng thì phần dở bị bỏ (dropUnterminatedControl).
+ */
+class FrameScheduler {
+    static final int SCREEN_SOFT_LIMIT = 2 * 1024 * 1024;
+    // Thông điệp control dài hơn mức này (bên gửi không flush) thì gửi dần, không đợi FLAG_END nữa
+    static final int CONTROL_HOLD_LIMIT = 1024 * 1024;
+
+    private final List<ArrayDeque<Frame>> queues = new ArrayList<>(MuxProtocol.CHANNEL_COUNT);
+    private Frame inFlight;
+    private int queuedBytes = 0;
+    private int screenBytes = 0;
+    // Frame screen cuối cùng đã lấy ra gửi chưa có FLAG_END → đầu hàng đợi là phần tiếp của nó
+    private boolean screenSendingMidMessage = false;
+    // Frame screen cuối cùng nhận được chưa có FLAG_END → bên gửi đang ở giữa 1 thông điệp
+    private boolean screenArrivingMidMessage = false;
+    // Tương tự cho control: frame control cuối cùng nhận được chưa có FLAG_END
+    private boolean controlArrivingMidMessage = false;
+    // Số frame đầu hàng đợi control thuộc các thông điệp đã nhận trọn (được phép gửi)
+    private int controlReady = 0;
+    private int controlHeldBytes = 0;
+    // Thông điệp server chèn vào trong lúc bên gửi đang ở giữa 1 thông điệp control
+    private final ArrayDeque<Frame> parkedControl = new ArrayDeque<>();
+
+    FrameScheduler() {
+        for (int i = 0; i < MuxProtocol.CHANNEL_COUNT; i++) {
+            queues.add(new ArrayDeque<>());
+        }
+    }
+
+    int offer(ByteBuffer data, SessionMetrics metrics) {
+        int channel = Math.min(Math.max(data.get(0), 0), MuxProtocol.CHANNEL_COUNT - 1);
+        byte flags = data.get(1);
+        int dropped = 0;
+
+        if (channel == MuxProtocol.CHANNEL_SCREEN) {
+            if (!screenArrivingMidMessage && (flags & MuxProtocol.FLAG_SYNC) != 0
+                    && screenBytes > SCREEN_SOFT_LIMIT) {
+                dropped = dropStaleScreen(metrics);
+            }
+            screenArrivingMidMessage = (flags & MuxProtocol.FLAG_END) == 0;
+            screenBytes += data.remaining();
+        }
+        queues.get(channel).add(new Frame(data, (byte) channel, flags, System.nanoTime()));
+        queuedBytes += data.remaining();
+        if (channel == MuxProtocol.CHANNEL_CONTROL) {
+            controlArrivingMidMessage = (flags & MuxProtocol.FLAG_END) == 0;
+            controlHeldBytes += data.remaining();
+            if (!controlArrivingMidMessage) {
+                releaseParked();
+            } else if (controlHeldBytes > CONTROL_HOLD_LIMIT) {
+                controlReady = queues.get(channel).size();
+            }
+        }
+        return dropped;
+    }
+
+    // Thông điệp do server tạo (START_SESSION, RESTART_SHARESCREEN...), luôn là 1 frame có FLAG_END
+    void inject(ByteBuffer data, SessionMetrics metrics) {
+        if (data.get(0) == MuxProtocol.CHANNEL_CONTROL && controlArrivingMidMessage) {
+            parkedControl.add(new Frame(data, MuxProtocol.CHANNEL_CONTROL, data.get(1), System.nanoTime()));
+            return;
+        }
+        offer(data, metrics);
+    }
+
+    // Bên gửi đã ngắt (hoặc được ghép với peer mới): bỏ phần thông điệp control chưa nhận trọn,
+    // rồi cho các thông điệp đang đợi vào hàng. Trả về số frame đã bỏ
+    int dropUnterminatedControl() {
+        if (!controlArrivingMidMessage) {
+            return 0;
+        }
+        ArrayDeque<Frame> queue = queues.get(MuxProtocol.CHANNEL_CONTROL);
+        int dropped = 0;
+        while (queue.size() > controlReady) {
+            queuedBytes -= queue.pollLast().size;
+            dropped++;
+        }
+        controlArrivingMidMessage = false;
+        releaseParked();
+        return dropped;
+    }
+
+    private void releaseParked() {
+        ArrayDeque<Frame> queue = queues.get(MuxProtocol.CHANNEL_CONTROL);
+        Frame frame;
+        while ((frame = parkedControl.poll()) != null) {
+            queue.add(frame);
+            queuedBytes += frame.size;
+        }
+        controlReady = queue.size();
+        controlHeldBytes = 0;
+    }
+
+    // Frame đang cần ghi (null nếu hết)
+    ByteBuffer current() {
+        if (inFlight == null) {
+            for (int channel = 0; channel < queues.size(); channel++) {
+                if (channel == MuxProtocol.CHANNEL_CONTROL && controlReady == 0) {
+                    // Thông điệp control chưa nhận trọn: đợi FLAG_END
+                    continue;
+                }
+                Frame frame = queues.get(channel).poll();
+                if (frame != null) {
+                    inFlight = frame;
+                    if (frame.channel == MuxProtocol.CHANNEL_CONTROL) {
+                        controlReady--;
+                    } else if (frame.channel == MuxProtocol.CHANNEL_SCREEN) {
+                        screenSendingMidMessage = (frame.flags & MuxProtocol.FLAG_END) == 0;
+                        screenBytes -= frame.size;
+                    }
+                    break;
+                }
+            }
+        }
+        return inFlight != null ? inFlight.data : null;
+    }
+
+    // Gọi khi frame hiện tại đã ghi hết
+    void completed(SessionMetrics metrics) {
+        if (inFlight.channel == MuxProtocol.CHANNEL_CONTROL && metrics != null) {
+            metrics.recordControlDelay(System.nanoTime() - inFlight.arrivedNanos);
+        }
+        queuedBytes -= inFlight.size;
+        inFlight = null;
+    }
+
+    int getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    private int dropStaleScreen(SessionMetrics metrics) {
+        ArrayDeque<Frame> queue = queues.get(MuxProtocol.CHANNEL_SCREEN);
+        boolean keepCurrentMessage = screenSendingMidMessage;
+        boolean dropCurrentMessage = false;
+        int droppedMessages = 0;
+        int droppedBytes = 0;
+        int droppedPayload = 0;
+
+        Iterator<Frame> it = queue.iterator();
+        while (it.hasNext()) {
+            Frame frame = it.next();
+            boolean startsMessage = !keepCurrentMessage && !dropCurrentMessage;
+            if (startsMessage) {
+                if ((frame.flags & MuxProtocol.FLAG_DROPPABLE) != 0) {
+                    dropCurrentMessage = true;
+                    droppedMessages++;
+                } else {
+                    keepCurrentMessage = true;
+                }
+            }
+            if (dropCurrentMessage) {
+                it.remove();
+                droppedBytes += frame.size;
+                droppedPayload += frame.size - MuxProtocol.HEADER_SIZE;
+            }
+            if ((frame.flags & MuxProtocol.FLAG_END) != 0) {
+                keepCurrentMessage = false;
+                dropCurrentMessage = false;
+            }
+        }
+
+        screenBytes -= droppedBytes;
+        queuedBytes -= droppedBytes;
+        if (metrics != null && droppedMessages > 0) {
+            metrics.recordScreenDrop(droppedMessages, droppedBytes);
+        }
+        return droppedPayload;
+    }
+
+    private static class Frame {
+        final ByteBuffer data;
+        final byte channel;
+        final byte flags;
+        final int size;
+        final long arrivedNanos;
+
+        Frame(ByteBuffer data, byte channel, byte flags, long arrivedNanos) {
+            this.data = data;
+            this.channel = channel;
+            this.flags = flags;
+            this.size = data.remaining();
+            this.arrivedNanos = arrivedNanos;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Định dạng frame của kết nối mux, phải khớp với common.MuxConnection phía client:
+// [byte channel][byte flags][int length][payload]
+public final class MuxProtocol {
+
+    public static final byte CHANNEL_CONTROL = 1;
+    public static final byte CHANNEL_CHAT = 2;
+    public static final byte CHANNEL_SCREEN = 3;
+    public static final int CHANNEL_COUNT = 8;
+    // Cập nhật cửa sổ nhận giữa 2 MuxConnection: [byte channel][int bytes], relay chuyển tiếp như frame thường
+    public static final byte CHANNEL_WINDOW = 0;
+
+    public static final int HEADER_SIZE = 6;
+    public static final int MAX_PAYLOAD = 16 * 1024;
+    public static final byte FLAG_END = 0x01;
+    // Thông điệp bắt đầu trạng thái mới (full frame): được bỏ các thông điệp DROPPABLE đứng trước
+    public static final byte FLAG_SYNC = 0x02;
+    public static final byte FLAG_DROPPABLE = 0x04;
+
+    private MuxProtocol() {
+    }
+
+    // Cấp lại cửa sổ cho bên gửi khi relay bỏ thông điệp của nó (bên nhận không bao giờ đọc được để tự báo)
+    public static ByteBuffer windowFrame(byte channel, int bytes) {
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + 5);
+        frame.put(CHANNEL_WINDOW).put(FLAG_END).putInt(5).put(channel).putInt(bytes);
+        frame.flip();
+        return frame;
+    }
+
+    // Thông điệp writeUTF đóng gói thành 1 frame (dùng cho START_SESSION, RESTART_SHARESCREEN)
+    public static byte[] frameUTF(byte channel, String message) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        new DataOutputStream(payload).writeUTF(message);
+
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(HEADER_SIZE + payload.size());
+        DataOutputStream dos = new DataOutputStream(frame);
+        dos.writeByte(channel);
+        dos.writeByte(FLAG_END);
+        dos.writeInt(payload.size());
+        payload.writeTo(dos);
+        dos.flush();
+        return frame.toByteArray();
+    }
+}
@@ -0,0 +1,94 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class RelayEngine {
+
+    public static final String MODE_NIO = "nio";
+    public static final String MODE_THREAD = "thread";
+
+    private final String mode;
+    private final ServerExecutor executor;
+    private final SelectorLoop[] loops;
+    // Channel nào đang được SelectorLoop quản lý (non-blocking) thì phải ghi qua loop đó
+    private final Map<SocketChannel, SelectorLoop> owners = new ConcurrentHashMap<>();
+
+    public RelayEngine(String mode, int loopCount, ServerExecutor executor) throws IOException {
+        this.mode = MODE_THREAD.equalsIgnoreCase(mode) ? MODE_THREAD : MODE_NIO;
+        this.executor = executor;
+        if (MODE_NIO.equals(this.mode)) {
+            int count = Math.max(1, loopCount);
+            loops = new SelectorLoop[count];
+            for (int i = 0; i < count; i++) {
+                loops[i] = new SelectorLoop("RelayLoop-" + i, owners);
+            }
+        } else {
+            loops = new SelectorLoop[0];
+        }
+        System.out.println("[RelayEngine] Mode: " + this.mode + ", event loops: " + loops.length);
+    }
+
+    public void start() {
+        for (SelectorLoop loop : loops) {
+            Thread t = new Thread(loop, loop.getName());
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    // Relay 2 chiều giữa socket của sharer và viewer; channelType = "screen" | "control" | "chat" | "mux"
+    public void relay(Socket sharerSocket, Socket viewerSocket, Session session, String channelType)
+            throws Exception {
+        SocketChannel sharerChannel = sharerSocket.getChannel();
+        SocketChannel viewerChannel = viewerSocket.getChannel();
+
+        if (loops.length == 0 || sharerChannel == null || viewerChannel == null) {
+            executor.execute(new RelayThread(sharerSocket, viewerSocket, session, "sharer", channelType));
+            executor.execute(new RelayThread(viewerSocket, sharerSocket, session, "viewer", channelType));
+            return;
+        }
+
+        // Mọi socket của 1 session nằm trên cùng 1 loop để ghép lại cặp khi reconnect
+        SelectorLoop loop = loops[Math.floorMod(System.identityHashCode(session), loops.length)];
+        owners.put(sharerChannel, loop);
+        owners.put(viewerChannel, loop);
+        loop.register(sharerSocket, viewerSocket, session, channelType);
+    }
+
+    public void sendUTF(Socket socket, String message) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeUTF(message);
+        dos.flush();
+        send(socket, baos.toByteArray());
+    }
+
+    public void send(Socket socket, byte[] data) throws IOException {
+        SocketChannel channel = socket.getChannel();
+        SelectorLoop loop = channel != null ? owners.get(channel) : null;
+        if (loop != null) {
+            loop.send(channel, ByteBuffer.wrap(data));
+            return;
+        }
+        ReentrantLock writeLock = RelayThread.writeLock(socket);
+        writeLock.lock();
+        try {
+            socket.getOutputStream().write(data);
+            socket.getOutputStream().flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+}
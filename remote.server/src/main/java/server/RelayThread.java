@@ -1,44 +1,69 @@
 package server;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class RelayThread implements Runnable {
+    static final int BUFFER_SIZE = 16384;
+    static final int SCREEN_BUFFER_SIZE = 256 * 1024;
+    // Khóa ghi theo socket, dùng chung với RelayEngine.send (ReentrantLock: không ghim virtual thread khi ghi chặn)
+    private static final Map<Socket, ReentrantLock> WRITE_LOCKS = Collections.synchronizedMap(new WeakHashMap<>());
 
-public class RelayThread extends Thread {
     private final InputStream inputStream;
     private final OutputStream outputStream;
     private final Socket fromSocket;
     private final Socket toSocket;
     private final Session session;
     private final String senderType; // "sharer" hoặc "viewer"
+    private final String channelType; // "screen", "control", "chat", "mux"
 
     public RelayThread(Socket fromSocket, Socket toSocket) throws Exception {
-        this(fromSocket, toSocket, null, null);
+        this(fromSocket, toSocket, null, null, null);
     }
 
     public RelayThread(Socket fromSocket, Socket toSocket, Session session, String senderType) throws Exception {
+        this(fromSocket, toSocket, session, senderType, null);
+    }
+
+    public RelayThread(Socket fromSocket, Socket toSocket, Session session, String senderType, String channelType)
+            throws Exception {
         this.fromSocket = fromSocket;
         this.toSocket = toSocket;
         this.inputStream = fromSocket.getInputStream();
         this.outputStream = toSocket.getOutputStream();
         this.session = session;
         this.senderType = senderType;
+        this.channelType = channelType;
 
         System.out.println("[RelayThread] Created relay for: " + senderType);
     }
 
     @Override
     public void run() {
-        byte[] buffer = new byte[16384];
-        int bytesRead;
-
         String threadName = Thread.currentThread().getName();
         System.out.println("[RelayThread-" + threadName + "] Started: " + senderType + " relay");
 
         try {
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, bytesRead);
-                outputStream.flush();
+            SocketChannel fromChannel = fromSocket.getChannel();
+            SocketChannel toChannel = toSocket.getChannel();
+            if ("screen".equals(channelType) && fromChannel != null && toChannel != null) {
+                relayChannel(fromChannel, toChannel);
+            } else if ("mux".equals(channelType)) {
+                relayFrames();
+            } else if ("control".equals(channelType)) {
+                relayControl();
+            } else {
+                relayStream();
             }
             System.out.println("[RelayThread-" + threadName + "] Stream ended normally: " + senderType);
         } catch (Exception e) {
@@ -49,9 +74,119 @@ public class RelayThread extends Thread {
         }
     }
 
+    private void relayStream() throws Exception {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int bytesRead;
+        while ((bytesRead = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, bytesRead);
+            outputStream.flush();
+        }
+    }
+
+    // Kênh control: chỉ ghi thông điệp trọn vẹn, dưới khóa ghi của toSocket, để lệnh server chèn vào
+    // (RelayEngine.send) không rơi vào giữa 1 frame BATCH; phần dở được dồn lên đầu bộ đệm đợi đọc tiếp
+    private void relayControl() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE + ControlFraming.MAX_MESSAGE_BYTES);
+        byte[] array = buffer.array();
+        ReentrantLock writeLock = writeLock(toSocket);
+        int bytesRead;
+        while ((bytesRead = inputStream.read(array, buffer.position(), buffer.remaining())) != -1) {
+            buffer.position(buffer.position() + bytesRead);
+            buffer.flip();
+            int end = ControlFraming.completeEnd(buffer);
+            if (end < 0) {
+                end = buffer.limit();
+            }
+            if (end > 0) {
+                writeLock.lock();
+                try {
+                    outputStream.write(array, 0, end);
+                    outputStream.flush();
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+            buffer.position(end);
+            buffer.compact();
+        }
+    }
+
+    // Kênh màn hình: direct buffer lớn, không copy qua byte[] và không flush sau mỗi lần đọc
+    private void relayChannel(SocketChannel fromChannel, SocketChannel toChannel) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(SCREEN_BUFFER_SIZE);
+        while (fromChannel.read(buffer) != -1) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                toChannel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    static ReentrantLock writeLock(Socket socket) {
+        return WRITE_LOCKS.computeIfAbsent(socket, s -> new ReentrantLock());
+    }
+
+    // Kết nối mux: chuyển nguyên từng frame, ghi dưới khóa ghi của toSocket để
+    // thông điệp server chèn vào (RelayEngine.send) không xen giữa 1 frame. Thông điệp control trải trên
+    // nhiều frame được giữ lại tới frame có FLAG_END rồi ghi trọn dưới 1 lần khóa, nên cũng không bị xen giữa;
+    // bên gửi rớt giữa chừng thì phần dở bị bỏ. Dài quá FrameScheduler.CONTROL_HOLD_LIMIT thì ghi dần
+    // và giữ khóa tới FLAG_END
+    private void relayFrames() throws Exception {
+        DataInputStream in = new DataInputStream(inputStream);
+        byte[] frame = new byte[MuxProtocol.HEADER_SIZE + MuxProtocol.MAX_PAYLOAD];
+        ByteArrayOutputStream heldControl = new ByteArrayOutputStream();
+        ReentrantLock writeLock = writeLock(toSocket);
+        boolean streaming = false;
+        try {
+            int first;
+            while ((first = in.read()) != -1) {
+                frame[0] = (byte) first;
+                in.readFully(frame, 1, MuxProtocol.HEADER_SIZE - 1);
+                int length = ((frame[2] & 0xFF) << 24) | ((frame[3] & 0xFF) << 16) | ((frame[4] & 0xFF) << 8)
+                        | (frame[5] & 0xFF);
+                if (length < 0 || length > MuxProtocol.MAX_PAYLOAD) {
+                    throw new IOException("Invalid mux frame length: " + length);
+                }
+                in.readFully(frame, MuxProtocol.HEADER_SIZE, length);
+                int size = MuxProtocol.HEADER_SIZE + length;
+                boolean control = frame[0] == MuxProtocol.CHANNEL_CONTROL;
+                boolean midMessage = control && (frame[1] & MuxProtocol.FLAG_END) == 0;
+                if (midMessage && !streaming && heldControl.size() + size <= FrameScheduler.CONTROL_HOLD_LIMIT) {
+                    heldControl.write(frame, 0, size);
+                    continue;
+                }
+                if (!streaming) {
+                    writeLock.lock();
+                }
+                try {
+                    if (control) {
+                        heldControl.writeTo(outputStream);
+                        heldControl.reset();
+                        streaming = midMessage;
+                    }
+                    outputStream.write(frame, 0, size);
+                    outputStream.flush();
+                } finally {
+                    if (!streaming) {
+                        writeLock.unlock();
+                    }
+                }
+            }
+        } finally {
+            if (streaming) {
+                writeLock.unlock();
+            }
+        }
+    }
+
     private void handleDisconnection() {
-        String threadName = Thread.currentThread().getName();
+        handleDisconnection(Thread.currentThread().getName(), fromSocket, toSocket, session, senderType);
+    }
 
+    // Dùng chung cho RelayThread và RelayEngine (NIO) để giữ nguyên logic ngắt kết nối
+    static void handleDisconnection(String threadName, Socket fromSocket, Socket toSocket, Session session,
+            String senderType) {
         // Đóng fromSocket
         try {
             if (fromSocket != null && !fromSocket.isClosed()) {
@@ -0,0 +1,508 @@
+package server;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Một event loop NIO: relay nhiều cặp socket trên 1 thread duy nhất
+class SelectorLoop implements Runnable {
+    private static final long SWEEP_INTERVAL_MS = 5000;
+    private static final int MUX_QUEUE_LIMIT = 4 * 1024 * 1024;
+
+    private final String name;
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Map<SocketChannel, SelectorLoop> owners;
+    // Bộ đệm đọc dùng chung cho mọi endpoint của loop (chỉ thread của loop dùng): session rảnh không giữ
+    // bộ đệm nào, phần chưa ghi được sang peer mới được chép ra Endpoint.leftover
+    private final ByteBuffer readBuffer;
+    private long lastSweep = System.currentTimeMillis();
+
+    SelectorLoop(String name, Map<SocketChannel, SelectorLoop> owners) throws IOException {
+        this(name, owners, true);
+    }
+
+    // directBuffers=false chỉ dùng để benchmark so với bộ đệm heap
+    SelectorLoop(String name, Map<SocketChannel, SelectorLoop> owners, boolean directBuffers) throws IOException {
+        this.name = name;
+        this.owners = owners;
+        this.selector = Selector.open();
+        this.readBuffer = directBuffers ? ByteBuffer.allocateDirect(RelayThread.SCREEN_BUFFER_SIZE)
+                : ByteBuffer.allocate(RelayThread.SCREEN_BUFFER_SIZE);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void register(Socket sharerSocket, Socket viewerSocket, Session session, String channelType) {
+        execute(() -> pair(sharerSocket, viewerSocket, session, channelType));
+    }
+
+    void send(SocketChannel channel, ByteBuffer data) {
+        execute(() -> {
+            SelectionKey key = channel.keyFor(selector);
+            if (key == null || !key.isValid()) {
+                System.out.println("[" + name + "] Dropping message for closed channel");
+                return;
+            }
+            Endpoint endpoint = (Endpoint) key.attachment();
+            if (endpoint.framed) {
+                endpoint.scheduler.inject(data, endpoint.session.getMetrics());
+            } else {
+                endpoint.pending.add(data);
+            }
+            enableWrite(endpoint);
+        });
+    }
+
+    private void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        System.out.println("[" + name + "] Started");
+        while (true) {
+            try {
+                selector.select(SWEEP_INTERVAL_MS);
+
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+
+                // Xử lý control (và mux, vốn tự xếp ưu tiên theo kênh) trước screen/chat
+                Set<SelectionKey> selected = selector.selectedKeys();
+                for (SelectionKey key : selected) {
+                    Endpoint endpoint = (Endpoint) key.attachment();
+                    if (endpoint.priority) {
+                        handle(key, endpoint);
+                    }
+                }
+                for (SelectionKey key : selected) {
+                    Endpoint endpoint = (Endpoint) key.attachment();
+                    if (!endpoint.priority) {
+                        handle(key, endpoint);
+                    }
+                }
+                selected.clear();
+
+                sweepClosedChannels();
+            } catch (Exception e) {
+                System.err.println("[" + name + "] Error in event loop: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void handle(SelectionKey key, Endpoint endpoint) {
+        if (!key.isValid()) {
+            return;
+        }
+        try {
+            if (key.isWritable()) {
+                onWritable(endpoint);
+            }
+            if (key.isValid() && key.isReadable()) {
+                onReadable(endpoint);
+            }
+        } catch (CancelledKeyException e) {
+            // Socket bị Session đóng từ thread khác
+        }
+    }
+
+    private void pair(Socket sharerSocket, Socket viewerSocket, Session session, String channelType) {
+        Endpoint sharer = attach(sharerSocket, session, "sharer", channelType);
+        Endpoint viewer = attach(viewerSocket, session, "viewer", channelType);
+
+        if (sharer == null || viewer == null) {
+            // Giống RelayThread: socket đã đóng trước khi relay bắt đầu → xử lý như ngắt kết nối
+            if (sharer == null) {
+                RelayThread.handleDisconnection(name, sharerSocket, viewerSocket, session, "sharer");
+            }
+            if (viewer == null) {
+                RelayThread.handleDisconnection(name, viewerSocket, sharerSocket, session, "viewer");
+            }
+            return;
+        }
+
+        sharer.peer = viewer;
+        viewer.peer = sharer;
+        System.out.println("[" + name + "] Relay registered: " + channelType + " (sharer <-> viewer)");
+    }
+
+    private Endpoint attach(Socket socket, Session session, String senderType, String channelType) {
+        SocketChannel channel = socket.getChannel();
+        try {
+            SelectionKey key = channel.keyFor(selector);
+            Endpoint endpoint;
+            if (key != null && key.isValid()) {
+                // Socket đã có (sharer được ghép lại với viewer mới khi reconnect)
+                endpoint = (Endpoint) key.attachment();
+                endpoint.session = session;
+                endpoint.senderType = senderType;
+                if (!endpoint.framed) {
+                    endpoint.leftover = null;
+                    endpoint.flushing = false;
+                } else {
+                    // Thông điệp control dở của peer cũ không bao giờ được gửi tiếp
+                    endpoint.scheduler.dropUnterminatedControl();
+                }
+            } else {
+                channel.configureBlocking(false);
+                endpoint = new Endpoint(socket, channel, session, senderType, channelType);
+                endpoint.key = channel.register(selector, SelectionKey.OP_READ, endpoint);
+            }
+            int ops = SelectionKey.OP_READ;
+            if (!endpoint.pending.isEmpty() || (endpoint.framed && endpoint.scheduler.current() != null)) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            endpoint.key.interestOps(ops);
+            return endpoint;
+        } catch (IOException | CancelledKeyException e) {
+            System.out.println("[" + name + "] Cannot register " + senderType + " socket: " + e.getMessage());
+            owners.remove(channel);
+            return null;
+        }
+    }
+
+    private void onReadable(Endpoint src) {
+        if (src.closed) {
+            return;
+        }
+        ByteBuffer buffer = readBuffer;
+        buffer.clear();
+        if (src.framed && src.leftover != null) {
+            // Phần đầu của frame chưa nhận đủ ở lần đọc trước (giữ nguyên leftover nếu lần này không đọc được gì)
+            buffer.put(src.leftover.duplicate());
+        } else if (src.partial != null) {
+            buffer.put(src.partial.duplicate());
+        }
+        buffer.limit(Math.min(buffer.capacity(), buffer.position() + src.readLimit));
+        int bytesRead;
+        try {
+            bytesRead = src.channel.read(buffer);
+            if (src.batchReads) {
+                // Gom hết dữ liệu đang có trong socket rồi mới ghi 1 lần sang peer.
+                // EOF giữa chừng được bỏ qua ở đây, lần select sau read() sẽ trả -1 lại
+                int more;
+                while (bytesRead > 0 && buffer.hasRemaining() && (more = src.channel.read(buffer)) > 0) {
+                    bytesRead += more;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("[" + name + "] Exception (" + src.senderType + "): " + e.getMessage());
+            disconnect(src);
+            return;
+        }
+        if (bytesRead < 0) {
+            System.out.println("[" + name + "] Stream ended normally: " + src.senderType);
+            disconnect(src);
+            return;
+        }
+        if (bytesRead > 0) {
+            src.readNanos = System.nanoTime();
+            if (src.framed) {
+                forwardFrames(src, buffer);
+            } else {
+                forward(src, buffer);
+            }
+        }
+    }
+
+    // Kết nối mux: tách từng frame hoàn chỉnh rồi xếp vào hàng đợi của peer,
+    // nhờ vậy thông điệp server chèn vào luôn nằm giữa 2 frame
+    private void forwardFrames(Endpoint src, ByteBuffer buffer) {
+        Endpoint dst = src.peer;
+        if (dst.closed || !dst.channel.isOpen()) {
+            System.out.println("[" + name + "] Peer closed (" + src.senderType + ")");
+            disconnect(src);
+            return;
+        }
+
+        buffer.flip();
+        while (buffer.remaining() >= MuxProtocol.HEADER_SIZE) {
+            int length = buffer.getInt(buffer.position() + 2);
+            if (length < 0 || length > MuxProtocol.MAX_PAYLOAD) {
+                System.out.println("[" + name + "] Invalid mux frame length " + length + " (" + src.senderType + ")");
+                disconnect(src);
+                return;
+            }
+            int frameSize = MuxProtocol.HEADER_SIZE + length;
+            if (buffer.remaining() < frameSize) {
+                break;
+            }
+            ByteBuffer frame = ByteBuffer.allocate(frameSize);
+            int limit = buffer.limit();
+            buffer.limit(buffer.position() + frameSize);
+            frame.put(buffer);
+            buffer.limit(limit);
+            frame.flip();
+            int dropped = dst.scheduler.offer(frame, src.session.getMetrics());
+            if (dropped > 0) {
+                src.scheduler.offer(MuxProtocol.windowFrame(MuxProtocol.CHANNEL_SCREEN, dropped), null);
+                enableWrite(src);
+            }
+        }
+        src.leftover = keep(src.leftover, buffer);
+
+        onWritableFramed(dst);
+        if (dst.scheduler.current() != null) {
+            enableWrite(dst);
+        }
+        if (dst.scheduler.getQueuedBytes() > MUX_QUEUE_LIMIT) {
+            // Bên nhận chậm: tạm ngừng đọc
+            src.flushing = true;
+            src.key.interestOps(src.key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    private void forward(Endpoint src, ByteBuffer buffer) {
+        Endpoint dst = src.peer;
+        buffer.flip();
+        if (src.control) {
+            // Chỉ chuyển tới hết thông điệp trọn vẹn cuối cùng; phần dở đợi lần đọc sau, nên thông điệp
+            // server chèn vào (onWritable) không bao giờ nằm giữa 1 frame BATCH
+            // (mã lệnh lạ: không tách được, chuyển hết như luồng byte thường)
+            int complete = ControlFraming.completeEnd(buffer);
+            if (complete >= 0) {
+                ByteBuffer rest = buffer.duplicate();
+                rest.position(complete);
+                src.partial = keep(src.partial, rest);
+                buffer.limit(complete);
+            } else {
+                src.partial = null;
+            }
+            if (!buffer.hasRemaining()) {
+                return;
+            }
+        }
+        try {
+            if (!dst.injecting) {
+                dst.channel.write(buffer);
+            }
+        } catch (IOException e) {
+            System.out.println("[" + name + "] Exception (" + src.senderType + "): " + e.getMessage());
+            disconnect(src);
+            return;
+        }
+
+        if (buffer.hasRemaining()) {
+            // Bên nhận chậm: giữ phần còn lại và ngừng đọc cho tới khi ghi hết
+            src.leftover = keep(null, buffer);
+            src.flushing = true;
+            src.key.interestOps(src.key.interestOps() & ~SelectionKey.OP_READ);
+            enableWrite(dst);
+            src.session.getMetrics().setQueueDepth(dst.senderType, src.leftover.remaining());
+        } else {
+            relayed(src);
+        }
+    }
+
+    private void onWritable(Endpoint dst) {
+        if (dst.framed) {
+            onWritableFramed(dst);
+            return;
+        }
+        Endpoint src = dst.peer;
+        while (true) {
+            boolean relayPending = src != null && src.flushing && src.peer == dst;
+            if (dst.injecting || !relayPending) {
+                ByteBuffer head = dst.pending.peek();
+                if (head == null) {
+                    break;
+                }
+                try {
+                    dst.channel.write(head);
+                } catch (IOException e) {
+                    System.out.println("[" + name + "] Error sending message: " + e.getMessage());
+                    dst.pending.clear();
+                    dst.injecting = false;
+                    break;
+                }
+                if (head.hasRemaining()) {
+                    dst.injecting = true;
+                    return;
+                }
+                dst.pending.poll();
+                dst.injecting = false;
+                continue;
+            }
+
+            try {
+                dst.channel.write(src.leftover);
+            } catch (IOException e) {
+                System.out.println("[" + name + "] Exception (" + src.senderType + "): " + e.getMessage());
+                disconnect(src);
+                return;
+            }
+            if (src.leftover.hasRemaining()) {
+                return;
+            }
+            src.leftover = null;
+            src.flushing = false;
+            relayed(src);
+            if (src.key.isValid()) {
+                src.key.interestOps(src.key.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+
+        if (dst.key.isValid()) {
+            dst.key.interestOps(dst.key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+    }
+
+    // Ghi toàn bộ dữ liệu đã đọc từ src sang peer: cập nhật số liệu
+    private void relayed(Endpoint src) {
+        SessionMetrics metrics = src.session.getMetrics();
+        metrics.setQueueDepth(src.peer.senderType, 0);
+        if (src.control) {
+            metrics.recordControlDelay(System.nanoTime() - src.readNanos);
+        }
+    }
+
+    private void onWritableFramed(Endpoint dst) {
+        SessionMetrics metrics = dst.session.getMetrics();
+        Endpoint src = dst.peer;
+        ByteBuffer head;
+        while ((head = dst.scheduler.current()) != null) {
+            try {
+                dst.channel.write(head);
+            } catch (IOException e) {
+                System.out.println("[" + name + "] Exception writing to " + dst.senderType + ": " + e.getMessage());
+                if (src != null) {
+                    disconnect(src);
+                }
+                return;
+            }
+            if (head.hasRemaining()) {
+                break;
+            }
+            dst.scheduler.completed(metrics);
+
+            // Hàng đợi đã vơi một nửa → đọc tiếp từ bên gửi
+            if (src != null && src.flushing && src.peer == dst && src.key.isValid()
+                    && dst.scheduler.getQueuedBytes() < MUX_QUEUE_LIMIT / 2) {
+                src.flushing = false;
+                src.key.interestOps(src.key.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+        metrics.setQueueDepth(dst.senderType, dst.scheduler.getQueuedBytes());
+        if (head == null && dst.key.isValid()) {
+            dst.key.interestOps(dst.key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+    }
+
+    // Chép phần chưa xử lý của data ra bộ đệm heap riêng của endpoint (dùng lại kept nếu đủ chỗ), null nếu hết
+    private static ByteBuffer keep(ByteBuffer kept, ByteBuffer data) {
+        if (!data.hasRemaining()) {
+            return null;
+        }
+        if (kept == null || kept.capacity() < data.remaining()) {
+            kept = ByteBuffer.allocate(data.remaining());
+        }
+        kept.clear();
+        kept.put(data);
+        kept.flip();
+        return kept;
+    }
+
+    private void enableWrite(Endpoint endpoint) {
+        if (endpoint.key.isValid()) {
+            endpoint.key.interestOps(endpoint.key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void disconnect(Endpoint endpoint) {
+        if (endpoint.closed) {
+            return;
+        }
+        endpoint.closed = true;
+        endpoint.key.cancel();
+        owners.remove(endpoint.channel);
+
+        Endpoint peer = endpoint.peer;
+        Socket toSocket = peer != null ? peer.socket : null;
+        if (peer != null && peer.framed && peer.scheduler.dropUnterminatedControl() > 0) {
+            // Bỏ phần thông điệp control dở trước khi Session chèn RESTART_SHARESCREEN...
+            System.out.println("[" + name + "] Dropped unterminated control message from " + endpoint.senderType);
+            if (peer.scheduler.current() != null) {
+                enableWrite(peer);
+            }
+        }
+        System.out.println("[" + name + "] Calling handleDisconnection for: " + endpoint.senderType);
+        RelayThread.handleDisconnection(name, endpoint.socket, toSocket, endpoint.session, endpoint.senderType);
+
+        if (peer != null && !peer.channel.isOpen()) {
+            peer.closed = true;
+            owners.remove(peer.channel);
+        }
+    }
+
+    private void sweepClosedChannels() {
+        long now = System.currentTimeMillis();
+        if (now - lastSweep < SWEEP_INTERVAL_MS) {
+            return;
+        }
+        lastSweep = now;
+        // Socket bị Session đóng trực tiếp sẽ không sinh sự kiện → dọn khỏi bảng owners
+        owners.entrySet().removeIf(e -> e.getValue() == this && !e.getKey().isOpen());
+    }
+
+    static class Endpoint {
+        final Socket socket;
+        final SocketChannel channel;
+        SelectionKey key;
+        Session session;
+        String senderType;
+        Endpoint peer;
+
+        // Dữ liệu đã đọc từ endpoint này nhưng chưa chuyển đi: phần chưa ghi được sang peer (flushing),
+        // hoặc với mux là frame chưa nhận đủ. null khi không có gì, nên endpoint rảnh không giữ bộ nhớ
+        ByteBuffer leftover;
+        final int readLimit;
+        final boolean batchReads;
+        boolean flushing = false;
+        long readNanos;
+
+        // Kênh control: phần đầu thông điệp chưa nhận đủ (không gửi đi, ghép vào lần đọc sau)
+        ByteBuffer partial;
+
+        // Thông điệp do server chèn vào (START_SESSION, RESTART_SHARESCREEN...)
+        final Queue<ByteBuffer> pending = new ArrayDeque<>();
+        boolean injecting = false;
+
+        // Kết nối mux: mọi frame gửi tới endpoint này (kể cả thông điệp server) đi qua scheduler
+        final boolean framed;
+        final FrameScheduler scheduler;
+        final boolean control;
+        final boolean priority;
+
+        boolean closed = false;
+
+        Endpoint(Socket socket, SocketChannel channel, Session session, String senderType, String channelType) {
+            this.socket = socket;
+            this.channel = channel;
+            this.session = session;
+            this.senderType = senderType;
+            this.framed = "mux".equals(channelType);
+            this.scheduler = framed ? new FrameScheduler() : null;
+            this.control = "control".equals(channelType);
+            this.priority = control || framed;
+            boolean bulk = framed || "screen".equals(channelType);
+            this.readLimit = bulk ? RelayThread.SCREEN_BUFFER_SIZE : RelayThread.BUFFER_SIZE;
+            this.batchReads = bulk;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Executor dùng chung cho handshake (ClientHandler) và relay blocking (RelayThread)
+public class ServerExecutor {
+
+    public static final String MODE_PLATFORM = "platform";
+    public static final String MODE_VIRTUAL = "virtual";
+
+    private final String mode;
+    private final ExecutorService executor;
+
+    public ServerExecutor(String requestedMode) {
+        ExecutorService virtualExecutor = null;
+        if (MODE_VIRTUAL.equalsIgnoreCase(requestedMode)) {
+            virtualExecutor = newVirtualThreadExecutor();
+        }
+
+        if (virtualExecutor != null) {
+            this.mode = MODE_VIRTUAL;
+            this.executor = virtualExecutor;
+        } else {
+            this.mode = MODE_PLATFORM;
+            this.executor = Executors.newCachedThreadPool(new PlatformThreadFactory());
+        }
+        System.out.println("[ServerExecutor] Thread mode: " + this.mode);
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    // Virtual thread cần JDK 21+; project vẫn build với target 1.8 nên gọi qua reflection
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            System.err.println("[ServerExecutor] Virtual threads not available on Java "
+                    + System.getProperty("java.version") + ", falling back to platform threads");
+            return null;
+        }
+    }
+
+    private static class PlatformThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, "relay-worker-" + counter.incrementAndGet());
+        }
+    }
+}
@@ -5,15 +5,41 @@ import java.util.concurrent.ConcurrentHashMap;
 import io.github.cdimascio.dotenv.Dotenv;
 
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.Map;
 
 public class ServerRelay {
 
     private static final Map<String, Session> activeSessions = new ConcurrentHashMap<>();
+    private static ServerExecutor executor;
+    private static RelayEngine relayEngine;
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        Dotenv dotenv = Dotenv.configure()
+                .directory("./")
+                .ignoreIfMissing()
+                .load();
+
+        // THREAD_MODE=platform (mặc định) hoặc virtual (JDK 21+) cho handshake và relay blocking
+        executor = new ServerExecutor(dotenv.get("THREAD_MODE", ServerExecutor.MODE_PLATFORM));
+
+        // RELAY_MODE=nio (mặc định) hoặc thread (mỗi chiều relay 1 thread như cũ)
+        String relayMode = dotenv.get("RELAY_MODE", RelayEngine.MODE_NIO);
+        int relayThreads = Integer.parseInt(
+                dotenv.get("RELAY_THREADS", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        relayEngine = new RelayEngine(relayMode, relayThreads, executor);
+        relayEngine.start();
+
+        // METRICS_INTERVAL_SEC: chu kỳ in số liệu relay của các session (0 = tắt)
+        int metricsInterval = Integer.parseInt(dotenv.get("METRICS_INTERVAL_SEC", "30"));
+        if (metricsInterval > 0) {
+            Thread metricsThread = new Thread(() -> logMetrics(metricsInterval), "relay-metrics");
+            metricsThread.setDaemon(true);
+            metricsThread.start();
+        }
 
         int SCREEN_PORT = 5002;
         int CONTROL_PORT = 6002;
@@ -23,18 +49,34 @@ public class ServerRelay {
         new Thread(() -> startPort(MESSAGES_PORT)).start();
     }
 
+    private static void logMetrics(int intervalSec) {
+        while (true) {
+            try {
+                Thread.sleep(intervalSec * 1000L);
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (Session session : activeSessions.values()) {
+                System.out.println("[Metrics] " + session.getUsername() + ": " + session.getMetrics().snapshotAndReset());
+            }
+        }
+    }
+
     private static void startPort(int port) {
         System.out.println("Listening for connections on port " + port);
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
+        // Dùng ServerSocketChannel để socket có SocketChannel, cần cho RelayEngine (NIO)
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
             while (true) {
-                Socket clientSocket = serverSocket.accept();
+                SocketChannel clientChannel = serverChannel.accept();
+                Socket clientSocket = clientChannel.socket();
                 System.out.println("New connection from " + clientSocket.getInetAddress() + " on port " + port);
 
-                new ClientHandler(clientSocket, activeSessions).start();
+                executor.execute(new ClientHandler(clientSocket, activeSessions, relayEngine));
             }
         } catch (IOException e) {
             System.err.println("Error on port " + port + ": " + e.getMessage());
         }
     }
 
-}
\ No newline at end of file
+}
@@ -1,9 +1,9 @@
 package server;
 
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class Session {
     private final String username;
@@ -11,6 +11,10 @@ public class Session {
     private final String width;
     private final String height;
     private final Map<String, Session> sessionMap;
+    private final RelayEngine relayEngine;
+    // Bảo vệ trạng thái session. Dùng ReentrantLock thay vì synchronized để virtual thread (THREAD_MODE=virtual)
+    // không bị ghim vào carrier thread; không ghi socket hay sleep khi đang giữ lock
+    private final ReentrantLock lock = new ReentrantLock();
 
     private Socket sharerControlSocket;
     private Socket sharerScreenSocket;
@@ -18,7 +22,11 @@ public class Session {
     private Socket viewerScreenSocket;
     private Socket sharerChatSocket;
     private Socket viewerChatSocket;
+    // Kết nối mux: 1 socket mang cả screen/control/chat (xem MuxProtocol)
+    private Socket sharerMuxSocket;
+    private Socket viewerMuxSocket;
     private boolean relayStarted = false;
+    private final SessionMetrics metrics = new SessionMetrics();
 
     private String status;
     private boolean startSessionSent = false;
@@ -26,12 +34,14 @@ public class Session {
     private boolean viewerDisconnectCalled = false;
     private long lastReconnectionTime = 0;
 
-    public Session(String username, String password, String width, String height, Map<String, Session> sessionMap) {
+    public Session(String username, String password, String width, String height, Map<String, Session> sessionMap,
+            RelayEngine relayEngine) {
         this.username = username;
         this.password = password;
         this.width = width;
         this.height = height;
         this.sessionMap = sessionMap;
+        this.relayEngine = relayEngine;
         this.status = "waiting";
 
         System.out.println("[Session] Created new session: " + username + " with status: " + this.status);
@@ -41,16 +51,54 @@ public class Session {
         return this.password.equals(password);
     }
 
-    public synchronized boolean isSharerReady() {
-        return sharerControlSocket != null && sharerScreenSocket != null && sharerChatSocket != null;
+    public boolean isSharerReady() {
+        lock.lock();
+        try {
+            return (sharerControlSocket != null && sharerScreenSocket != null && sharerChatSocket != null)
+                    || sharerMuxSocket != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isMux() {
+        lock.lock();
+        try {
+            return sharerMuxSocket != null;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized String getStatus() {
-        return this.status;
+    private boolean isViewerReady() {
+        return (viewerScreenSocket != null && viewerControlSocket != null && viewerChatSocket != null)
+                || viewerMuxSocket != null;
     }
 
-    public synchronized boolean isActive() {
-        return "active".equals(this.status);
+    public String getStatus() {
+        lock.lock();
+        try {
+            return this.status;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isActive() {
+        lock.lock();
+        try {
+            return "active".equals(this.status);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public SessionMetrics getMetrics() {
+        return metrics;
     }
 
     public String getWidth() {
@@ -61,42 +109,86 @@ public class Session {
         return height;
     }
 
-    public synchronized boolean isInReconnectionGracePeriod() {
-        long timeSinceReconnection = System.currentTimeMillis() - lastReconnectionTime;
-        return timeSinceReconnection < 3000; // 3 giây grace period
+    public boolean isInReconnectionGracePeriod() {
+        lock.lock();
+        try {
+            long timeSinceReconnection = System.currentTimeMillis() - lastReconnectionTime;
+            return timeSinceReconnection < 3000; // 3 giây grace period
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized boolean isCurrentSocket(Socket socket) {
-        return socket == sharerControlSocket || socket == sharerScreenSocket || socket == sharerChatSocket ||
-                socket == viewerControlSocket || socket == viewerScreenSocket || socket == viewerChatSocket;
+    public boolean isCurrentSocket(Socket socket) {
+        lock.lock();
+        try {
+            return socket == sharerControlSocket || socket == sharerScreenSocket || socket == sharerChatSocket ||
+                    socket == viewerControlSocket || socket == viewerScreenSocket || socket == viewerChatSocket ||
+                    socket == sharerMuxSocket || socket == viewerMuxSocket;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized void setSharerSocket(Socket socket, String connectType) throws IOException {
-        if (connectType.equals("screen")) {
-            this.sharerScreenSocket = socket;
-        } else if (connectType.equals("control")) {
-            this.sharerControlSocket = socket;
-        } else if (connectType.equals("chat")) {
-            this.sharerChatSocket = socket;
+    public void setSharerSocket(Socket socket, String connectType) throws IOException {
+        lock.lock();
+        try {
+            if (connectType.equals("screen")) {
+                this.sharerScreenSocket = socket;
+            } else if (connectType.equals("control")) {
+                this.sharerControlSocket = socket;
+            } else if (connectType.equals("chat")) {
+                this.sharerChatSocket = socket;
+            } else if (connectType.equals("mux")) {
+                this.sharerMuxSocket = socket;
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
-    public synchronized void setViewerSocketAndAttemptRelay(Socket viewerSocket, String connectType) {
-
-        if (relayStarted && "active".equals(status)) {
-            handleViewerReconnection(viewerSocket, connectType);
-
-            // Kiểm tra xem đã reconnect đủ 3 socket chưa
-            if (viewerScreenSocket != null && viewerControlSocket != null && viewerChatSocket != null) {
-                System.out.println("[Session] ✅ All viewer sockets reconnected - changing status to ACTIVE");
-                this.status = "active";
-                this.relayStarted = true;
-                this.viewerDisconnectCalled = false;
+    public void setViewerSocketAndAttemptRelay(Socket viewerSocket, String connectType) {
+        // Đổi trạng thái dưới lock; phần ghi socket / chờ relay cũ dừng chạy sau khi nhả lock
+        Runnable next;
+        lock.lock();
+        try {
+            if (relayStarted && "active".equals(status)) {
+                next = prepareReconnection(viewerSocket, connectType);
+            } else {
+                next = prepareRelay(viewerSocket, connectType);
             }
+        } finally {
+            lock.unlock();
+        }
+        if (next != null) {
+            next.run();
+        }
+    }
 
-            return;
+    private Runnable prepareReconnection(Socket viewerSocket, String connectType) {
+        System.out.println("[Session] Handling viewer reconnection for: " + connectType);
+
+        // Đánh dấu thời gian reconnection
+        this.lastReconnectionTime = System.currentTimeMillis();
+        Socket oldSocket = replaceViewerSocket(connectType, viewerSocket);
+        Socket sharerSocket = getSharerSocket(connectType);
+        Socket sharerMux = sharerMuxSocket;
+        Socket sharerControl = sharerControlSocket;
+
+        // Kiểm tra xem đã reconnect đủ 3 socket (hoặc socket mux) chưa
+        if (isViewerReady()) {
+            System.out.println("[Session] ✅ All viewer sockets reconnected - changing status to ACTIVE");
+            this.status = "active";
+            this.relayStarted = true;
+            this.viewerDisconnectCalled = false;
         }
 
+        return () -> handleViewerReconnection(connectType, oldSocket, sharerSocket, viewerSocket, sharerMux,
+                sharerControl);
+    }
+
+    // null nếu chưa đủ socket để bắt đầu relay
+    private Runnable prepareRelay(Socket viewerSocket, String connectType) {
         System.out.println("[Session] Viewer connecting (" + connectType + "). Current status: " + status);
 
         if ("screen".equals(connectType)) {
@@ -105,74 +197,109 @@ public class Session {
             this.viewerControlSocket = viewerSocket;
         } else if ("chat".equals(connectType)) {
             this.viewerChatSocket = viewerSocket;
+        } else if ("mux".equals(connectType)) {
+            this.viewerMuxSocket = viewerSocket;
         }
 
-        // Kiểm tra đủ 6 sockets
-        if (sharerScreenSocket != null && viewerScreenSocket != null &&
+        // Kiểm tra đủ 6 sockets (hoặc 2 socket mux)
+        boolean legacyReady = sharerScreenSocket != null && viewerScreenSocket != null &&
                 sharerControlSocket != null && viewerControlSocket != null &&
-                sharerChatSocket != null && viewerChatSocket != null) {
+                sharerChatSocket != null && viewerChatSocket != null;
+        boolean muxReady = sharerMuxSocket != null && viewerMuxSocket != null;
+        if (!legacyReady && !muxReady) {
+            return null;
+        }
 
-            System.out.println("[Session] All 6 sockets connected. Sending START_SESSION signal...");
-            this.relayStarted = true;
-            this.status = "active";
-            this.viewerDisconnectCalled = false;
+        System.out.println("[Session] All sockets connected. Sending START_SESSION signal...");
+        this.relayStarted = true;
+        this.status = "active";
+        this.viewerDisconnectCalled = false;
+
+        System.out.println("[Session] Status changed to: " + this.status + " for user: " + this.username);
+
+        // Đánh dấu đã gửi ngay dưới lock để 2 viewer socket tới cùng lúc không gửi 2 lần
+        boolean sendStart = !startSessionSent;
+        startSessionSent = true;
+        Socket[] sharers = muxReady ? new Socket[] { sharerMuxSocket }
+                : new Socket[] { sharerScreenSocket, sharerControlSocket, sharerChatSocket };
+        Socket[] viewers = muxReady ? new Socket[] { viewerMuxSocket }
+                : new Socket[] { viewerScreenSocket, viewerControlSocket, viewerChatSocket };
+        String[] types = muxReady ? new String[] { "mux" } : new String[] { "screen", "control", "chat" };
+        Socket sharerMux = sharerMuxSocket;
+        Socket sharerControl = sharerControlSocket;
+
+        return () -> startRelay(sendStart, sharerMux, sharerControl, sharers, viewers, types);
+    }
 
-            System.out.println("[Session] Status changed to: " + this.status + " for user: " + this.username);
+    private void startRelay(boolean sendStart, Socket sharerMux, Socket sharerControl, Socket[] sharers,
+            Socket[] viewers, String[] types) {
+        try {
+            if (sendStart) {
+                sendToSharerControl(sharerMux, sharerControl, "START_SESSION");
+                System.out.println("[Session] ✅ START_SESSION sent to sharer");
+            } else {
+                System.out.println("[Session] ⏭️ START_SESSION already sent, skipping...");
+            }
 
+            System.out.println("[Session] Starting relay threads...");
+            for (int i = 0; i < types.length; i++) {
+                relayEngine.relay(sharers[i], viewers[i], this, types[i]);
+            }
+        } catch (Exception e) {
+            System.err.println("[Session] Failed to send START_SESSION or start relay: " + e.getMessage());
+            lock.lock();
             try {
-                if (!startSessionSent) {
-                    DataOutputStream sharerDos = new DataOutputStream(sharerControlSocket.getOutputStream());
-                    sharerDos.writeUTF("START_SESSION");
-                    sharerDos.flush();
-                    startSessionSent = true;
-                    System.out.println("[Session] ✅ START_SESSION sent to sharer");
-                } else {
-                    System.out.println("[Session] ⏭️ START_SESSION already sent, skipping...");
-                }
-
-                System.out.println("[Session] Starting relay threads...");
-
-                new RelayThread(sharerScreenSocket, viewerScreenSocket, this, "sharer").start();
-                new RelayThread(viewerScreenSocket, sharerScreenSocket, this, "viewer").start();
-
-                new RelayThread(sharerControlSocket, viewerControlSocket, this, "sharer").start();
-                new RelayThread(viewerControlSocket, sharerControlSocket, this, "viewer").start();
-
-                new RelayThread(sharerChatSocket, viewerChatSocket, this, "sharer").start();
-                new RelayThread(viewerChatSocket, sharerChatSocket, this, "viewer").start();
-
-            } catch (Exception e) {
-                System.err.println("[Session] Failed to send START_SESSION or start relay: " + e.getMessage());
                 cleanup();
+            } finally {
+                lock.unlock();
             }
         }
     }
 
-    private void handleViewerReconnection(Socket newSocket, String connectType) {
-        System.out.println("[Session] Handling viewer reconnection for: " + connectType);
+    private Socket replaceViewerSocket(String connectType, Socket newSocket) {
+        Socket oldSocket = null;
+        if ("screen".equals(connectType)) {
+            oldSocket = this.viewerScreenSocket;
+            this.viewerScreenSocket = newSocket;
+            System.out.println("[Session] Replaced viewerScreenSocket");
 
-        // Đánh dấu thời gian reconnection
-        this.lastReconnectionTime = System.currentTimeMillis();
+        } else if ("control".equals(connectType)) {
+            oldSocket = this.viewerControlSocket;
+            this.viewerControlSocket = newSocket;
+            System.out.println("[Session] Replaced viewerControlSocket");
 
-        try {
-            Socket oldSocket = null;
-
-            if ("screen".equals(connectType)) {
-                oldSocket = this.viewerScreenSocket;
-                this.viewerScreenSocket = newSocket;
-                System.out.println("[Session] Replaced viewerScreenSocket");
-
-            } else if ("control".equals(connectType)) {
-                oldSocket = this.viewerControlSocket;
-                this.viewerControlSocket = newSocket;
-                System.out.println("[Session] Replaced viewerControlSocket");
-
-            } else if ("chat".equals(connectType)) {
-                oldSocket = this.viewerChatSocket;
-                this.viewerChatSocket = newSocket;
-                System.out.println("[Session] Replaced viewerChatSocket");
-            }
+        } else if ("chat".equals(connectType)) {
+            oldSocket = this.viewerChatSocket;
+            this.viewerChatSocket = newSocket;
+            System.out.println("[Session] Replaced viewerChatSocket");
+
+        } else if ("mux".equals(connectType)) {
+            oldSocket = this.viewerMuxSocket;
+            this.viewerMuxSocket = newSocket;
+            System.out.println("[Session] Replaced viewerMuxSocket");
+        }
+        return oldSocket;
+    }
 
+    private Socket getSharerSocket(String connectType) {
+        switch (connectType) {
+            case "screen":
+                return sharerScreenSocket;
+            case "control":
+                return sharerControlSocket;
+            case "chat":
+                return sharerChatSocket;
+            case "mux":
+                return sharerMuxSocket;
+            default:
+                return null;
+        }
+    }
+
+    // Chạy ngoài lock: đóng socket cũ, chờ relay cũ dọn dẹp, relay lại và báo sharer khởi động lại ShareScreen
+    private void handleViewerReconnection(String connectType, Socket oldSocket, Socket sharerSocket,
+            Socket viewerSocket, Socket sharerMux, Socket sharerControl) {
+        try {
             // Đóng old socket TRƯỚC KHI restart relay
             if (oldSocket != null && !oldSocket.isClosed()) {
                 try {
@@ -185,11 +312,11 @@ public class Session {
             }
 
             // Restart relay threads với socket mới
-            restartRelayForConnection(connectType);
+            restartRelayForConnection(connectType, sharerSocket, viewerSocket);
 
-            // Nếu là screen socket, gửi signal restart ShareScreen
-            if ("screen".equals(connectType)) {
-                restartShareScreen();
+            // Nếu là screen socket (hoặc mux, mang cả screen), gửi signal restart ShareScreen
+            if ("screen".equals(connectType) || "mux".equals(connectType)) {
+                restartShareScreen(sharerMux, sharerControl);
             }
 
             System.out.println("[Session] ✅ Viewer reconnection successful for: " + connectType);
@@ -200,16 +327,15 @@ public class Session {
         }
     }
 
-    private void restartShareScreen() {
+    private void restartShareScreen(Socket sharerMux, Socket sharerControl) {
         try {
-            if (sharerControlSocket == null || sharerControlSocket.isClosed()) {
+            Socket controlSocket = sharerMux != null ? sharerMux : sharerControl;
+            if (controlSocket == null || controlSocket.isClosed()) {
                 System.err.println("[Session] ❌ Cannot send RESTART_SHARESCREEN - sharerControlSocket is closed");
                 return;
             }
 
-            DataOutputStream sharerDos = new DataOutputStream(sharerControlSocket.getOutputStream());
-            sharerDos.writeUTF("RESTART_SHARESCREEN");
-            sharerDos.flush();
+            sendToSharerControl(sharerMux, sharerControl, "RESTART_SHARESCREEN");
             System.out.println("[Session] ✅ Sent RESTART_SHARESCREEN signal to sharer");
         } catch (Exception e) {
             System.err.println("[Session] ❌ Error sending RESTART_SHARESCREEN: " + e.getMessage());
@@ -217,33 +343,41 @@ public class Session {
         }
     }
 
-    private void restartRelayForConnection(String connectType) {
+    private void restartRelayForConnection(String connectType, Socket sharerSocket, Socket viewerSocket) {
         System.out.println("[Session] Restarting relay threads for: " + connectType);
 
         try {
-            if ("screen".equals(connectType)) {
-                new RelayThread(sharerScreenSocket, viewerScreenSocket, this, "sharer").start();
-                new RelayThread(viewerScreenSocket, sharerScreenSocket, this, "viewer").start();
-                System.out.println("[Session] ✅ Restarted screen relay threads");
-
-            } else if ("control".equals(connectType)) {
-                new RelayThread(sharerControlSocket, viewerControlSocket, this, "sharer").start();
-                new RelayThread(viewerControlSocket, sharerControlSocket, this, "viewer").start();
-                System.out.println("[Session] ✅ Restarted control relay threads");
-
-            } else if ("chat".equals(connectType)) {
-                new RelayThread(sharerChatSocket, viewerChatSocket, this, "sharer").start();
-                new RelayThread(viewerChatSocket, sharerChatSocket, this, "viewer").start();
-                System.out.println("[Session] ✅ Restarted chat relay threads");
+            if (sharerSocket == null) {
+                System.err.println("[Session] ❌ No sharer socket for: " + connectType);
+                return;
             }
-
+            relayEngine.relay(sharerSocket, viewerSocket, this, connectType);
+            System.out.println("[Session] ✅ Restarted " + connectType + " relay");
         } catch (Exception e) {
             System.err.println("[Session] ❌ Error restarting relay: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
-    public synchronized void onSharerDisconnect(Socket disconnectedSocket) {
+    // Gửi lệnh tới kênh control của sharer; với mux phải đóng gói thành frame
+    private void sendToSharerControl(Socket sharerMux, Socket sharerControl, String message) throws IOException {
+        if (sharerMux != null) {
+            relayEngine.send(sharerMux, MuxProtocol.frameUTF(MuxProtocol.CHANNEL_CONTROL, message));
+        } else {
+            relayEngine.sendUTF(sharerControl, message);
+        }
+    }
+
+    public void onSharerDisconnect(Socket disconnectedSocket) {
+        lock.lock();
+        try {
+            sharerDisconnected(disconnectedSocket);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void sharerDisconnected(Socket disconnectedSocket) {
         if (!isCurrentSocket(disconnectedSocket)) {
             System.out.println("[Session] Ignoring disconnect from OLD socket");
             return;
@@ -260,7 +394,17 @@ public class Session {
         System.out.println("[Session] Session removed from map: " + username);
     }
 
-    public synchronized void onViewerDisconnect(Socket disconnectedSocket) {
+    public void onViewerDisconnect(Socket disconnectedSocket) {
+        lock.lock();
+        try {
+            viewerDisconnected(disconnectedSocket);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Chỉ đóng socket (không chặn lâu), nên chạy dưới lock
+    private void viewerDisconnected(Socket disconnectedSocket) {
         if (!isCurrentSocket(disconnectedSocket)) {
             System.out.println("[Session] Ignoring disconnect from OLD socket");
             return;
@@ -305,9 +449,18 @@ public class Session {
         } catch (IOException e) {
         }
 
+        try {
+            if (viewerMuxSocket != null) {
+                viewerMuxSocket.close();
+                System.out.println("[Session] Closed viewerMuxSocket");
+            }
+        } catch (IOException e) {
+        }
+
         this.viewerScreenSocket = null;
         this.viewerControlSocket = null;
         this.viewerChatSocket = null;
+        this.viewerMuxSocket = null;
 
         System.out.println("[Session] Viewer sockets closed. Sharer still active. Waiting for reconnect...");
     }
@@ -345,5 +498,15 @@ public class Session {
                 viewerChatSocket.close();
         } catch (IOException e) {
         }
+        try {
+            if (sharerMuxSocket != null)
+                sharerMuxSocket.close();
+        } catch (IOException e) {
+        }
+        try {
+            if (viewerMuxSocket != null)
+                viewerMuxSocket.close();
+        } catch (IOException e) {
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,95 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Số liệu relay của 1 session: độ sâu hàng đợi và độ trễ lệnh control khi đi qua relay
+public class SessionMetrics {
+
+    private volatile int sharerQueueBytes = 0;
+    private volatile int viewerQueueBytes = 0;
+    private volatile int maxSharerQueueBytes = 0;
+    private volatile int maxViewerQueueBytes = 0;
+
+    private final AtomicLong controlEvents = new AtomicLong();
+    private final AtomicLong controlDelayTotalNanos = new AtomicLong();
+    private final AtomicLong controlDelayMaxNanos = new AtomicLong();
+
+    private final AtomicLong droppedScreenMessages = new AtomicLong();
+    private final AtomicLong droppedScreenBytes = new AtomicLong();
+
+    // receiverType: bên sẽ nhận dữ liệu đang nằm trong hàng đợi ("sharer" hoặc "viewer")
+    public void setQueueDepth(String receiverType, int bytes) {
+        if ("sharer".equals(receiverType)) {
+            sharerQueueBytes = bytes;
+            if (bytes > maxSharerQueueBytes) {
+                maxSharerQueueBytes = bytes;
+            }
+        } else {
+            viewerQueueBytes = bytes;
+            if (bytes > maxViewerQueueBytes) {
+                maxViewerQueueBytes = bytes;
+            }
+        }
+    }
+
+    public void recordControlDelay(long nanos) {
+        controlEvents.incrementAndGet();
+        controlDelayTotalNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = controlDelayMaxNanos.get())) {
+            if (controlDelayMaxNanos.compareAndSet(max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    public void recordScreenDrop(int messages, int bytes) {
+        droppedScreenMessages.addAndGet(messages);
+        droppedScreenBytes.addAndGet(bytes);
+    }
+
+    public int getSharerQueueBytes() {
+        return sharerQueueBytes;
+    }
+
+    public int getViewerQueueBytes() {
+        return viewerQueueBytes;
+    }
+
+    public long getControlEvents() {
+        return controlEvents.get();
+    }
+
+    public double getAverageControlDelayMs() {
+        long events = controlEvents.get();
+        return events == 0 ? 0 : controlDelayTotalNanos.get() / (double) events / 1_000_000;
+    }
+
+    public double getMaxControlDelayMs() {
+        return controlDelayMaxNanos.get() / 1_000_000.0;
+    }
+
+    public long getDroppedScreenMessages() {
+        return droppedScreenMessages.get();
+    }
+
+    public long getDroppedScreenBytes() {
+        return droppedScreenBytes.get();
+    }
+
+    // Trả về tóm tắt rồi reset các giá trị đỉnh/độ trễ cho kỳ kế tiếp
+    public String snapshotAndReset() {
+        String summary = String.format(
+                "queue(sharer=%d KB, max=%d KB; viewer=%d KB, max=%d KB) control(events=%d, avg=%.2f ms, max=%.2f ms)"
+                        + " screenDropped(messages=%d, %d KB)",
+                sharerQueueBytes / 1024, maxSharerQueueBytes / 1024, viewerQueueBytes / 1024,
+                maxViewerQueueBytes / 1024, controlEvents.get(), getAverageControlDelayMs(), getMaxControlDelayMs(),
+                droppedScreenMessages.get(), droppedScreenBytes.get() / 1024);
+        maxSharerQueueBytes = sharerQueueBytes;
+        maxViewerQueueBytes = viewerQueueBytes;
+        controlEvents.set(0);
+        controlDelayTotalNanos.set(0);
+        controlDelayMaxNanos.set(0);
+        return summary;
+    }
+}
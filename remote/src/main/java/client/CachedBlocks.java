@@ -0,0 +1,55 @@
+package client;
+
+import common.ImagePixels;
+import common.ScreenProtocol;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/*
+ * Phía viewer của cache khối: chỉ là mảng slot, sharer quyết định slot nào lưu/ghi đè (LRU).
+ * Chỉ thread giải mã dùng.
+ */
+class CachedBlocks {
+    private static final int BLOCK = ScreenProtocol.CACHE_BLOCK_SIZE;
+
+    private final int[][] slots;
+
+    CachedBlocks(int capacity) {
+        this.slots = new int[capacity][];
+    }
+
+    int getCapacity() {
+        return slots.length;
+    }
+
+    // Lưu pixel hiện có của vùng trên ảnh vào slot
+    void store(int slot, BufferedImage image, Rectangle rect) throws IOException {
+        check(slot, rect);
+        if (slots[slot] == null) {
+            slots[slot] = new int[BLOCK * BLOCK];
+        }
+        ImagePixels pixels = ImagePixels.of(image);
+        for (int row = 0; row < BLOCK; row++) {
+            System.arraycopy(pixels.data, pixels.offset + (rect.y + row) * pixels.stride + rect.x,
+                    slots[slot], row * BLOCK, BLOCK);
+        }
+    }
+
+    void paste(int slot, BufferedImage image, Rectangle rect) throws IOException {
+        check(slot, rect);
+        if (slots[slot] == null) {
+            throw new IOException("Empty cache slot: " + slot);
+        }
+        ImagePixels.write(image, rect, slots[slot]);
+    }
+
+    private void check(int slot, Rectangle rect) throws IOException {
+        if (slot < 0 || slot >= slots.length) {
+            throw new IOException("Invalid cache slot: " + slot);
+        }
+        if (rect.width != BLOCK || rect.height != BLOCK) {
+            throw new IOException("Invalid cache block: " + rect);
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package client;
 
+import common.Commands;
+import common.ScreenProtocol;
+import io.github.cdimascio.dotenv.Dotenv;
 import java.net.Socket;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
@@ -8,29 +11,48 @@ import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
-import java.io.DataOutputStream;
+import java.io.IOException;
 import javax.swing.JPanel;
+import javax.swing.Timer;
 
 public class ControlEvent implements MouseListener, MouseMotionListener, MouseWheelListener, KeyListener {
     private int h, w;
-    private DataOutputStream dos;
-    // giam so lan event gui di
-    private long lastMouseMoveTime = 0;
-    private long lastMouseDragTime = 0;
-    private static final long MOUSE_MOVE_DELAY = 50;
-    private static final long MOUSE_DRAG_DELAY = 50;
+    private ControlSender sender;
+    // Số điểm di/kéo chuột gửi tối đa mỗi giây (POINTER_HZ trong .env)
+    private static final int DEFAULT_POINTER_HZ = 60;
+    // Sự kiện tới trong khoảng này (ms) sau sự kiện đầu đi chung 1 frame (CONTROL_BATCH_MS trong .env)
+    private static final int DEFAULT_BATCH_MS = 2;
+    private final PointerCoalescer pointer;
+    private final Timer pointerTimer;
 
     public ControlEvent(Socket socket, JPanel panel) {
+        this(socket, panel, null);
+    }
+
+    // latency null = không đánh số sự kiện
+    ControlEvent(Socket socket, JPanel panel, InputLatency latency) {
         h = panel.getHeight();
         w = panel.getWidth();
 
+        Dotenv dotenv = Dotenv.configure()
+                .directory("./")
+                .ignoreIfMissing()
+                .load();
+        int pointerHz = Math.max(1, Integer.parseInt(dotenv.get("POINTER_HZ", String.valueOf(DEFAULT_POINTER_HZ))));
+        long batchWindow = Math.max(0, Integer.parseInt(dotenv.get("CONTROL_BATCH_MS",
+                String.valueOf(DEFAULT_BATCH_MS)))) * 1_000_000L;
+        pointer = new PointerCoalescer(this::sendPointer, 1_000_000_000L / pointerHz);
+        // Hẹn gửi điểm đang chờ; chạy trên EDT như các listener
+        pointerTimer = new Timer(0, e -> flushPointer());
+        pointerTimer.setRepeats(false);
+
         panel.addKeyListener(this);
         panel.addMouseListener(this);
         panel.addMouseMotionListener(this);
         panel.addMouseWheelListener(this);
         panel.setFocusable(true);
         try {
-            dos = new DataOutputStream(socket.getOutputStream());
+            sender = new ControlSender(socket.getOutputStream(), batchWindow, latency);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -43,9 +65,7 @@ public class ControlEvent implements MouseListener, MouseMotionListener, MouseWh
     @Override
     public void mousePressed(MouseEvent e) {
         try {
-            String control = Commands.PRESS_MOUSE.getAbbrev() + "," + e.getButton();
-            dos.writeUTF(control);
-            dos.flush();
+            sendEvent(Commands.PRESS_MOUSE, e.getButton());
         } catch (Exception ex) {
 
             ex.printStackTrace();
@@ -55,9 +75,7 @@ public class ControlEvent implements MouseListener, MouseMotionListener, MouseWh
     @Override
     public void mouseReleased(MouseEvent e) {
         try {
-            String control = Commands.RELEASE_MOUSE.getAbbrev() + "," + e.getButton();
-            dos.writeUTF(control);
-            dos.flush();
+            sendEvent(Commands.RELEASE_MOUSE, e.getButton());
         } catch (Exception ex) {
 
             ex.printStackTrace();
@@ -76,45 +94,30 @@ public class ControlEvent implements MouseListener, MouseMotionListener, MouseWh
 
     @Override
     public void mouseDragged(MouseEvent e) {
+        movePointer(Commands.MOUSE_DRAGGED, e);
+    }
 
-        long currentTime = System.currentTimeMillis();
-        if (currentTime - lastMouseDragTime < MOUSE_DRAG_DELAY) {
-            return;
-        }
-        lastMouseDragTime = currentTime;
+    @Override
+    public void mouseMoved(MouseEvent e) {
+        movePointer(Commands.MOVE_MOUSE, e);
+    }
 
-        int x = e.getX();
-        int y = e.getY();
+    private void movePointer(Commands command, MouseEvent e) {
         try {
-
-            String control = Commands.MOUSE_DRAGGED.getAbbrev() + ","
-                    + e.getButton() + "," + scaleX(x) + "," + scaleY(y);
-            dos.writeUTF(control);
-            dos.flush();
+            long wait = pointer.move(command, e.getButton(), scaleX(e.getX()), scaleY(e.getY()), System.nanoTime());
+            if (wait > 0 && !pointerTimer.isRunning()) {
+                pointerTimer.setInitialDelay((int) ((wait + 999_999) / 1_000_000));
+                pointerTimer.start();
+            }
         } catch (Exception ex) {
-
             ex.printStackTrace();
         }
     }
 
-    @Override
-    public void mouseMoved(MouseEvent e) {
-
-        long currentTime = System.currentTimeMillis();
-        if (currentTime - lastMouseMoveTime < MOUSE_MOVE_DELAY) {
-            return;
-        }
-        lastMouseMoveTime = currentTime;
-
-        int x = e.getX();
-        int y = e.getY();
+    private void flushPointer() {
         try {
-
-            String control = Commands.MOVE_MOUSE.getAbbrev() + "," + e.getButton() + "," + scaleX(x) + "," + scaleY(y);
-            dos.writeUTF(control);
-            dos.flush();
+            pointer.flush(System.nanoTime());
         } catch (Exception ex) {
-
             ex.printStackTrace();
         }
     }
@@ -122,15 +125,33 @@ public class ControlEvent implements MouseListener, MouseMotionListener, MouseWh
     @Override
     public void mouseWheelMoved(MouseWheelEvent e) {
         try {
-            String control = Commands.MOUSE_WHEEL_MOVED.getAbbrev() + "," + e.getWheelRotation();
-            dos.writeUTF(control);
-            dos.flush();
+            sendEvent(Commands.MOUSE_WHEEL_MOVED, e.getWheelRotation());
         } catch (Exception ex) {
 
             ex.printStackTrace();
         }
     }
 
+    // Gọi từ menu trên EDT; đi cùng hàng đợi với sự kiện chuột/phím nên giữ đúng thứ tự
+    public void selectStream(int stream) {
+        sender.sendText(ScreenProtocol.SELECT_STREAM + "," + stream);
+    }
+
+    public void setProtocolVersion(int version) {
+        sender.setProtocolVersion(version);
+    }
+
+    // Chỉ đưa vào hàng đợi của ControlSender, EDT không bao giờ ghi socket.
+    // Điểm chuột đang chờ đi trước để nút/phím xảy ra đúng vị trí và đúng thứ tự
+    private void sendEvent(Commands command, int arg) throws IOException {
+        pointer.flush(System.nanoTime());
+        sender.sendEvent(command, arg);
+    }
+
+    private void sendPointer(Commands command, int arg, double x, double y) {
+        sender.sendPointer(command, arg, x, y);
+    }
+
     private double scaleX(int x) {
         return (double) x / w;
     }
@@ -146,10 +167,8 @@ public class ControlEvent implements MouseListener, MouseMotionListener, MouseWh
     @Override
     public void keyPressed(KeyEvent e) {
         try {
-            String control = Commands.PRESS_KEY.getAbbrev() + "," + e.getKeyCode();
             if (isValidKeyCode(e.getKeyCode())) {
-                dos.writeUTF(control);
-                dos.flush();
+                sendEvent(Commands.PRESS_KEY, e.getKeyCode());
             }
         } catch (Exception ex) {
             ex.printStackTrace();
@@ -158,11 +177,9 @@ public class ControlEvent implements MouseListener, MouseMotionListener, MouseWh
 
     @Override
     public void keyReleased(KeyEvent e) {
-        String control = Commands.RELEASE_KEY.getAbbrev() + "," + e.getKeyCode();
         try {
             if (isValidKeyCode(e.getKeyCode())) {
-                dos.writeUTF(control);
-                dos.flush();
+                sendEvent(Commands.RELEASE_KEY, e.getKeyCode());
             }
         } catch (Exception ex) {
             ex.printStackTrace();
@@ -0,0 +1,311 @@
+package client;
+
+import common.Commands;
+import common.ControlProtocol;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/*
+ * Gửi sự kiện control không chặn EDT: EDT chỉ mã hóa sự kiện vào bộ đệm chờ (giữ khóa vài trăm ns),
+ * thread writer lấy cả bộ đệm rồi ghi + flush 1 lần. Sự kiện tới trong BATCH_WINDOW sau sự kiện đầu
+ * (hoặc trong lúc writer đang ghi) đi chung 1 lần ghi; với version >= 2 chúng nằm trong 1 frame BATCH.
+ * Lệnh chữ (version 0, SELECT_STREAM) đóng frame đang mở rồi nối vào sau, nên thứ tự luôn giữ nguyên.
+ * Socket kẹt quá MAX_PENDING_BYTES: di chuột không nối thêm mà chỉ giữ điểm mới nhất (gộp), điểm đó đi trước
+ * sự kiện kế tiếp hoặc ngay khi writer ghi xong. Phím, nút chuột, cuộn và lệnh chữ không bao giờ bị bỏ: vẫn nối,
+ * tối đa MAX_OVERFLOW_EVENTS sự kiện quá hạn mức; quá nữa thì sharer coi như đã ngừng đọc, đóng kết nối control
+ * (thà mất kết nối còn hơn nhả phím/nút bị mất làm phím kẹt ở máy sharer).
+ */
+class ControlSender {
+    private static final int MAX_PENDING_BYTES = 1024 * 1024;
+    private static final int MAX_OVERFLOW_EVENTS = 4096;
+    private static final long STATS_INTERVAL_NANOS = 30_000_000_000L;
+
+    private final OutputStream out;
+    private final long batchWindowNanos;
+    // null = không đánh số sự kiện (không đo độ trễ)
+    private final InputLatency latency;
+    private final Object lock = new Object();
+
+    // Các trường dưới đây được bảo vệ bởi lock
+    private byte[] pending = new byte[4096];
+    private int pendingLength = 0;
+    private int pendingEvents = 0;
+    // Vị trí header của frame BATCH đang mở, -1 = chưa mở
+    private int batchStart = -1;
+    private int protocolVersion = 0;
+    private int nextSequence = 1;
+    private boolean closed = false;
+    private final byte[] eventBuffer = new byte[ControlProtocol.MAX_EVENT_BYTES];
+    // Số sự kiện đã nối quá MAX_PENDING_BYTES từ lần ghi trước
+    private int overflowEvents = 0;
+    // Điểm chuột mới nhất chưa nối được vì socket kẹt, null = không có
+    private Commands heldCommand = null;
+    private int heldArg;
+    private double heldX;
+    private double heldY;
+    // Thời điểm tạo của điểm đang giữ: độ trễ đo từ lúc đó, không phải lúc được ghi
+    private long heldNanos;
+
+    // Thống kê (bảo vệ bởi lock)
+    private long events = 0;
+    private long packets = 0;
+    private long coalesced = 0;
+    private long dropped = 0;
+    private long maxEnqueueNanos = 0;
+
+    ControlSender(OutputStream out, long batchWindowNanos, InputLatency latency) {
+        this.out = out;
+        this.batchWindowNanos = batchWindowNanos;
+        this.latency = latency;
+        Thread writer = new Thread(this::writeLoop, "ControlEvent-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    void setProtocolVersion(int version) {
+        synchronized (lock) {
+            protocolVersion = version;
+        }
+    }
+
+    void sendEvent(Commands command, int arg) {
+        long start = System.nanoTime();
+        synchronized (lock) {
+            appendHeldPointer();
+            if (protocolVersion >= 1) {
+                appendBinary(ControlProtocol.writeEvent(eventBuffer, command, arg, protocolVersion >= 4), true, start);
+            } else {
+                appendText(ControlProtocol.textEvent(command, arg), true);
+            }
+            recordEnqueue(start);
+        }
+    }
+
+    void sendPointer(Commands command, int arg, double x, double y) {
+        long start = System.nanoTime();
+        synchronized (lock) {
+            if (heldCommand != null || !appendPointer(command, arg, x, y, false, start)) {
+                if (heldCommand != null) {
+                    coalesced++;
+                }
+                heldCommand = command;
+                heldArg = arg;
+                heldX = x;
+                heldY = y;
+                heldNanos = start;
+            }
+            recordEnqueue(start);
+        }
+    }
+
+    // Lệnh chữ writeUTF (SELECT_STREAM, định dạng version 0)
+    void sendText(String text) {
+        long start = System.nanoTime();
+        synchronized (lock) {
+            appendHeldPointer();
+            appendText(text, true);
+            recordEnqueue(start);
+        }
+    }
+
+    void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+    }
+
+    String describe() {
+        synchronized (lock) {
+            return String.format("events=%d packets=%d events/packet=%.2f coalesced=%d dropped=%d%s max enqueue=%.1f µs",
+                    events, packets, packets == 0 ? 0.0 : (double) events / packets, coalesced, dropped,
+                    closed ? " (closed)" : "", maxEnqueueNanos / 1e3);
+        }
+    }
+
+    private boolean appendPointer(Commands command, int arg, double x, double y, boolean mustSend,
+            long createdNanos) {
+        if (protocolVersion >= 1) {
+            return appendBinary(ControlProtocol.writePointer(eventBuffer, command, arg, x, y, protocolVersion >= 4),
+                    mustSend, createdNanos);
+        }
+        return appendText(ControlProtocol.textPointer(command, arg, x, y), mustSend);
+    }
+
+    // Điểm chuột đang giữ đi trước sự kiện kế tiếp để nút/phím xảy ra đúng vị trí
+    private void appendHeldPointer() {
+        if (heldCommand != null) {
+            Commands command = heldCommand;
+            heldCommand = null;
+            appendPointer(command, heldArg, heldX, heldY, true, heldNanos);
+        }
+    }
+
+    // false nếu không nối (di chuột khi socket kẹt, hoặc đã đóng); createdNanos = lúc sự kiện xảy ra
+    private boolean appendBinary(int length, boolean mustSend, long createdNanos) {
+        if (protocolVersion >= 2) {
+            if (batchStart >= 0 && pendingLength + length - batchStart > ControlProtocol.MAX_BATCH_BYTES) {
+                batchStart = -1;
+            }
+            // Version 3 + đo độ trễ: frame BATCH_SEQ mang seq sự kiện đầu, các sự kiện sau đánh số liên tiếp
+            boolean numbered = latency != null && protocolVersion >= 3;
+            int headerBytes = numbered ? ControlProtocol.BATCH_SEQ_HEADER_BYTES : ControlProtocol.BATCH_HEADER_BYTES;
+            if (batchStart < 0) {
+                if (!reserve(headerBytes + length, mustSend)) {
+                    return false;
+                }
+                batchStart = pendingLength;
+                pending[pendingLength] = (byte) (numbered ? ControlProtocol.BATCH_SEQ : ControlProtocol.BATCH);
+                if (numbered) {
+                    writeInt(pending, pendingLength + ControlProtocol.BATCH_HEADER_BYTES, nextSequence);
+                }
+                pendingLength += headerBytes;
+            } else if (!reserve(length, mustSend)) {
+                return false;
+            }
+            System.arraycopy(eventBuffer, 0, pending, pendingLength, length);
+            pendingLength += length;
+            int batchLength = pendingLength - batchStart - headerBytes;
+            pending[batchStart + 1] = (byte) (batchLength >>> 8);
+            pending[batchStart + 2] = (byte) batchLength;
+            if (numbered) {
+                latency.recordSent(nextSequence++, createdNanos);
+            }
+        } else {
+            if (!reserve(length, mustSend)) {
+                return false;
+            }
+            System.arraycopy(eventBuffer, 0, pending, pendingLength, length);
+            pendingLength += length;
+        }
+        enqueued();
+        return true;
+    }
+
+    private boolean appendText(String text, boolean mustSend) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(text.length() + 2);
+        try {
+            new DataOutputStream(bytes).writeUTF(text);
+        } catch (IOException e) {
+            // ByteArrayOutputStream không ném IOException; chuỗi quá dài thì bỏ
+            System.err.println("[ControlSender] Lệnh quá dài: " + e.getMessage());
+            return false;
+        }
+        if (bytes.size() - 2 > ControlProtocol.MAX_TEXT_BYTES) {
+            // Byte cao của độ dài sẽ trùng marker nhị phân, sharer đọc sai cả luồng
+            System.err.println("[ControlSender] Lệnh quá dài: " + (bytes.size() - 2) + " byte");
+            dropped++;
+            return false;
+        }
+        if (!reserve(bytes.size(), mustSend)) {
+            return false;
+        }
+        batchStart = -1;
+        System.arraycopy(bytes.toByteArray(), 0, pending, pendingLength, bytes.size());
+        pendingLength += bytes.size();
+        enqueued();
+        return true;
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    // mustSend = phím/nút/lệnh: quá MAX_PENDING_BYTES vẫn nối tới MAX_OVERFLOW_EVENTS sự kiện, rồi đóng kết nối
+    private boolean reserve(int length, boolean mustSend) {
+        if (closed) {
+            dropped++;
+            return false;
+        }
+        if (pendingLength + length > MAX_PENDING_BYTES) {
+            if (!mustSend) {
+                return false;
+            }
+            if (++overflowEvents > MAX_OVERFLOW_EVENTS) {
+                System.err.println("[ControlSender] Sharer không đọc control, " + MAX_OVERFLOW_EVENTS
+                        + " sự kiện phím/nút đang chờ; đóng kết nối");
+                dropped++;
+                closed = true;
+                lock.notifyAll();
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // đang đóng
+                }
+                return false;
+            }
+        }
+        if (pendingLength + length > pending.length) {
+            byte[] grown = new byte[Math.max(pending.length * 2, pendingLength + length)];
+            System.arraycopy(pending, 0, grown, 0, pendingLength);
+            pending = grown;
+        }
+        return true;
+    }
+
+    private void enqueued() {
+        pendingEvents++;
+        if (pendingEvents == 1) {
+            lock.notifyAll();
+        }
+    }
+
+    private void recordEnqueue(long start) {
+        maxEnqueueNanos = Math.max(maxEnqueueNanos, System.nanoTime() - start);
+    }
+
+    // Thread writer: chờ sự kiện đầu, đợi thêm BATCH_WINDOW để gom, rồi đổi bộ đệm và ghi ngoài khóa
+    private void writeLoop() {
+        byte[] writing = new byte[4096];
+        long lastStats = System.nanoTime();
+        try {
+            while (true) {
+                int length;
+                synchronized (lock) {
+                    while (pendingEvents == 0 && !closed) {
+                        lock.wait();
+                    }
+                    if (closed) {
+                        break;
+                    }
+                }
+                if (batchWindowNanos > 0) {
+                    Thread.sleep(batchWindowNanos / 1_000_000, (int) (batchWindowNanos % 1_000_000));
+                }
+                synchronized (lock) {
+                    byte[] swap = writing;
+                    writing = pending;
+                    pending = swap;
+                    length = pendingLength;
+                    events += pendingEvents;
+                    packets++;
+                    pendingLength = 0;
+                    pendingEvents = 0;
+                    batchStart = -1;
+                    overflowEvents = 0;
+                    // Đã có chỗ: điểm chuột cuối cùng đi ở lần ghi sau, không bị mất khi chuột dừng
+                    appendHeldPointer();
+                }
+                out.write(writing, 0, length);
+                out.flush();
+
+                long now = System.nanoTime();
+                if (now - lastStats >= STATS_INTERVAL_NANOS) {
+                    System.out.println("[ControlSender] " + describe());
+                    lastStats = now;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[ControlSender] Mất kết nối control: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+        }
+    }
+}
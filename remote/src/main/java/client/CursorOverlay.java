@@ -0,0 +1,84 @@
+package client;
+
+import common.ScreenProtocol;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+
+/*
+ * Con trỏ chuột của sharer, vẽ đè lên ảnh màn hình theo MSG_CURSOR.
+ * Thread đọc socket cập nhật vị trí (không qua hàng đợi giải mã), EDT vẽ sau khi blit ảnh.
+ */
+class CursorOverlay {
+    // Mũi tên chuẩn, điểm nóng ở (0, 0)
+    private static final int[] ARROW_X = { 0, 0, 4, 7, 9, 6, 11 };
+    private static final int[] ARROW_Y = { 0, 16, 12, 18, 17, 11, 11 };
+    private static final int ARROW_WIDTH = 12;
+    private static final int ARROW_HEIGHT = 19;
+
+    private volatile State state = new State(0, 0, ScreenProtocol.CURSOR_HIDDEN);
+
+    // Trả về vùng panel cần vẽ lại (vị trí cũ và mới), null nếu không đổi
+    Rectangle update(int x, int y, byte shape, int frameWidth, int frameHeight, int panelWidth, int panelHeight) {
+        State previous = state;
+        State next = new State(x, y, shape);
+        state = next;
+        Rectangle dirty = bounds(previous, frameWidth, frameHeight, panelWidth, panelHeight);
+        Rectangle now = bounds(next, frameWidth, frameHeight, panelWidth, panelHeight);
+        if (dirty == null) {
+            return now;
+        }
+        if (now != null) {
+            dirty.add(now);
+        }
+        return dirty;
+    }
+
+    // Gọi trên EDT sau khi đã vẽ ảnh đã scale
+    void paint(Graphics g, int frameWidth, int frameHeight, int panelWidth, int panelHeight) {
+        State current = state;
+        if (current.shape == ScreenProtocol.CURSOR_HIDDEN || frameWidth <= 0 || frameHeight <= 0) {
+            return;
+        }
+        int px = (int) ((long) current.x * panelWidth / frameWidth);
+        int py = (int) ((long) current.y * panelHeight / frameHeight);
+        Polygon arrow = new Polygon(ARROW_X, ARROW_Y, ARROW_X.length);
+        arrow.translate(px, py);
+
+        Graphics2D g2 = (Graphics2D) g.create();
+        try {
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2.setColor(Color.WHITE);
+            g2.fillPolygon(arrow);
+            g2.setColor(Color.BLACK);
+            g2.drawPolygon(arrow);
+        } finally {
+            g2.dispose();
+        }
+    }
+
+    private static Rectangle bounds(State s, int frameWidth, int frameHeight, int panelWidth, int panelHeight) {
+        if (s.shape == ScreenProtocol.CURSOR_HIDDEN || frameWidth <= 0 || frameHeight <= 0) {
+            return null;
+        }
+        int px = (int) ((long) s.x * panelWidth / frameWidth);
+        int py = (int) ((long) s.y * panelHeight / frameHeight);
+        // Dư 1px cho viền khử răng cưa
+        return new Rectangle(px - 1, py - 1, ARROW_WIDTH + 2, ARROW_HEIGHT + 2);
+    }
+
+    private static class State {
+        final int x;
+        final int y;
+        final byte shape;
+
+        State(int x, int y, byte shape) {
+            this.x = x;
+            this.y = y;
+            this.shape = shape;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package client;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/*
+ * Độ trễ thao tác → hình: ControlSender ghi thời điểm đưa từng sự kiện (theo seq) vào hàng đợi, thread giải mã
+ * báo seq sharer gửi lại trong header frame khi frame đó đã áp xong và yêu cầu vẽ. Mỗi sự kiện mới được xác nhận
+ * là 1 mẫu = lúc vẽ - lúc gửi (cùng đồng hồ của viewer). Phân vị tính trên WINDOW mẫu gần nhất.
+ * Thread-safe (EDT, thread writer và thread giải mã cùng dùng).
+ */
+class InputLatency {
+    // Số sự kiện chờ xác nhận tối đa; cũ hơn thì bỏ (mẫu không còn ý nghĩa)
+    private static final int RING = 8192;
+    private static final int WINDOW = 512;
+
+    private final long[] sentNanos = new long[RING];
+    private int lastSent = 0;
+    private int lastEchoed = 0;
+
+    private final long[] samples = new long[WINDOW];
+    private long totalSamples = 0;
+    private long intervalSamples = 0;
+
+    synchronized void recordSent(int sequence, long now) {
+        sentNanos[sequence & (RING - 1)] = now;
+        lastSent = sequence;
+    }
+
+    // Seq lớn hơn seq đã gửi là của phiên trước (sharer chưa nhận sự kiện nào của viewer này) nên bỏ qua
+    synchronized void recordEcho(int sequence, long now) {
+        if (sequence <= lastEchoed || sequence > lastSent) {
+            return;
+        }
+        for (int s = Math.max(lastEchoed + 1, sequence - RING + 1); s <= sequence; s++) {
+            samples[(int) (totalSamples++ % WINDOW)] = now - sentNanos[s & (RING - 1)];
+            intervalSamples++;
+        }
+        lastEchoed = sequence;
+    }
+
+    synchronized boolean hasSamples() {
+        return totalSamples > 0;
+    }
+
+    // Dùng cho overlay: "p50 12.3 ms · p99 40.1 ms"
+    synchronized String describe() {
+        long[] sorted = sortedWindow();
+        if (sorted.length == 0) {
+            return "thao tác → hình: chưa có mẫu";
+        }
+        return String.format("thao tác → hình p50 %.1f ms · p99 %.1f ms (%d mẫu)", percentile(sorted, 50) / 1e6,
+                percentile(sorted, 99) / 1e6, sorted.length);
+    }
+
+    // 1 dòng JSON cho log máy đọc; samples = số mẫu mới từ lần gọi trước
+    synchronized String snapshotJson(long timeMillis) {
+        long[] sorted = sortedWindow();
+        String line = String.format(Locale.ROOT,
+                "{\"time\":%d,\"samples\":%d,\"window\":%d,\"p50_ms\":%.2f,\"p99_ms\":%.2f,\"max_ms\":%.2f}",
+                timeMillis, intervalSamples, sorted.length, percentile(sorted, 50) / 1e6,
+                percentile(sorted, 99) / 1e6, sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6);
+        intervalSamples = 0;
+        return line;
+    }
+
+    private long[] sortedWindow() {
+        long[] sorted = Arrays.copyOf(samples, (int) Math.min(totalSamples, WINDOW));
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static long percentile(long[] sorted, int p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) ((long) sorted.length * p / 100))];
+    }
+}
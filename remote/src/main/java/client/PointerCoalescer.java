@@ -0,0 +1,85 @@
+package client;
+
+import common.Commands;
+import java.io.IOException;
+
+/*
+ * Gộp các sự kiện di chuột/kéo chuột: chỉ giữ vị trí mới nhất, gửi tối đa 1 điểm mỗi interval.
+ * - Đường truyền rảnh (đã quá interval từ lần gửi trước) thì gửi ngay, không chờ.
+ * - Còn lại trả về thời gian chờ để người gọi hẹn flush; điểm cuối khi chuột dừng vẫn được gửi.
+ * - Trước mọi sự kiện nút/phím người gọi phải flush(), để nhấn/nhả xảy ra đúng ở vị trí mới nhất.
+ * - Đổi lệnh (di ↔ kéo) thì gửi điểm của lệnh cũ trước.
+ * Thời gian truyền vào (nanoTime) để đo lại được với đồng hồ giả. Không thread-safe (chỉ EDT dùng).
+ */
+class PointerCoalescer {
+    interface Sink {
+        void sendPointer(Commands command, int arg, double x, double y) throws IOException;
+    }
+
+    private final Sink sink;
+    private final long intervalNanos;
+
+    private boolean pending = false;
+    private Commands command;
+    private int arg;
+    private double x;
+    private double y;
+    private long lastSentNanos;
+    private boolean sentAny = false;
+
+    private long received = 0;
+    private long sent = 0;
+
+    PointerCoalescer(Sink sink, long intervalNanos) {
+        this.sink = sink;
+        this.intervalNanos = intervalNanos;
+    }
+
+    // 0 = đã gửi (hoặc không còn gì chờ); > 0 = số nano cần chờ trước khi gọi flush()
+    long move(Commands command, int arg, double x, double y, long now) throws IOException {
+        received++;
+        if (pending && this.command != command) {
+            flush(now);
+        }
+        this.command = command;
+        this.arg = arg;
+        this.x = x;
+        this.y = y;
+        pending = true;
+        long wait = getDelay(now);
+        if (wait == 0) {
+            flush(now);
+        }
+        return wait;
+    }
+
+    void flush(long now) throws IOException {
+        if (!pending) {
+            return;
+        }
+        pending = false;
+        lastSentNanos = now;
+        sentAny = true;
+        sent++;
+        sink.sendPointer(command, arg, x, y);
+    }
+
+    long getDelay(long now) {
+        if (!pending || !sentAny) {
+            return 0;
+        }
+        return Math.max(0, lastSentNanos + intervalNanos - now);
+    }
+
+    boolean hasPending() {
+        return pending;
+    }
+
+    long getReceived() {
+        return received;
+    }
+
+    long getSent() {
+        return sent;
+    }
+}
@@ -0,0 +1,161 @@
+package client;
+
+import common.Commands;
+import common.ControlProtocol;
+import java.io.IOException;
+import java.util.Random;
+
+/*
+ * Phát lại 1 thao tác kéo chuột dựng sẵn (nhấn, kéo theo đường cong, dừng, nhả) với đồng hồ giả, so sánh
+ * bộ lọc cũ (bỏ mọi sự kiện trong 50 ms sau lần gửi trước) với PointerCoalescer ở các tốc độ khác nhau.
+ * In số điểm gửi mỗi giây, sai lệch (pixel panel) giữa điểm cuối sharer nhận và điểm nhả chuột thật, và byte/giây
+ * theo định dạng control (text = CSV qua writeUTF, binary = ControlProtocol).
+ *
+ * java -cp remote-0.0.1.jar client.PointerReplay [--seconds 3] [--input-hz 125] [--format binary|text] [--seed 1]
+ */
+public class PointerReplay {
+    private static final int PANEL_WIDTH = 1591;
+    private static final int PANEL_HEIGHT = 863;
+    private static final long MS = 1_000_000L;
+    // Bộ lọc cũ của ControlEvent
+    private static final long DROP_DELAY = 50 * MS;
+    // Giữ chuột đứng yên trước khi nhả
+    private static final long HOLD = 200 * MS;
+
+    private final long[] times;
+    private final double[] xs;
+    private final double[] ys;
+    private final boolean binary;
+    private final byte[] eventBuffer = new byte[ControlProtocol.MAX_EVENT_BYTES];
+
+    // Kết quả của lần chạy hiện tại
+    private long sentPoints;
+    private long bytes;
+    private double lastX;
+    private double lastY;
+
+    PointerReplay(int seconds, int inputHz, boolean binary, long seed) {
+        // Chuột thật báo không đều: khoảng cách giữa 2 sự kiện dao động quanh 1/inputHz
+        Random random = new Random(seed);
+        long duration = seconds * 1000 * MS;
+        long step = 1_000_000_000L / inputHz;
+        int count = (int) (duration / step);
+        times = new long[count];
+        xs = new double[count];
+        ys = new double[count];
+        long t = 0;
+        for (int i = 0; i < count; i++) {
+            t += step / 2 + (long) (random.nextDouble() * step);
+            double p = (double) t / duration;
+            times[i] = t;
+            xs[i] = Math.floor((0.1 + 0.8 * p) * PANEL_WIDTH) / PANEL_WIDTH;
+            ys[i] = Math.floor((0.5 + 0.3 * Math.sin(2 * Math.PI * 1.5 * p)) * PANEL_HEIGHT) / PANEL_HEIGHT;
+        }
+        this.binary = binary;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int seconds = 3;
+        int inputHz = 125;
+        boolean binary = true;
+        long seed = 1;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--seconds":
+                    seconds = Integer.parseInt(value);
+                    break;
+                case "--input-hz":
+                    inputHz = Integer.parseInt(value);
+                    break;
+                case "--format":
+                    binary = !"text".equals(value);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(value);
+                    break;
+                default:
+                    System.err.println("[PointerReplay] Tham số không hợp lệ: " + args[i]);
+                    return;
+            }
+        }
+        PointerReplay replay = new PointerReplay(seconds, inputHz, binary, seed);
+        System.out.println("[PointerReplay] " + replay.times.length + " sự kiện kéo trong " + seconds + "s, "
+                + (binary ? "binary" : "text"));
+        System.out.println("[PointerReplay] drop-50ms " + replay.runDropFilter());
+        for (int hz : new int[] { 20, 30, 60, 120 }) {
+            System.out.println("[PointerReplay] coalesce-" + hz + "Hz " + replay.runCoalescer(hz));
+        }
+    }
+
+    String runDropFilter() throws IOException {
+        reset();
+        long lastSent = -DROP_DELAY;
+        for (int i = 0; i < times.length; i++) {
+            if (times[i] - lastSent < DROP_DELAY) {
+                continue;
+            }
+            lastSent = times[i];
+            sendPointer(Commands.MOUSE_DRAGGED, 1, xs[i], ys[i]);
+        }
+        sendEvent(Commands.RELEASE_MOUSE, 1);
+        return result();
+    }
+
+    // Timer của ControlEvent được mô phỏng bằng hạn flush: tới hạn trước sự kiện kế tiếp thì flush tại hạn
+    String runCoalescer(int hz) throws IOException {
+        reset();
+        PointerCoalescer pointer = new PointerCoalescer(this::sendPointer, 1_000_000_000L / hz);
+        long deadline = -1;
+        for (int i = 0; i < times.length; i++) {
+            if (deadline >= 0 && deadline <= times[i]) {
+                pointer.flush(deadline);
+                deadline = -1;
+            }
+            long wait = pointer.move(Commands.MOUSE_DRAGGED, 1, xs[i], ys[i], times[i]);
+            if (wait > 0 && deadline < 0) {
+                deadline = times[i] + wait;
+            }
+        }
+        long release = times[times.length - 1] + HOLD;
+        if (deadline >= 0 && deadline <= release) {
+            pointer.flush(deadline);
+        }
+        // Như sendEvent của ControlEvent: điểm đang chờ luôn đi trước nút nhả
+        pointer.flush(release);
+        sendEvent(Commands.RELEASE_MOUSE, 1);
+        return result();
+    }
+
+    private void reset() throws IOException {
+        sentPoints = 0;
+        bytes = 0;
+        sendEvent(Commands.PRESS_MOUSE, 1);
+    }
+
+    private void sendPointer(Commands command, int arg, double x, double y) {
+        sentPoints++;
+        lastX = x;
+        lastY = y;
+        bytes += binary ? ControlProtocol.writePointer(eventBuffer, command, arg, x, y)
+                : utfLength(ControlProtocol.textPointer(command, arg, x, y));
+    }
+
+    private void sendEvent(Commands command, int arg) {
+        bytes += binary ? ControlProtocol.writeEvent(eventBuffer, command, arg)
+                : utfLength(ControlProtocol.textEvent(command, arg));
+    }
+
+    private String result() {
+        double seconds = (times[times.length - 1] + HOLD) / 1e9;
+        int last = times.length - 1;
+        double error = Math.hypot((lastX - xs[last]) * PANEL_WIDTH, (lastY - ys[last]) * PANEL_HEIGHT);
+        return String.format("điểm/s=%.1f sai lệch cuối=%.1f px %.0f B/s", sentPoints / seconds, error,
+                bytes / seconds);
+    }
+
+    // Chuỗi CSV chỉ có ASCII: writeUTF = 2 byte độ dài + nội dung
+    private static int utfLength(String s) {
+        return 2 + s.length();
+    }
+}
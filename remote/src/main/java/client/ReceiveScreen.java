@@ -1,26 +1,56 @@
 package client;
 
 import common.ChatWindow;
+import common.ControlProtocol;
+import common.ScreenProtocol;
+import common.codec.Codecs;
+import io.github.cdimascio.dotenv.Dotenv;
 import javax.swing.*;
 import java.awt.*;
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 
 public class ReceiveScreen extends JFrame {
+    // 2048 khối 64x64 = 32MB khi đầy
+    private static final int CACHE_BLOCKS = 2048;
 
     private volatile BufferedImage currentImage = null;
     private volatile String statusMessage = "Đang kết nối tới server...";
     private final JPanel screenPanel;
     private ChatWindow chatWindow;
+    private final ScreenMessageQueue messageQueue = new ScreenMessageQueue();
+    private final ScreenSurface surface = new ScreenSurface();
+    private final CursorOverlay cursor = new CursorOverlay();
+    private final RegionDecoder regionDecoder = new RegionDecoder(CACHE_BLOCKS);
+    private final JMenu streamMenu = new JMenu("Màn hình");
+    private volatile ControlEvent controlEvent;
+    // null khi INPUT_LATENCY=0: không đánh số sự kiện control, sharer không gửi lại seq
+    private final InputLatency inputLatency;
+    // LATENCY_LOG: file nhận 1 dòng JSON độ trễ mỗi 10 giây
+    private final String latencyLogPath;
+    private volatile boolean showLatency = false;
+    private static final Rectangle LATENCY_OVERLAY = new Rectangle(8, 8, 380, 24);
 
     public ReceiveScreen(Socket dataSocket, float width, float height, Socket controlSocket, Socket chatSocket) {
 
         setTitle("RemoteX Screen Viewer");
 
+        Dotenv dotenv = Dotenv.configure()
+                .directory("./")
+                .ignoreIfMissing()
+                .load();
+        inputLatency = "0".equals(dotenv.get("INPUT_LATENCY", "1")) ? null : new InputLatency();
+        latencyLogPath = dotenv.get("LATENCY_LOG", null);
+
         // Lấy kích thước màn hình khả dụng (trừ taskbar)
         GraphicsEnvironment ge = GraphicsEnvironment.getLocalGraphicsEnvironment();
         GraphicsDevice gd = ge.getDefaultScreenDevice();
@@ -42,8 +72,13 @@ public class ReceiveScreen extends JFrame {
             @Override
             protected void paintComponent(Graphics g) {
                 super.paintComponent(g);
-                if (currentImage != null) {
-                    g.drawImage(currentImage, 0, 0, getWidth(), getHeight(), null);
+                // EDT chỉ blit ảnh đã scale sẵn; giải mã và scale nằm ở thread giải mã
+                BufferedImage image = currentImage;
+                if (surface.paint(g, image, getWidth(), getHeight())) {
+                    cursor.paint(g, image.getWidth(), image.getHeight(), getWidth(), getHeight());
+                    if (showLatency) {
+                        paintLatency(g);
+                    }
                 } else {
                     g.setColor(Color.BLACK);
                     g.fillRect(0, 0, getWidth(), getHeight());
@@ -66,33 +101,66 @@ public class ReceiveScreen extends JFrame {
             }
         });
         toolsMenu.add(chatMenuItem);
+        if (inputLatency != null) {
+            JCheckBoxMenuItem latencyMenuItem = new JCheckBoxMenuItem("Hiện độ trễ thao tác");
+            latencyMenuItem.addActionListener(e -> {
+                showLatency = latencyMenuItem.isSelected();
+                screenPanel.repaint();
+            });
+            toolsMenu.add(latencyMenuItem);
+        }
         menuBar.add(toolsMenu);
+        // Chỉ hiện khi sharer có hơn 1 nguồn (MSG_STREAM)
+        streamMenu.setVisible(false);
+        menuBar.add(streamMenu);
         this.setJMenuBar(menuBar);
 
         setVisible(true);
+        // Tạo trước thread đọc: MSG_CONTROL có thể tới ngay sau width/height
+        controlEvent = new ControlEvent(controlSocket, screenPanel, inputLatency);
         new Thread(() -> receiveFrames(dataSocket)).start();
-
-        new ControlEvent(controlSocket, screenPanel);
+        Thread decodeThread = new Thread(() -> decodeFrames(dataSocket), "ReceiveScreen-decode");
+        decodeThread.setDaemon(true);
+        decodeThread.start();
     }
 
     private void receiveFrames(Socket socket) {
         try (DataInputStream in = new DataInputStream(socket.getInputStream())) {
+            // Báo cho sharer các codec viewer giải mã được
+            int[] caps = ScreenProtocol.newCaps();
+            caps[ScreenProtocol.CAP_CODECS] = Codecs.SUPPORTED_MASK;
+            caps[ScreenProtocol.CAP_CURSOR] = 1;
+            caps[ScreenProtocol.CAP_COPY_RECT] = 1;
+            caps[ScreenProtocol.CAP_TILE_CACHE] = regionDecoder.getCacheCapacity();
+            caps[ScreenProtocol.CAP_STREAMS] = 1;
+            caps[ScreenProtocol.CAP_CONTROL] = ControlProtocol.VERSION;
+            caps[ScreenProtocol.CAP_INPUT_ECHO] = inputLatency != null ? 1 : 0;
+            caps[ScreenProtocol.CAP_REGIONS] = 1;
+            ScreenProtocol.writeHello(new DataOutputStream(socket.getOutputStream()), caps);
 
-            int screenWidth = in.readInt();
+            // Sharer mới trả lời bằng hello; sharer cũ gửi ngay width theo định dạng cũ
+            int first = in.readInt();
+            boolean regionFormat = first == ScreenProtocol.HELLO_MAGIC;
+            int[] sharerCaps = regionFormat ? ScreenProtocol.readCaps(in) : ScreenProtocol.newCaps();
+            boolean inputEcho = sharerCaps[ScreenProtocol.CAP_INPUT_ECHO] != 0;
+            int screenWidth = regionFormat ? in.readInt() : first;
             int screenHeight = in.readInt();
 
             currentImage = new BufferedImage(screenWidth, screenHeight, BufferedImage.TYPE_INT_RGB);
             statusMessage = null;
 
+            // Thread này chỉ đọc; giải mã và vẽ nằm ở decodeFrames()
             while (!socket.isClosed()) {
-                boolean isFullFrame = in.readBoolean();
-                in.readInt();
-                if (isFullFrame) {
-                    processFullFrame(in);
+                ScreenMessageQueue.ScreenMessage message = regionFormat
+                        ? ScreenMessageQueue.ScreenMessage.read(in, inputEcho)
+                        : ScreenMessageQueue.ScreenMessage.readLegacy(in, screenWidth, screenHeight);
+                if (message.type == ScreenProtocol.MSG_CURSOR) {
+                    updateCursor(message);
+                } else if (message.type == ScreenProtocol.MSG_CONTROL) {
+                    controlEvent.setProtocolVersion(message.controlVersion);
                 } else {
-                    processDeltaFrame(in);
+                    messageQueue.offer(message);
                 }
-                screenPanel.repaint();
             }
 
         } catch (java.io.EOFException e) {
@@ -117,34 +185,149 @@ public class ReceiveScreen extends JFrame {
             statusMessage = "Mất kết nối tới server: " + e.getMessage();
             currentImage = null;
             screenPanel.repaint();
+        } finally {
+            messageQueue.close();
         }
     }
 
-    private void processFullFrame(DataInputStream in) throws IOException {
-        int dataLength = in.readInt();
-        byte[] frameData = new byte[dataLength];
-        in.readFully(frameData);
-        BufferedImage img = ImageIO.read(new ByteArrayInputStream(frameData));
-        if (img != null) {
-            currentImage = img;
+    // Con trỏ không chờ giải mã ảnh: chỉ vẽ lại vùng quanh vị trí cũ và mới
+    private void updateCursor(ScreenMessageQueue.ScreenMessage message) {
+        BufferedImage image = currentImage;
+        if (image == null) {
+            return;
+        }
+        Rectangle r = cursor.update(message.cursorX, message.cursorY, message.cursorShape,
+                image.getWidth(), image.getHeight(), screenPanel.getWidth(), screenPanel.getHeight());
+        if (r != null) {
+            screenPanel.repaint(r.x, r.y, r.width, r.height);
         }
     }
 
-    private void processDeltaFrame(DataInputStream in) throws IOException {
-        int x = in.readInt();
-        int y = in.readInt();
-        int width = in.readInt();
-        int height = in.readInt();
-
-        int dataLength = in.readInt();
-        byte[] frameData = new byte[dataLength];
-        in.readFully(frameData);
-        BufferedImage deltaImg = ImageIO.read(new ByteArrayInputStream(frameData));
-
-        if (currentImage != null && deltaImg != null) {
-            Graphics2D g2d = currentImage.createGraphics();
-            g2d.drawImage(deltaImg, x, y, null);
-            g2d.dispose();
+    public int getDecodeQueueDepth() {
+        return messageQueue.getDepth();
+    }
+
+    public long getDroppedFrames() {
+        return messageQueue.getDroppedFrames();
+    }
+
+    // Mỗi lượt giải mã mọi thông điệp đang chờ (đã bỏ những gì bị full frame mới thay thế) rồi vẽ 1 lần
+    private void decodeFrames(Socket socket) {
+        long lastDropped = 0;
+        long lastLog = System.nanoTime();
+        List<Rectangle> dirty = new ArrayList<>();
+        try {
+            while (true) {
+                List<ScreenMessageQueue.ScreenMessage> batch = messageQueue.drain();
+                if (batch.isEmpty()) {
+                    break;
+                }
+                dirty.clear();
+                int echoedInput = 0;
+                for (ScreenMessageQueue.ScreenMessage message : batch) {
+                    if (message.type == ScreenProtocol.MSG_STREAM) {
+                        switchStream(message);
+                    } else {
+                        regionDecoder.apply(message, currentImage, dirty);
+                        echoedInput = Math.max(echoedInput, message.inputSequence);
+                    }
+                }
+                BufferedImage image = currentImage;
+                if (image != null) {
+                    // Chỉ repaint phần panel ứng với các vùng vừa đổi
+                    for (Rectangle r : surface.update(image, dirty, screenPanel.getWidth(), screenPanel.getHeight())) {
+                        screenPanel.repaint(r.x, r.y, r.width, r.height);
+                    }
+                }
+                // "Photon" = lúc yêu cầu vẽ frame đã phản ánh sự kiện (EDT vẽ ngay sau đó)
+                if (inputLatency != null && echoedInput > 0) {
+                    inputLatency.recordEcho(echoedInput, System.nanoTime());
+                    if (showLatency) {
+                        screenPanel.repaint(LATENCY_OVERLAY);
+                    }
+                }
+
+                long now = System.nanoTime();
+                if (now - lastLog >= 10_000_000_000L) {
+                    System.out.println("[ReceiveScreen] " + surface.snapshotAndReset()
+                            + " queue=" + messageQueue.getDepth());
+                    if (inputLatency != null && inputLatency.hasSamples()) {
+                        logLatency();
+                    }
+                    lastLog = now;
+                }
+
+                long dropped = messageQueue.getDroppedFrames();
+                if (dropped / 30 != lastDropped / 30) {
+                    System.out.println("[ReceiveScreen] Bỏ qua " + dropped + "/" + messageQueue.getReceivedFrames()
+                            + " frame do giải mã không kịp");
+                }
+                lastDropped = dropped;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("[ReceiveScreen] Decode error: " + e.getMessage());
+            statusMessage = "Lỗi giải mã màn hình: " + e.getMessage();
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void paintLatency(Graphics g) {
+        g.setColor(new Color(0, 0, 0, 170));
+        g.fillRect(LATENCY_OVERLAY.x, LATENCY_OVERLAY.y, LATENCY_OVERLAY.width, LATENCY_OVERLAY.height);
+        g.setColor(Color.WHITE);
+        g.setFont(new Font("Arial", Font.PLAIN, 13));
+        g.drawString(inputLatency.describe(), LATENCY_OVERLAY.x + 8, LATENCY_OVERLAY.y + 17);
+    }
+
+    private void logLatency() {
+        String json = inputLatency.snapshotJson(System.currentTimeMillis());
+        System.out.println("[ReceiveScreen] input_latency " + json);
+        if (latencyLogPath == null) {
+            return;
+        }
+        try {
+            Files.write(Paths.get(latencyLogPath), (json + System.lineSeparator()).getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.err.println("[ReceiveScreen] Không ghi được " + latencyLogPath + ": " + e.getMessage());
+        }
+    }
+
+    // Nguồn mới có thể khác kích thước: cấp lại framebuffer, full frame ngay sau sẽ vẽ kín nó
+    private void switchStream(ScreenMessageQueue.ScreenMessage message) {
+        ScreenMessageQueue.StreamInfo active = message.streams.get(message.activeStream);
+        BufferedImage image = currentImage;
+        if (image == null || image.getWidth() != active.width || image.getHeight() != active.height) {
+            currentImage = new BufferedImage(active.width, active.height, BufferedImage.TYPE_INT_RGB);
+        }
+        SwingUtilities.invokeLater(() -> rebuildStreamMenu(message.streams, message.activeStream));
+    }
+
+    private void rebuildStreamMenu(List<ScreenMessageQueue.StreamInfo> streams, int activeStream) {
+        streamMenu.removeAll();
+        ButtonGroup group = new ButtonGroup();
+        int display = 0;
+        for (int i = 0; i < streams.size(); i++) {
+            ScreenMessageQueue.StreamInfo stream = streams.get(i);
+            String size = " (" + stream.width + "x" + stream.height + ")";
+            String label = stream.kind == ScreenProtocol.STREAM_REGION
+                    ? "Vùng chọn" + size
+                    : "Màn hình " + (++display) + size;
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(label, i == activeStream);
+            int id = i;
+            item.addActionListener(e -> {
+                if (controlEvent != null) {
+                    controlEvent.selectStream(id);
+                }
+            });
+            group.add(item);
+            streamMenu.add(item);
         }
+        streamMenu.setVisible(streams.size() > 1);
     }
-}
\ No newline at end of file
+}
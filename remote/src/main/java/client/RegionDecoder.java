@@ -0,0 +1,103 @@
+package client;
+
+import common.ImagePixels;
+import common.ScreenProtocol;
+import common.codec.Codecs;
+import common.codec.FrameCodec;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.List;
+
+/*
+ * Áp 1 thông điệp màn hình (full hoặc delta) lên framebuffer của viewer: giải mã từng vùng
+ * theo codec, chép vùng (cuộn), dán/lưu khối cache. Tách khỏi ReceiveScreen để đo được không cần Swing.
+ * Chỉ thread giải mã dùng.
+ */
+class RegionDecoder {
+    private final FrameCodec[] codecs = Codecs.createAll();
+    private final CachedBlocks cachedBlocks;
+
+    RegionDecoder(int cacheBlocks) {
+        this.cachedBlocks = new CachedBlocks(cacheBlocks);
+    }
+
+    int getCacheCapacity() {
+        return cachedBlocks.getCapacity();
+    }
+
+    // Full frame và delta cùng định dạng: danh sách vùng, mỗi vùng mang id codec riêng (hoặc lệnh chép);
+    // image null (đã mất kết nối) thì bỏ qua. Các vùng đã đổi được thêm vào dirty
+    void apply(ScreenMessageQueue.ScreenMessage message, BufferedImage image, List<Rectangle> dirty)
+            throws IOException {
+        if (image == null) {
+            return;
+        }
+        for (ScreenMessageQueue.Region region : message.regions) {
+            if (region.codec == ScreenProtocol.REGION_COPY) {
+                copyRegion(region, image, dirty);
+                continue;
+            }
+            if (region.codec == ScreenProtocol.REGION_CACHE_HIT || region.codec == ScreenProtocol.REGION_CACHE_STORE) {
+                cacheRegion(region, image, dirty);
+                continue;
+            }
+            FrameCodec codec = region.codec >= 0 && region.codec < codecs.length ? codecs[region.codec] : null;
+            if (codec == null) {
+                throw new IOException("Unsupported screen codec: " + region.codec);
+            }
+            Rectangle rect = region.rect;
+            if (rect.isEmpty() || !new Rectangle(image.getWidth(), image.getHeight()).contains(rect)) {
+                throw new IOException("Screen region out of bounds: " + rect);
+            }
+            codec.decode(region.data, region.data.length, image, rect);
+            dirty.add(rect);
+        }
+    }
+
+    // Cuộn/di chuyển: chép pixel đã có thay vì giải mã lại
+    private void copyRegion(ScreenMessageQueue.Region region, BufferedImage image, List<Rectangle> dirty)
+            throws IOException {
+        int[] args = readArgs(region, 2);
+        int dx = args[0];
+        int dy = args[1];
+        Rectangle rect = region.rect;
+        Rectangle source = new Rectangle(rect.x - dx, rect.y - dy, rect.width, rect.height);
+        Rectangle screen = new Rectangle(image.getWidth(), image.getHeight());
+        if (rect.isEmpty() || !screen.contains(rect) || !screen.contains(source)) {
+            throw new IOException("Copy region out of bounds: " + rect + " from " + source);
+        }
+        ImagePixels.copyArea(image, rect, dx, dy);
+        dirty.add(rect);
+    }
+
+    // HIT dán khối đã lưu; STORE lưu khối vừa vẽ xong (không làm đổi ảnh)
+    private void cacheRegion(ScreenMessageQueue.Region region, BufferedImage image, List<Rectangle> dirty)
+            throws IOException {
+        int slot = readArgs(region, 1)[0];
+        Rectangle rect = region.rect;
+        if (!new Rectangle(image.getWidth(), image.getHeight()).contains(rect)) {
+            throw new IOException("Cache region out of bounds: " + rect);
+        }
+        if (region.codec == ScreenProtocol.REGION_CACHE_HIT) {
+            cachedBlocks.paste(slot, image, rect);
+            dirty.add(rect);
+        } else {
+            cachedBlocks.store(slot, image, rect);
+        }
+    }
+
+    private static int[] readArgs(ScreenMessageQueue.Region region, int count) throws IOException {
+        if (region.data.length != count * 4) {
+            throw new IOException("Invalid region data length: " + region.data.length);
+        }
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(region.data));
+        int[] args = new int[count];
+        for (int i = 0; i < count; i++) {
+            args[i] = data.readInt();
+        }
+        return args;
+    }
+}
@@ -0,0 +1,247 @@
+package client;
+
+import common.ScreenProtocol;
+import common.codec.Codecs;
+import java.awt.Rectangle;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/*
+ * Hàng đợi giữa thread đọc socket và thread giải mã của ReceiveScreen.
+ * Full frame phủ toàn màn hình nên khi nó tới, mọi thông điệp chưa giải mã trước nó bị bỏ,
+ * trừ thông điệp có lệnh lưu cache khối (bỏ sẽ làm cache lệch với sharer) và MSG_STREAM.
+ * Vượt MAX_QUEUED_BYTES thì thread đọc dừng lại (TCP tự giảm tốc bên gửi).
+ * MSG_CURSOR và MSG_CONTROL không vào hàng đợi: thread đọc áp dụng ngay.
+ */
+class ScreenMessageQueue {
+    private static final int MAX_QUEUED_BYTES = 16 * 1024 * 1024;
+
+    private final ArrayDeque<ScreenMessage> pending = new ArrayDeque<>();
+    private int queuedBytes = 0;
+    private boolean closed = false;
+
+    private long receivedFrames = 0;
+    private long droppedFrames = 0;
+
+    synchronized void offer(ScreenMessage message) throws InterruptedException {
+        while (queuedBytes > MAX_QUEUED_BYTES && !closed) {
+            wait();
+        }
+        receivedFrames++;
+        if (message.type == ScreenProtocol.MSG_FULL && !pending.isEmpty()) {
+            Iterator<ScreenMessage> it = pending.iterator();
+            while (it.hasNext()) {
+                ScreenMessage old = it.next();
+                if (!old.mustKeep()) {
+                    it.remove();
+                    queuedBytes -= old.bytes;
+                    droppedFrames++;
+                }
+            }
+        }
+        pending.add(message);
+        queuedBytes += message.bytes;
+        notifyAll();
+    }
+
+    // Lấy hết thông điệp đang chờ (chặn nếu rỗng); rỗng = đã đóng
+    synchronized List<ScreenMessage> drain() throws InterruptedException {
+        while (pending.isEmpty() && !closed) {
+            wait();
+        }
+        List<ScreenMessage> batch = new ArrayList<>(pending);
+        pending.clear();
+        queuedBytes = 0;
+        notifyAll();
+        return batch;
+    }
+
+    synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    synchronized int getDepth() {
+        return pending.size();
+    }
+
+    synchronized long getReceivedFrames() {
+        return receivedFrames;
+    }
+
+    synchronized long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    static class ScreenMessage {
+        final byte type;
+        final int sequence;
+        final List<Region> regions;
+        final int bytes;
+        final boolean storesCache;
+        // Chỉ dùng với MSG_CURSOR
+        final int cursorX;
+        final int cursorY;
+        final byte cursorShape;
+        // Chỉ dùng với MSG_STREAM
+        final int activeStream;
+        final List<StreamInfo> streams;
+        // Chỉ dùng với MSG_CONTROL
+        final int controlVersion;
+        // MSG_FULL/MSG_DELTA khi viewer báo CAP_INPUT_ECHO: seq sự kiện control đã áp trước khi chụp (0 = chưa có)
+        final int inputSequence;
+
+        private ScreenMessage(byte type, int sequence, List<Region> regions, int bytes, int inputSequence) {
+            this(type, sequence, regions, bytes, 0, 0, ScreenProtocol.CURSOR_HIDDEN, -1,
+                    Collections.<StreamInfo>emptyList(), 0, inputSequence);
+        }
+
+        private ScreenMessage(byte type, int sequence, int activeStream, List<StreamInfo> streams) {
+            this(type, sequence, Collections.<Region>emptyList(), 0, 0, 0, ScreenProtocol.CURSOR_HIDDEN,
+                    activeStream, streams);
+        }
+
+        private ScreenMessage(byte type, int sequence, List<Region> regions, int bytes,
+                int cursorX, int cursorY, byte cursorShape) {
+            this(type, sequence, regions, bytes, cursorX, cursorY, cursorShape, -1,
+                    Collections.<StreamInfo>emptyList());
+        }
+
+        private ScreenMessage(byte type, int sequence, List<Region> regions, int bytes,
+                int cursorX, int cursorY, byte cursorShape, int activeStream, List<StreamInfo> streams) {
+            this(type, sequence, regions, bytes, cursorX, cursorY, cursorShape, activeStream, streams, 0, 0);
+        }
+
+        private ScreenMessage(byte type, int sequence, List<Region> regions, int bytes, int cursorX, int cursorY,
+                byte cursorShape, int activeStream, List<StreamInfo> streams, int controlVersion, int inputSequence) {
+            this.type = type;
+            this.sequence = sequence;
+            this.regions = regions;
+            this.bytes = bytes;
+            boolean stores = false;
+            for (Region region : regions) {
+                stores |= region.codec == ScreenProtocol.REGION_CACHE_STORE;
+            }
+            this.storesCache = stores;
+            this.cursorX = cursorX;
+            this.cursorY = cursorY;
+            this.cursorShape = cursorShape;
+            this.activeStream = activeStream;
+            this.streams = streams;
+            this.controlVersion = controlVersion;
+            this.inputSequence = inputSequence;
+        }
+
+        // Full frame tới sau không thay được thông điệp này
+        boolean mustKeep() {
+            return storesCache || type == ScreenProtocol.MSG_STREAM;
+        }
+
+        static ScreenMessage read(DataInputStream in) throws IOException {
+            return read(in, false);
+        }
+
+        // inputEcho: viewer đã báo CAP_INPUT_ECHO nên header frame có thêm [int input]
+        static ScreenMessage read(DataInputStream in, boolean inputEcho) throws IOException {
+            byte type = in.readByte();
+            int sequence = in.readInt();
+            if (type == ScreenProtocol.MSG_CURSOR) {
+                int x = in.readInt();
+                int y = in.readInt();
+                byte shape = in.readByte();
+                return new ScreenMessage(type, sequence, Collections.<Region>emptyList(), 0, x, y, shape);
+            }
+            if (type == ScreenProtocol.MSG_STREAM) {
+                int active = in.readInt();
+                int count = in.readUnsignedByte();
+                if (active < 0 || active >= count) {
+                    throw new IOException("Invalid active stream: " + active);
+                }
+                List<StreamInfo> streams = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    byte kind = in.readByte();
+                    int width = in.readInt();
+                    int height = in.readInt();
+                    if (width <= 0 || height <= 0) {
+                        throw new IOException("Invalid stream size: " + width + "x" + height);
+                    }
+                    streams.add(new StreamInfo(kind, width, height));
+                }
+                return new ScreenMessage(type, sequence, active, streams);
+            }
+            if (type == ScreenProtocol.MSG_CONTROL) {
+                int version = in.readUnsignedByte();
+                return new ScreenMessage(type, sequence, Collections.<Region>emptyList(), 0, 0, 0,
+                        ScreenProtocol.CURSOR_HIDDEN, -1, Collections.<StreamInfo>emptyList(), version, 0);
+            }
+            if (type != ScreenProtocol.MSG_FULL && type != ScreenProtocol.MSG_DELTA) {
+                throw new IOException("Unknown screen message type: " + type);
+            }
+            int input = inputEcho ? in.readInt() : 0;
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("Invalid region count: " + count);
+            }
+            List<Region> regions = new ArrayList<>(count);
+            int bytes = 0;
+            for (int i = 0; i < count; i++) {
+                Rectangle rect = new Rectangle(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+                byte codec = in.readByte();
+                int length = in.readInt();
+                if (length < 0) {
+                    throw new IOException("Invalid region length: " + length);
+                }
+                byte[] data = new byte[length];
+                in.readFully(data);
+                regions.add(new Region(rect, codec, data));
+                bytes += length;
+            }
+            return new ScreenMessage(type, sequence, regions, bytes, input);
+        }
+
+        // Sharer cũ (không trả lời hello): [boolean full][int sequence] rồi 1 ảnh JPEG, full phủ width x height
+        static ScreenMessage readLegacy(DataInputStream in, int width, int height) throws IOException {
+            boolean full = in.readBoolean();
+            int sequence = in.readInt();
+            Rectangle rect = full ? new Rectangle(width, height)
+                    : new Rectangle(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+            int length = in.readInt();
+            if (length < 0) {
+                throw new IOException("Invalid frame length: " + length);
+            }
+            byte[] data = new byte[length];
+            in.readFully(data);
+            return new ScreenMessage(full ? ScreenProtocol.MSG_FULL : ScreenProtocol.MSG_DELTA, sequence,
+                    Collections.singletonList(new Region(rect, Codecs.JPEG, data)), length, 0);
+        }
+    }
+
+    static class StreamInfo {
+        final byte kind;
+        final int width;
+        final int height;
+
+        StreamInfo(byte kind, int width, int height) {
+            this.kind = kind;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    static class Region {
+        final Rectangle rect;
+        final byte codec;
+        final byte[] data;
+
+        Region(Rectangle rect, byte codec, byte[] data) {
+            this.rect = rect;
+            this.codec = codec;
+            this.data = data;
+        }
+    }
+}
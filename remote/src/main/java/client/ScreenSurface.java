@@ -0,0 +1,126 @@
+package client;
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Bản sao đã scale theo kích thước panel của framebuffer màn hình từ xa.
+ * Thread giải mã scale lại đúng các vùng vừa đổi (update); EDT chỉ blit 1:1 (paint).
+ * Ảnh scale là compatible image, Java2D tự giữ bản tăng tốc phần cứng khi ảnh không đổi.
+ */
+class ScreenSurface {
+    private final Object lock = new Object();
+    private BufferedImage scaled;
+
+    private long paintCount = 0;
+    private long paintTotalNanos = 0;
+    private long paintMaxNanos = 0;
+    private long lastSnapshot = System.nanoTime();
+
+    // Trả về các vùng (tọa độ panel) cần repaint
+    List<Rectangle> update(BufferedImage frame, List<Rectangle> dirty, int panelWidth, int panelHeight) {
+        List<Rectangle> result = new ArrayList<>(dirty.size());
+        if (panelWidth <= 0 || panelHeight <= 0) {
+            return result;
+        }
+        synchronized (lock) {
+            if (scaled == null || scaled.getWidth() != panelWidth || scaled.getHeight() != panelHeight) {
+                rebuild(frame, panelWidth, panelHeight);
+                result.add(new Rectangle(panelWidth, panelHeight));
+                return result;
+            }
+            double sx = (double) panelWidth / frame.getWidth();
+            double sy = (double) panelHeight / frame.getHeight();
+            AffineTransform scale = AffineTransform.getScaleInstance(sx, sy);
+            Graphics2D g = createGraphics();
+            try {
+                for (Rectangle r : dirty) {
+                    // Nới 1px để nội suy song tuyến ở mép vùng cũng được cập nhật
+                    int x1 = Math.max(0, (int) Math.floor(r.x * sx) - 1);
+                    int y1 = Math.max(0, (int) Math.floor(r.y * sy) - 1);
+                    int x2 = Math.min(panelWidth, (int) Math.ceil((r.x + r.width) * sx) + 1);
+                    int y2 = Math.min(panelHeight, (int) Math.ceil((r.y + r.height) * sy) + 1);
+                    Rectangle target = new Rectangle(x1, y1, x2 - x1, y2 - y1);
+                    // Clip đặt theo tọa độ panel (trước khi áp transform scale)
+                    g.setTransform(new AffineTransform());
+                    g.setClip(target);
+                    g.setTransform(scale);
+                    g.drawImage(frame, 0, 0, null);
+                    result.add(target);
+                }
+            } finally {
+                g.dispose();
+            }
+        }
+        return result;
+    }
+
+    // EDT: blit ảnh đã scale; false nếu chưa có (hoặc đang đổi kích thước → dựng lại ngay tại đây)
+    boolean paint(Graphics g, BufferedImage frame, int panelWidth, int panelHeight) {
+        long start = System.nanoTime();
+        synchronized (lock) {
+            if (frame == null || panelWidth <= 0 || panelHeight <= 0) {
+                return false;
+            }
+            if (scaled == null || scaled.getWidth() != panelWidth || scaled.getHeight() != panelHeight) {
+                rebuild(frame, panelWidth, panelHeight);
+            }
+            g.drawImage(scaled, 0, 0, null);
+        }
+        long elapsed = System.nanoTime() - start;
+        synchronized (this) {
+            paintCount++;
+            paintTotalNanos += elapsed;
+            paintMaxNanos = Math.max(paintMaxNanos, elapsed);
+        }
+        return true;
+    }
+
+    synchronized String snapshotAndReset() {
+        long now = System.nanoTime();
+        double seconds = (now - lastSnapshot) / 1e9;
+        String result = String.format("paint=%.2f/%.2fms fps=%.1f",
+                paintCount == 0 ? 0 : paintTotalNanos / (paintCount * 1e6), paintMaxNanos / 1e6,
+                seconds > 0 ? paintCount / seconds : 0);
+        paintCount = 0;
+        paintTotalNanos = 0;
+        paintMaxNanos = 0;
+        lastSnapshot = now;
+        return result;
+    }
+
+    // Gọi khi đang giữ lock
+    private void rebuild(BufferedImage frame, int panelWidth, int panelHeight) {
+        if (scaled == null || scaled.getWidth() != panelWidth || scaled.getHeight() != panelHeight) {
+            scaled = createCompatible(panelWidth, panelHeight);
+        }
+        Graphics2D g = createGraphics();
+        g.scale((double) panelWidth / frame.getWidth(), (double) panelHeight / frame.getHeight());
+        g.drawImage(frame, 0, 0, null);
+        g.dispose();
+    }
+
+    private Graphics2D createGraphics() {
+        Graphics2D g = scaled.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        return g;
+    }
+
+    private static BufferedImage createCompatible(int width, int height) {
+        if (GraphicsEnvironment.isHeadless()) {
+            return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+        GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                .getDefaultScreenDevice().getDefaultConfiguration();
+        return gc.createCompatibleImage(width, height, Transparency.OPAQUE);
+    }
+}
@@ -0,0 +1,48 @@
+package common;
+
+// Lệnh trên kênh control; abbrev là mã lệnh ở cả định dạng chữ (CSV) và nhị phân (ControlProtocol)
+public enum Commands {
+    PRESS_MOUSE(-1),
+    RELEASE_MOUSE(-2),
+    PRESS_KEY(-3),
+    RELEASE_KEY(-4),
+    MOVE_MOUSE(-5, true),
+    QUANTITY(-6),
+    MOUSE_WHEEL_MOVED(-7),
+    MOUSE_DRAGGED(-8, true);
+
+    // Tra theo -abbrev, không cấp phát khi giải mã
+    private static final Commands[] BY_ABBREV = new Commands[9];
+
+    static {
+        for (Commands command : values()) {
+            BY_ABBREV[-command.abbrev] = command;
+        }
+    }
+
+    private int abbrev;
+    // Có kèm tọa độ (tỉ lệ x, y theo màn hình chia sẻ)
+    private final boolean pointer;
+
+    Commands(int abbrev) {
+        this(abbrev, false);
+    }
+
+    Commands(int abbrev, boolean pointer) {
+        this.abbrev = abbrev;
+        this.pointer = pointer;
+    }
+
+    public int getAbbrev() {
+        return this.abbrev;
+    }
+
+    public boolean hasPointer() {
+        return pointer;
+    }
+
+    // null nếu không phải lệnh đã biết
+    public static Commands fromAbbrev(int abbrev) {
+        return abbrev < 0 && -abbrev < BY_ABBREV.length ? BY_ABBREV[-abbrev] : null;
+    }
+}
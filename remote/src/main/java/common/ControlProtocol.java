@@ -0,0 +1,279 @@
+package common;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/*
+ * Kênh control: relay chèn lệnh dạng writeUTF (START_SESSION, RESTART_SHARESCREEN), viewer gửi sự kiện chuột/phím.
+ * - Version 0 (viewer cũ): sự kiện là chuỗi CSV qua writeUTF, vd. "-5,0,0.4321,0.1234"
+ * - Version 1: sự kiện nhị phân [MARKER][byte mã lệnh Commands][varint zigzag tham số]
+ *   rồi, với lệnh có tọa độ, [ushort x][ushort y] là tỉ lệ [0, 1] theo COORD_SCALE.
+ *   Byte đầu của writeUTF là byte cao của độ dài, không bao giờ là 0xFF với các lệnh chữ ngắn,
+ *   nên 2 dạng đi chung 1 luồng được.
+ * - Version 2: sự kiện nhị phân gom thành frame [BATCH][ushort length][các sự kiện version 1],
+ *   1 lần ghi + flush cho mỗi frame; sharer áp các sự kiện trong frame theo đúng thứ tự.
+ * - Version 3: thêm frame BATCH_SEQ [BATCH_SEQ][ushort length][int seq sự kiện đầu][các sự kiện], các sự kiện
+ *   sau đánh số liên tiếp. Sharer gửi lại seq của sự kiện đã áp gần nhất trong header frame màn hình
+ *   (CAP_INPUT_ECHO) để viewer đo độ trễ thao tác → hình; thời điểm gửi chỉ viewer giữ (đồng hồ 2 máy khác nhau).
+ * - Version 4: sự kiện có độ dài [SIZED][byte mã lệnh][ubyte n][n byte: varint zigzag tham số, tọa độ nếu có...],
+ *   dùng cả trong frame BATCH/BATCH_SEQ. Mã lệnh lạ (viewer mới hơn) được bỏ qua đúng n byte và báo
+ *   "Unknown command" như dạng chữ, không làm đứt luồng; mã lệnh đã biết có thêm trường mới cũng bỏ qua phần thừa.
+ *   Sự kiện version 1 có mã lệnh lạ trong frame thì bỏ phần còn lại của frame (độ dài frame đã biết).
+ * Chuỗi writeUTF dài hơn MAX_TEXT_BYTES có byte đầu trùng SIZED/BATCH_SEQ/BATCH/MARKER nên không được gửi.
+ * Viewer báo version qua CAP_CONTROL trong hello kênh screen; sharer trả MSG_CONTROL với version chung,
+ * viewer chỉ gửi nhị phân sau khi nhận được. Sharer luôn đọc được cả 2 dạng.
+ */
+public final class ControlProtocol {
+    public static final int VERSION = 4;
+    public static final int MARKER = 0xFF;
+    // Byte đầu của writeUTF cũng không bao giờ là 0xFE (độ dài >= 65024)
+    public static final int BATCH = 0xFE;
+    public static final int BATCH_HEADER_BYTES = 3;
+    public static final int BATCH_SEQ = 0xFD;
+    public static final int BATCH_SEQ_HEADER_BYTES = 7;
+    public static final int SIZED = 0xFC;
+    public static final int MAX_TEXT_BYTES = (SIZED << 8) - 1;
+    public static final int MAX_BATCH_BYTES = 0xFFFF;
+    public static final int COORD_SCALE = 0xFFFF;
+    // Marker + mã lệnh + độ dài (version 4) + varint 5 byte + 2 tọa độ
+    public static final int MAX_EVENT_BYTES = 3 + 5 + 4;
+
+    private ControlProtocol() {
+    }
+
+    // Sự kiện đã giải mã; dùng lại 1 đối tượng cho mọi sự kiện của 1 luồng
+    public static class Event {
+        public Commands command;
+        public int arg;
+        public double x;
+        public double y;
+    }
+
+    // Đọc frame BATCH/BATCH_SEQ vào bộ đệm dùng lại rồi trả từng sự kiện; chỉ 1 thread dùng
+    public static class BatchReader {
+        private final Payload payload = new Payload();
+        private final DataInputStream in = new DataInputStream(payload);
+        // Seq của sự kiện vừa trả về từ next(), 0 nếu frame không đánh số
+        private int sequence;
+        private boolean numbered;
+
+        // Gọi sau khi đã đọc byte đầu (BATCH hoặc BATCH_SEQ)
+        public void read(DataInputStream source, int type) throws IOException {
+            int length = source.readUnsignedShort();
+            numbered = type == BATCH_SEQ;
+            sequence = numbered ? source.readInt() - 1 : 0;
+            source.readFully(payload.data(), 0, length);
+            payload.rewind(length);
+        }
+
+        public boolean next(Event event) throws IOException {
+            if (payload.available() == 0) {
+                return false;
+            }
+            int marker = in.readUnsignedByte();
+            if (marker == SIZED) {
+                readSizedEvent(in, event);
+            } else if (marker != MARKER || !decode(in, event)) {
+                // Không biết độ dài sự kiện: bỏ phần còn lại của frame, báo như mã lệnh lạ
+                event.command = null;
+                event.arg = marker != MARKER ? marker : event.arg;
+                payload.skip(payload.available());
+            }
+            if (numbered) {
+                sequence++;
+            }
+            return true;
+        }
+
+        public int getSequence() {
+            return sequence;
+        }
+    }
+
+    private static class Payload extends ByteArrayInputStream {
+        Payload() {
+            super(new byte[MAX_BATCH_BYTES]);
+        }
+
+        byte[] data() {
+            return buf;
+        }
+
+        void rewind(int length) {
+            pos = 0;
+            count = length;
+        }
+    }
+
+    // Trả về số byte đã ghi vào buffer (ít nhất MAX_EVENT_BYTES); dạng version 1
+    public static int writeEvent(byte[] buffer, Commands command, int arg) {
+        return writeEvent(buffer, command, arg, false);
+    }
+
+    // sized = dạng version 4 (có độ dài)
+    public static int writeEvent(byte[] buffer, Commands command, int arg, boolean sized) {
+        buffer[0] = (byte) (sized ? SIZED : MARKER);
+        buffer[1] = (byte) command.getAbbrev();
+        int n = writeVarInt(buffer, sized ? 3 : 2, (arg << 1) ^ (arg >> 31));
+        if (sized) {
+            buffer[2] = (byte) (n - 3);
+        }
+        return n;
+    }
+
+    public static int writePointer(byte[] buffer, Commands command, int arg, double x, double y) {
+        return writePointer(buffer, command, arg, x, y, false);
+    }
+
+    public static int writePointer(byte[] buffer, Commands command, int arg, double x, double y, boolean sized) {
+        int n = writeEvent(buffer, command, arg, sized);
+        n = writeCoordinate(buffer, n, x);
+        n = writeCoordinate(buffer, n, y);
+        if (sized) {
+            buffer[2] = (byte) (n - 3);
+        }
+        return n;
+    }
+
+    // Dạng chữ của version 0, giữ đúng như viewer cũ gửi
+    public static String textEvent(Commands command, int arg) {
+        return command.getAbbrev() + "," + arg;
+    }
+
+    public static String textPointer(Commands command, int arg, double x, double y) {
+        return command.getAbbrev() + "," + arg + "," + x + "," + y;
+    }
+
+    // Đọc phần sau MARKER; mã lệnh lạ thì không biết độ dài nên không đọc tiếp được luồng
+    public static void readEvent(DataInputStream in, Event event) throws IOException {
+        if (!decode(in, event)) {
+            throw new IOException("Unknown control opcode: " + event.arg);
+        }
+    }
+
+    // Đọc phần sau SIZED; mã lệnh lạ → command = null, arg = mã lệnh (như parseText), luồng vẫn đọc tiếp được
+    public static void readSizedEvent(DataInputStream in, Event event) throws IOException {
+        int abbrev = in.readByte();
+        int length = in.readUnsignedByte();
+        Commands command = Commands.fromAbbrev(abbrev);
+        if (command == null) {
+            event.command = null;
+            event.arg = abbrev;
+            skipFully(in, length);
+            return;
+        }
+        int raw = readVarInt(in);
+        int used = varIntLength(raw);
+        event.command = command;
+        event.arg = (raw >>> 1) ^ -(raw & 1);
+        if (command.hasPointer()) {
+            event.x = in.readUnsignedShort() / (double) COORD_SCALE;
+            event.y = in.readUnsignedShort() / (double) COORD_SCALE;
+            used += 4;
+        }
+        if (used > length) {
+            throw new IOException("Malformed control event: " + abbrev);
+        }
+        skipFully(in, length - used);
+    }
+
+    // Phần sau MARKER; false nếu mã lệnh lạ (event.arg = mã lệnh, phần sau mã lệnh chưa đọc)
+    private static boolean decode(DataInputStream in, Event event) throws IOException {
+        int abbrev = in.readByte();
+        Commands command = Commands.fromAbbrev(abbrev);
+        if (command == null) {
+            event.command = null;
+            event.arg = abbrev;
+            return false;
+        }
+        int raw = readVarInt(in);
+        event.command = command;
+        event.arg = (raw >>> 1) ^ -(raw & 1);
+        if (command.hasPointer()) {
+            event.x = in.readUnsignedShort() / (double) COORD_SCALE;
+            event.y = in.readUnsignedShort() / (double) COORD_SCALE;
+        }
+        return true;
+    }
+
+    // Dạng chữ; false nếu thiếu phần, NumberFormatException nếu không phải số
+    public static boolean parseText(String data, Event event) {
+        String[] parts = data.split(",");
+        event.command = Commands.fromAbbrev(Integer.parseInt(parts[0]));
+        if (event.command == null) {
+            event.arg = Integer.parseInt(parts[0]);
+            return true;
+        }
+        if (parts.length < 2) {
+            return false;
+        }
+        event.arg = Integer.parseInt(parts[1]);
+        if (event.command.hasPointer()) {
+            if (parts.length < 4) {
+                return false;
+            }
+            event.x = Double.parseDouble(parts[2]);
+            event.y = Double.parseDouble(parts[3]);
+        }
+        return true;
+    }
+
+    // Phần còn lại của 1 chuỗi writeUTF khi byte đầu (byte cao của độ dài) đã bị đọc để phân biệt với MARKER
+    public static String readUTF(DataInputStream in, int firstByte) throws IOException {
+        int length = firstByte << 8 | in.readUnsignedByte();
+        byte[] data = new byte[2 + length];
+        data[0] = (byte) firstByte;
+        data[1] = (byte) length;
+        in.readFully(data, 2, length);
+        return new DataInputStream(new ByteArrayInputStream(data)).readUTF();
+    }
+
+    private static int writeVarInt(byte[] buffer, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset++] = (byte) value;
+        return offset;
+    }
+
+    private static int varIntLength(int value) {
+        int n = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            n++;
+        }
+        return n;
+    }
+
+    private static void skipFully(DataInputStream in, int length) throws IOException {
+        while (length > 0) {
+            int skipped = in.skipBytes(length);
+            if (skipped == 0) {
+                in.readByte();
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed control varint");
+    }
+
+    private static int writeCoordinate(byte[] buffer, int offset, double ratio) {
+        int fixed = (int) Math.round(Math.max(0, Math.min(1, ratio)) * COORD_SCALE);
+        buffer[offset] = (byte) (fixed >>> 8);
+        buffer[offset + 1] = (byte) fixed;
+        return offset + 2;
+    }
+}
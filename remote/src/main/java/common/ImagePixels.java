@@ -0,0 +1,80 @@
+package common;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/*
+ * Mảng pixel RGB đóng gói (int) của 1 ảnh: pixel (x, y) nằm ở data[offset + y * stride + x].
+ * Ảnh không dùng DataBufferInt được chép sang TYPE_INT_RGB (khi đó ghi vào data không đổi ảnh gốc).
+ */
+public final class ImagePixels {
+    public final int[] data;
+    public final int offset;
+    public final int stride;
+    public final boolean direct;
+
+    private ImagePixels(int[] data, int offset, int stride, boolean direct) {
+        this.data = data;
+        this.offset = offset;
+        this.stride = stride;
+        this.direct = direct;
+    }
+
+    public static ImagePixels of(BufferedImage image) {
+        Raster raster = image.getRaster();
+        if (raster.getDataBuffer() instanceof DataBufferInt
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel
+                && raster.getNumDataElements() == 1) {
+            DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+            SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            int stride = model.getScanlineStride();
+            // Ảnh con (getSubimage) có gốc lệch so với DataBuffer
+            int offset = buffer.getOffset()
+                    - raster.getSampleModelTranslateY() * stride
+                    - raster.getSampleModelTranslateX();
+            return new ImagePixels(buffer.getData(), offset, stride, true);
+        }
+
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = copy.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return new ImagePixels(((DataBufferInt) copy.getRaster().getDataBuffer()).getData(), 0, image.getWidth(),
+                false);
+    }
+
+    // Ghi vùng pixel (mảng liền, mỗi dòng region.width phần tử) vào ảnh đích
+    public static void write(BufferedImage target, Rectangle region, int[] pixels) {
+        ImagePixels dst = of(target);
+        if (!dst.direct) {
+            target.setRGB(region.x, region.y, region.width, region.height, pixels, 0, region.width);
+            return;
+        }
+        for (int row = 0; row < region.height; row++) {
+            System.arraycopy(pixels, row * region.width,
+                    dst.data, dst.offset + (region.y + row) * dst.stride + region.x, region.width);
+        }
+    }
+
+    // Chép vùng dst từ vị trí (dst.x - dx, dst.y - dy) trong cùng ảnh; hai vùng được phép chồng nhau
+    public static void copyArea(BufferedImage image, Rectangle dst, int dx, int dy) {
+        ImagePixels pixels = of(image);
+        if (!pixels.direct) {
+            Graphics2D g = image.createGraphics();
+            g.copyArea(dst.x - dx, dst.y - dy, dst.width, dst.height, dx, dy);
+            g.dispose();
+            return;
+        }
+        // Dịch xuống dưới thì chép từ dòng cuối lên để không đè dòng nguồn chưa chép
+        for (int i = 0; i < dst.height; i++) {
+            int row = dy > 0 ? dst.height - 1 - i : i;
+            int y = dst.y + row;
+            System.arraycopy(pixels.data, pixels.offset + (y - dy) * pixels.stride + dst.x - dx,
+                    pixels.data, pixels.offset + y * pixels.stride + dst.x, dst.width);
+        }
+    }
+}
@@ -0,0 +1,488 @@
+package common;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/*
+ * Một kết nối TCP mang nhiều kênh (control, chat, screen).
+ * Frame: [byte channel][byte flags][int length][payload], payload tối đa MAX_PAYLOAD byte.
+ * Kênh có id nhỏ hơn được ưu tiên gửi trước, nên control không phải chờ sau cả frame JPEG.
+ * Mỗi kênh có cửa sổ nhận RECEIVE_WINDOW byte: bên nhận báo số byte ứng dụng đã đọc qua kênh CHANNEL_WINDOW,
+ * bên gửi không gửi quá cửa sổ. Nhờ vậy luồng đọc chung không bao giờ phải chờ 1 kênh đọc chậm
+ * (viewer giải mã screen chậm không làm kẹt control/chat phía sau).
+ */
+public class MuxConnection {
+
+    public static final byte CHANNEL_CONTROL = 1;
+    public static final byte CHANNEL_CHAT = 2;
+    public static final byte CHANNEL_SCREEN = 3;
+    private static final int CHANNEL_COUNT = 8;
+    // Kênh riêng của MuxConnection: payload [byte channel][int bytes] cấp thêm cửa sổ gửi cho kênh đó.
+    // FLAG_SYNC = bên nhận mới (kết nối đầu hoặc viewer kết nối lại): cửa sổ tính lại từ đầu
+    public static final byte CHANNEL_WINDOW = 0;
+
+    public static final int HEADER_SIZE = 6;
+    public static final int MAX_PAYLOAD = 16 * 1024;
+    public static final byte FLAG_END = 0x01;
+    // Thông điệp bắt đầu trạng thái mới (full frame): relay được bỏ các thông điệp DROPPABLE trước nó
+    public static final byte FLAG_SYNC = 0x02;
+    // Thông điệp có thể bỏ qua nếu đã có SYNC mới hơn (delta, full frame cũ)
+    public static final byte FLAG_DROPPABLE = 0x04;
+
+    private static final int RECEIVE_WINDOW = 8 * 1024 * 1024;
+    // Gom byte đã đọc tới ngưỡng này rồi mới báo, tránh 1 frame cửa sổ cho mỗi thông điệp nhỏ
+    private static final int WINDOW_UPDATE = RECEIVE_WINDOW / 4;
+    // Bên gửi không theo cửa sổ (bản cũ) mà dữ liệu vượt mức này thì đóng kết nối thay vì giữ mãi trong RAM
+    private static final int INBOUND_LIMIT = 2 * RECEIVE_WINDOW;
+    private static final int OUTBOUND_LIMIT = 1024 * 1024;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final Channel[] channels = new Channel[CHANNEL_COUNT];
+
+    private final Object lock = new Object();
+    private volatile boolean closed = false;
+
+    public MuxConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.socket.setTcpNoDelay(true);
+        this.in = new DataInputStream(socket.getInputStream());
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+        channels[CHANNEL_WINDOW] = new Channel(CHANNEL_WINDOW);
+        for (byte id : new byte[] { CHANNEL_CONTROL, CHANNEL_CHAT, CHANNEL_SCREEN }) {
+            channels[id] = new Channel(id);
+            sendWindow(id, RECEIVE_WINDOW, (byte) (FLAG_END | FLAG_SYNC));
+        }
+
+        Thread reader = new Thread(this::readLoop, "mux-reader");
+        reader.setDaemon(true);
+        reader.start();
+        Thread writer = new Thread(this::writeLoop, "mux-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Socket "ảo" cho 1 kênh, để ChatWindow, ShareScreen, ReceiveEvent... dùng như socket thường
+    public Socket getSocket(byte channel) {
+        return channels[channel].socket;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    // Gắn cờ cho thông điệp đang ghi (tới lần flush() kế tiếp); không có tác dụng với socket thường
+    public static void markMessage(OutputStream out, byte flags) {
+        if (out instanceof ChannelOutputStream) {
+            ((ChannelOutputStream) out).mark(flags);
+        }
+    }
+
+    public void close() {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            lock.notifyAll();
+        }
+        for (Channel channel : channels) {
+            if (channel != null) {
+                channel.input.finish();
+            }
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+        }
+    }
+
+    private void readLoop() {
+        try {
+            while (!closed) {
+                byte id = in.readByte();
+                byte flags = in.readByte();
+                int length = in.readInt();
+                if (id < 0 || id >= CHANNEL_COUNT || length < 0 || length > MAX_PAYLOAD) {
+                    throw new IOException("Invalid mux frame: channel=" + id + ", length=" + length);
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                if (id == CHANNEL_WINDOW) {
+                    grantWindow(payload, flags);
+                    continue;
+                }
+                Channel channel = channels[id];
+                if (channel != null && length > 0 && !channel.input.offer(payload)) {
+                    throw new IOException("Channel " + id + " exceeded its receive window");
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                System.out.println("[MuxConnection] Connection closed: " + e.getMessage());
+            }
+        } finally {
+            close();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                Frame frame = null;
+                boolean more;
+                synchronized (lock) {
+                    while (!closed && (frame = nextFrame()) == null) {
+                        lock.wait();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    more = hasSendableFrame();
+                    lock.notifyAll();
+                }
+
+                out.writeByte(frame.channel);
+                out.writeByte(frame.flags);
+                out.writeInt(frame.length);
+                out.write(frame.data, 0, frame.length);
+                // Chỉ flush khi hàng đợi rỗng → gom nhiều frame nhỏ vào 1 lần ghi
+                if (!more) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                System.out.println("[MuxConnection] Write failed: " + e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+        }
+    }
+
+    // Gọi khi đang giữ lock: lấy frame của kênh ưu tiên cao nhất còn cửa sổ gửi (null nếu không có)
+    private Frame nextFrame() {
+        for (Channel channel : channels) {
+            if (channel != null && channel.canSend()) {
+                Frame frame = channel.outbound.poll();
+                channel.outboundBytes -= frame.length;
+                channel.sent += frame.length;
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    private boolean hasSendableFrame() {
+        for (Channel channel : channels) {
+            if (channel != null && channel.canSend()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Báo bên kia được gửi thêm bytes trên kênh channel; không chặn (kênh cửa sổ không giới hạn hàng đợi)
+    private void sendWindow(byte channel, int bytes, byte flags) {
+        byte[] data = { channel, (byte) (bytes >>> 24), (byte) (bytes >>> 16), (byte) (bytes >>> 8), (byte) bytes };
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            channels[CHANNEL_WINDOW].outbound.add(new Frame(CHANNEL_WINDOW, flags, data, data.length));
+            lock.notifyAll();
+        }
+    }
+
+    private void grantWindow(byte[] payload, byte flags) {
+        if (payload.length != 5 || payload[0] <= CHANNEL_WINDOW || payload[0] >= CHANNEL_COUNT) {
+            return;
+        }
+        Channel channel = channels[payload[0]];
+        int bytes = ((payload[1] & 0xFF) << 24) | ((payload[2] & 0xFF) << 16) | ((payload[3] & 0xFF) << 8)
+                | (payload[4] & 0xFF);
+        if (channel == null || bytes < 0) {
+            return;
+        }
+        synchronized (lock) {
+            // Byte đã gửi cho bên nhận cũ sẽ không được báo lại → tính cửa sổ từ vị trí hiện tại
+            boolean reset = (flags & FLAG_SYNC) != 0 || channel.sendLimit < 0;
+            channel.sendLimit = (reset ? channel.sent : channel.sendLimit) + bytes;
+            lock.notifyAll();
+        }
+    }
+
+    private void enqueue(Channel channel, byte[] data, int length, byte flags) throws IOException {
+        synchronized (lock) {
+            try {
+                while (!closed && channel.outboundBytes > OUTBOUND_LIMIT) {
+                    lock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while sending");
+            }
+            if (closed) {
+                throw new IOException("Connection closed");
+            }
+            channel.outbound.add(new Frame(channel.id, flags, data, length));
+            channel.outboundBytes += length;
+            lock.notifyAll();
+        }
+    }
+
+    private static class Frame {
+        final byte channel;
+        final byte flags;
+        final byte[] data;
+        final int length;
+
+        Frame(byte channel, byte flags, byte[] data, int length) {
+            this.channel = channel;
+            this.flags = flags;
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    private class Channel {
+        final byte id;
+        final ArrayDeque<Frame> outbound = new ArrayDeque<>();
+        int outboundBytes = 0;
+        // Tổng byte payload đã gửi và mức được phép gửi tới; -1 = bên kia chưa báo cửa sổ (bản cũ), không giới hạn
+        long sent = 0;
+        long sendLimit = -1;
+        final ChannelInputStream input = new ChannelInputStream(this);
+        final ChannelOutputStream output = new ChannelOutputStream(this);
+        final ChannelSocket socket = new ChannelSocket(this);
+
+        Channel(byte id) {
+            this.id = id;
+        }
+
+        // Gọi khi đang giữ lock
+        boolean canSend() {
+            Frame head = outbound.peek();
+            return head != null && (sendLimit < 0 || sent + head.length <= sendLimit);
+        }
+    }
+
+    private class ChannelOutputStream extends OutputStream {
+        private final Channel channel;
+        private byte[] buffer = new byte[MAX_PAYLOAD];
+        private int count = 0;
+        private boolean dirty = false;
+        private byte messageFlags = 0;
+
+        ChannelOutputStream(Channel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            if (count == buffer.length) {
+                emit((byte) 0);
+            }
+            buffer[count++] = (byte) b;
+            dirty = true;
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    emit((byte) 0);
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+                dirty = true;
+            }
+        }
+
+        // flush() đánh dấu hết 1 thông điệp của ứng dụng
+        @Override
+        public synchronized void flush() throws IOException {
+            if (dirty) {
+                emit(FLAG_END);
+                dirty = false;
+            }
+            messageFlags = 0;
+        }
+
+        synchronized void mark(byte flags) {
+            messageFlags |= flags;
+        }
+
+        @Override
+        public void close() {
+            MuxConnection.this.close();
+        }
+
+        private void emit(byte flags) throws IOException {
+            byte[] data;
+            if (count == buffer.length) {
+                data = buffer;
+                buffer = new byte[MAX_PAYLOAD];
+            } else {
+                data = Arrays.copyOf(buffer, count);
+            }
+            int length = count;
+            count = 0;
+            enqueue(channel, data, length, (byte) (flags | messageFlags));
+        }
+    }
+
+    private class ChannelInputStream extends InputStream {
+        private final Channel channel;
+        private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+        private int queuedBytes = 0;
+        // Byte ứng dụng đã lấy ra nhưng chưa báo lại cho bên gửi
+        private int consumed = 0;
+        private byte[] current;
+        private int position;
+        private boolean finished = false;
+
+        ChannelInputStream(Channel channel) {
+            this.channel = channel;
+        }
+
+        // Không bao giờ chờ: bên gửi tự dừng khi hết cửa sổ, nên hàng đợi chỉ vượt INBOUND_LIMIT khi bên kia sai giao thức
+        synchronized boolean offer(byte[] chunk) {
+            if (queuedBytes + chunk.length > INBOUND_LIMIT) {
+                return false;
+            }
+            chunks.add(chunk);
+            queuedBytes += chunk.length;
+            notifyAll();
+            return true;
+        }
+
+        synchronized void finish() {
+            finished = true;
+            notifyAll();
+        }
+
+        private boolean fill() throws IOException {
+            while (current == null || position >= current.length) {
+                current = chunks.poll();
+                position = 0;
+                if (current != null) {
+                    queuedBytes -= current.length;
+                    consumed += current.length;
+                    if (consumed >= WINDOW_UPDATE) {
+                        sendWindow(channel.id, consumed, FLAG_END);
+                        consumed = 0;
+                    }
+                    continue;
+                }
+                if (finished) {
+                    return false;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while reading");
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public synchronized int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return current[position++] & 0xFF;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public synchronized int available() {
+            int n = current != null ? current.length - position : 0;
+            return n + queuedBytes;
+        }
+
+        @Override
+        public void close() {
+            MuxConnection.this.close();
+        }
+    }
+
+    // Đóng bất kỳ kênh nào = đóng cả kết nối, giống việc relay server kết thúc cả session
+    private class ChannelSocket extends Socket {
+        private final Channel channel;
+
+        ChannelSocket(Channel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return channel.input;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return channel.output;
+        }
+
+        @Override
+        public synchronized void close() {
+            MuxConnection.this.close();
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public InetAddress getInetAddress() {
+            return socket.getInetAddress();
+        }
+
+        @Override
+        public SocketAddress getRemoteSocketAddress() {
+            return socket.getRemoteSocketAddress();
+        }
+
+        @Override
+        public int getPort() {
+            return socket.getPort();
+        }
+    }
+}
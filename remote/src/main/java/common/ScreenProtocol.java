@@ -0,0 +1,120 @@
+package common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/*
+ * Kênh screen:
+ * 1. Viewer gửi hello: [int HELLO_MAGIC][ubyte n] rồi n lần [ubyte key][int value] (key lạ được bỏ qua)
+ * 2. Viewer báo CAP_REGIONS thì sharer trả lời bằng hello của mình (các cap sẽ dùng); sau đó [int width][int height]
+ * 3. Các thông điệp [byte type][int sequence][int count] rồi count lần
+ *    [int x][int y][int w][int h][byte codec][int length][dữ liệu], áp dụng theo thứ tự.
+ *    MSG_FULL phủ toàn màn hình, MSG_DELTA chỉ các vùng thay đổi.
+ *    Vùng có codec REGION_COPY (khi viewer báo CAP_COPY_RECT) mang [int dx][int dy]: chép vùng
+ *    (x - dx, y - dy, w, h) của ảnh viewer đang có vào (x, y, w, h), dùng khi cuộn/di chuyển nội dung.
+ *    Cache khối (khi viewer báo CAP_TILE_CACHE = số slot): REGION_CACHE_HIT [int slot] dán slot vào vùng,
+ *    REGION_CACHE_STORE [int slot] lưu vùng (sau khi áp các vùng trước nó) vào slot. Vùng luôn là
+ *    khối CACHE_BLOCK_SIZE x CACHE_BLOCK_SIZE. Sharer chọn slot (LRU); thông điệp có STORE không DROPPABLE.
+ *    MSG_CURSOR (khi viewer báo CAP_CURSOR): [byte type][int sequence][int x][int y][byte shape],
+ *    vị trí con trỏ của sharer theo tọa độ màn hình chia sẻ, viewer tự vẽ đè lên ảnh.
+ *    MSG_STREAM (khi viewer báo CAP_STREAMS): [byte type][int sequence][int active][ubyte n] rồi n lần
+ *    [byte kind][int width][int height]: danh sách nguồn chia sẻ (màn hình / vùng) và nguồn đang gửi.
+ *    Các thông điệp sau nó thuộc nguồn active, bắt đầu bằng 1 full frame. Viewer đổi nguồn bằng lệnh
+ *    SELECT_STREAM trên kênh control.
+ *    MSG_CONTROL (khi viewer báo CAP_CONTROL = version ControlProtocol): [byte type][int sequence][ubyte version],
+ *    gửi 1 lần ngay sau width/height: version định dạng sự kiện kênh control mà sharer đọc được (0 = chỉ CSV).
+ *    Khi viewer báo CAP_INPUT_ECHO, header MSG_FULL/MSG_DELTA có thêm [int input] sau sequence: seq sự kiện
+ *    control (ControlProtocol BATCH_SEQ) đã áp trước khi chụp frame này, 0 = chưa có.
+ * Định dạng cũ (trước hello): [int width][int height] rồi [boolean full][int sequence], full: [int length][JPEG],
+ * delta: [int x][int y][int w][int h][int length][JPEG]. Sharer dùng nó khi viewer không báo CAP_REGIONS
+ * (viewer cũ không gửi gì: chờ hello tối đa HELLO_TIMEOUT_MS), mỗi vùng JPEG thành 1 delta cũ.
+ * Viewer nhận int đầu khác HELLO_MAGIC là gặp sharer cũ: int đó là width, phần sau theo định dạng cũ.
+ */
+public final class ScreenProtocol {
+    public static final byte MSG_DELTA = 0;
+    public static final byte MSG_FULL = 1;
+    public static final byte MSG_CURSOR = 2;
+    public static final byte MSG_STREAM = 3;
+    public static final byte MSG_CONTROL = 4;
+
+    public static final byte STREAM_DISPLAY = 0;
+    public static final byte STREAM_REGION = 1;
+    public static final String SELECT_STREAM = "SELECT_STREAM";
+
+    // Không phải codec ảnh (common.codec.Codecs dùng id 0..7)
+    public static final byte REGION_COPY = 0x7F;
+    public static final byte REGION_CACHE_HIT = 0x7E;
+    public static final byte REGION_CACHE_STORE = 0x7D;
+    public static final int CACHE_BLOCK_SIZE = 64;
+
+    public static final byte CURSOR_HIDDEN = 0;
+    public static final byte CURSOR_ARROW = 1;
+
+    public static final int HELLO_MAGIC = 0x52584831; // "RXH1"
+    public static final int HELLO_TIMEOUT_MS = 2000;
+    public static final int CAP_CODECS = 1;
+    // 1 = viewer tự vẽ con trỏ từ MSG_CURSOR
+    public static final int CAP_CURSOR = 2;
+    // 1 = viewer thực hiện được REGION_COPY
+    public static final int CAP_COPY_RECT = 3;
+    // Số slot cache khối viewer giữ được (0 = không dùng cache)
+    public static final int CAP_TILE_CACHE = 4;
+    // 1 = viewer xử lý được MSG_STREAM (đổi màn hình/vùng giữa phiên)
+    public static final int CAP_STREAMS = 5;
+    // Version định dạng sự kiện control cao nhất viewer gửi được (0 = chỉ chuỗi CSV)
+    public static final int CAP_CONTROL = 6;
+    // 1 = viewer đọc được [int input] trong header frame (đo độ trễ thao tác → hình)
+    public static final int CAP_INPUT_ECHO = 7;
+    // 1 = đọc được các thông điệp MSG_* (danh sách vùng); không có thì dùng định dạng cũ
+    public static final int CAP_REGIONS = 8;
+    private static final int CAP_COUNT = 16;
+
+    private ScreenProtocol() {
+    }
+
+    // caps: chỉ số = key, chỉ ghi các key có giá trị khác 0
+    public static void writeHello(DataOutputStream out, int[] caps) throws IOException {
+        int n = 0;
+        for (int value : caps) {
+            if (value != 0) {
+                n++;
+            }
+        }
+        out.writeInt(HELLO_MAGIC);
+        out.writeByte(n);
+        for (int key = 0; key < caps.length; key++) {
+            if (caps[key] != 0) {
+                out.writeByte(key);
+                out.writeInt(caps[key]);
+            }
+        }
+        out.flush();
+    }
+
+    public static int[] readHello(DataInputStream in) throws IOException {
+        int magic = in.readInt();
+        if (magic != HELLO_MAGIC) {
+            throw new IOException("Invalid screen hello: 0x" + Integer.toHexString(magic));
+        }
+        return readCaps(in);
+    }
+
+    // Phần sau HELLO_MAGIC
+    public static int[] readCaps(DataInputStream in) throws IOException {
+        int[] caps = new int[CAP_COUNT];
+        int n = in.readUnsignedByte();
+        for (int i = 0; i < n; i++) {
+            int key = in.readUnsignedByte();
+            int value = in.readInt();
+            if (key < CAP_COUNT) {
+                caps[key] = value;
+            }
+        }
+        return caps;
+    }
+
+    public static int[] newCaps() {
+        return new int[CAP_COUNT];
+    }
+}
@@ -0,0 +1,57 @@
+package common.codec;
+
+import javax.imageio.stream.ImageOutputStreamImpl;
+import java.io.IOException;
+
+// ImageOutputStream ghi thẳng vào EncodeBuffer (thay cho MemoryCacheImageOutputStream + toByteArray)
+class BufferImageOutputStream extends ImageOutputStreamImpl {
+    private final EncodeBuffer buffer;
+    private final int base;
+    private final byte[] one = new byte[1];
+
+    BufferImageOutputStream(EncodeBuffer buffer) {
+        this.buffer = buffer;
+        this.base = buffer.size();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        one[0] = (byte) b;
+        write(one, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        flushBits();
+        buffer.put(base + (int) streamPos, b, off, len);
+        streamPos += len;
+    }
+
+    @Override
+    public int read() {
+        bitOffset = 0;
+        if (base + streamPos >= buffer.size()) {
+            return -1;
+        }
+        return buffer.get(base + (int) streamPos++);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        bitOffset = 0;
+        int available = buffer.size() - base - (int) streamPos;
+        if (available <= 0) {
+            return -1;
+        }
+        int n = Math.min(len, available);
+        for (int i = 0; i < n; i++) {
+            b[off + i] = (byte) buffer.get(base + (int) streamPos++);
+        }
+        return n;
+    }
+
+    @Override
+    public long length() {
+        return buffer.size() - base;
+    }
+}
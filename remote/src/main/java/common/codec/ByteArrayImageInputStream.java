@@ -0,0 +1,48 @@
+package common.codec;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+
+// ImageInputStream đọc từ mảng byte, dùng lại được cho nhiều vùng (setData) thay vì tạo stream + cache mới
+class ByteArrayImageInputStream extends ImageInputStreamImpl {
+    private byte[] data = new byte[0];
+    private int length;
+
+    void setData(byte[] data, int length) {
+        this.data = data;
+        this.length = length;
+        streamPos = 0;
+        flushedPos = 0;
+        bitOffset = 0;
+    }
+
+    @Override
+    public int read() {
+        bitOffset = 0;
+        if (streamPos >= length) {
+            return -1;
+        }
+        return data[(int) streamPos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        bitOffset = 0;
+        if (streamPos >= length) {
+            return -1;
+        }
+        int n = Math.min(len, length - (int) streamPos);
+        System.arraycopy(data, (int) streamPos, b, off, n);
+        streamPos += n;
+        return n;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public void close() {
+        // Không giải phóng gì: stream được dùng lại
+    }
+}
@@ -0,0 +1,29 @@
+package common.codec;
+
+/*
+ * Danh sách codec cho kênh screen. Id là chỉ số bit trong mặt nạ khả năng mà viewer gửi
+ * trong hello (ScreenProtocol); JPEG luôn được hỗ trợ.
+ */
+public final class Codecs {
+    public static final byte JPEG = 0;
+    public static final byte ZLIB = 1;
+    public static final byte PALETTE_RLE = 2;
+
+    public static final int SUPPORTED_MASK = 1 << JPEG | 1 << ZLIB | 1 << PALETTE_RLE;
+
+    private Codecs() {
+    }
+
+    // Mảng đánh chỉ số theo id; phần tử null = id không hỗ trợ
+    public static FrameCodec[] createAll() {
+        FrameCodec[] codecs = new FrameCodec[8];
+        codecs[JPEG] = new JpegCodec();
+        codecs[ZLIB] = new ZlibCodec();
+        codecs[PALETTE_RLE] = new PaletteRleCodec();
+        return codecs;
+    }
+
+    public static boolean isEnabled(int mask, byte id) {
+        return (mask & (1 << id)) != 0;
+    }
+}
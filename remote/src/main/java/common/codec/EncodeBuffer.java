@@ -0,0 +1,73 @@
+package common.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/*
+ * Bộ đệm byte tự giãn, dùng lại giữa các frame: reset() chỉ đặt lại size, không cấp phát.
+ * Các codec ghi nối tiếp vào đây; dữ liệu được ghi thẳng ra socket bằng writeTo().
+ */
+public class EncodeBuffer extends OutputStream {
+    private byte[] data;
+    private int size;
+
+    public EncodeBuffer(int initialCapacity) {
+        data = new byte[Math.max(16, initialCapacity)];
+    }
+
+    public void reset() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public byte[] array() {
+        return data;
+    }
+
+    // Bảo đảm còn ít nhất extra byte trống sau size, trả về mảng (có thể là mảng mới)
+    public byte[] ensureFree(int extra) {
+        if (data.length - size < extra) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, size + extra));
+        }
+        return data;
+    }
+
+    // Dùng sau khi ghi trực tiếp vào array() (vd. Deflater)
+    public void advance(int count) {
+        size += count;
+    }
+
+    @Override
+    public void write(int b) {
+        ensureFree(1);
+        data[size++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureFree(len);
+        System.arraycopy(b, off, data, size, len);
+        size += len;
+    }
+
+    // Ghi đè/ghi nối tại vị trí bất kỳ (cho ImageOutputStream có seek)
+    void put(int position, byte[] b, int off, int len) {
+        if (position + len > size) {
+            ensureFree(position + len - size);
+            size = position + len;
+        }
+        System.arraycopy(b, off, data, position, len);
+    }
+
+    int get(int position) {
+        return data[position] & 0xFF;
+    }
+
+    public void writeTo(OutputStream out, int offset, int length) throws IOException {
+        out.write(data, offset, length);
+    }
+}
@@ -0,0 +1,23 @@
+package common.codec;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/*
+ * Mã hóa/giải mã 1 vùng ảnh trên kênh screen. Id của codec được ghi kèm từng vùng,
+ * nên sharer có thể chọn codec khác nhau cho từng ô.
+ * Mỗi instance giữ bộ đệm riêng: không dùng chung 1 instance giữa nhiều thread.
+ */
+public interface FrameCodec {
+
+    byte getId();
+
+    String getName();
+
+    // Ghi nối dữ liệu đã mã hóa vào out; quality chỉ có ý nghĩa với codec có mất mát (JPEG)
+    void encode(BufferedImage frame, Rectangle region, float quality, EncodeBuffer out) throws IOException;
+
+    // Vẽ vùng đã giải mã vào target tại region
+    void decode(byte[] data, int length, BufferedImage target, Rectangle region) throws IOException;
+}
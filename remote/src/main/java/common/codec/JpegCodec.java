@@ -0,0 +1,140 @@
+package common.codec;
+
+import common.ImagePixels;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.IOException;
+
+// Ảnh chụp, video, gradient: nhiều màu, chấp nhận mất mát
+public class JpegCodec implements FrameCodec {
+
+    // Writer và param được giữ suốt vòng đời codec thay vì tra cứu lại mỗi frame
+    private ImageWriter writer;
+    private ImageWriteParam param;
+    // Bộ ghi JPEG xử lý ảnh 3 byte/pixel rẻ hơn nhiều so với TYPE_INT_RGB: chép vùng sang ảnh tạm dùng lại
+    private BufferedImage scratch;
+
+    private ImageReader reader;
+    private ImageReadParam readParam;
+    private final ByteArrayImageInputStream input = new ByteArrayImageInputStream();
+
+    @Override
+    public byte getId() {
+        return Codecs.JPEG;
+    }
+
+    @Override
+    public String getName() {
+        return "jpeg";
+    }
+
+    @Override
+    public void encode(BufferedImage frame, Rectangle region, float quality, EncodeBuffer out) throws IOException {
+        if (writer == null) {
+            writer = ImageIO.getImageWritersByFormatName("jpg").next();
+            param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        }
+        param.setCompressionQuality(quality);
+
+        BufferedImage image = toScratch(frame, region);
+        int start = out.size();
+        try (BufferImageOutputStream ios = new BufferImageOutputStream(out)) {
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } catch (IOException | RuntimeException e) {
+            // Writer có thể ở trạng thái lỗi: bỏ đi, lần sau tạo lại
+            writer.dispose();
+            writer = null;
+            throw e;
+        } finally {
+            if (writer != null) {
+                writer.setOutput(null);
+            }
+        }
+        if (out.size() == start) {
+            throw new IOException("JPEG writer produced no data");
+        }
+    }
+
+    private BufferedImage toScratch(BufferedImage frame, Rectangle region) {
+        ImagePixels src = ImagePixels.of(frame);
+        ensureScratch(region.width, region.height);
+        byte[] dst = ((DataBufferByte) scratch.getRaster().getDataBuffer()).getData();
+        int dstStride = scratch.getWidth() * 3;
+        for (int y = 0; y < region.height; y++) {
+            int s = src.offset + (region.y + y) * src.stride + region.x;
+            int d = y * dstStride;
+            for (int x = 0; x < region.width; x++) {
+                int rgb = src.data[s + x];
+                dst[d++] = (byte) rgb;
+                dst[d++] = (byte) (rgb >> 8);
+                dst[d++] = (byte) (rgb >> 16);
+            }
+        }
+        return scratch.getSubimage(0, 0, region.width, region.height);
+    }
+
+    /*
+     * Giải mã vào ảnh tạm TYPE_3BYTE_BGR dùng lại (đường nhanh của bộ giải mã JPEG),
+     * rồi chép thẳng sang mảng int[] của target tại (x, y): không ImageIO.read, không Graphics2D.
+     */
+    @Override
+    public void decode(byte[] data, int length, BufferedImage target, Rectangle region) throws IOException {
+        if (reader == null) {
+            reader = ImageIO.getImageReadersByFormatName("jpg").next();
+            readParam = reader.getDefaultReadParam();
+        }
+        input.setData(data, length);
+        try {
+            reader.setInput(input, true, true);
+            if (reader.getWidth(0) != region.width || reader.getHeight(0) != region.height) {
+                throw new IOException("JPEG size " + reader.getWidth(0) + "x" + reader.getHeight(0)
+                        + " does not match region " + region);
+            }
+            ensureScratch(region.width, region.height);
+            readParam.setDestination(scratch);
+            reader.read(0, readParam);
+        } catch (RuntimeException e) {
+            reader.dispose();
+            reader = null;
+            throw new IOException("Invalid JPEG data: " + e.getMessage());
+        } finally {
+            if (reader != null) {
+                readParam.setDestination(null);
+                reader.setInput(null);
+            }
+        }
+
+        byte[] src = ((DataBufferByte) scratch.getRaster().getDataBuffer()).getData();
+        int srcStride = scratch.getWidth() * 3;
+        ImagePixels dst = ImagePixels.of(target);
+        if (!dst.direct) {
+            target.getRaster().setRect(region.x, region.y,
+                    scratch.getRaster().createChild(0, 0, region.width, region.height, 0, 0, null));
+            return;
+        }
+        for (int y = 0; y < region.height; y++) {
+            int s = y * srcStride;
+            int d = dst.offset + (region.y + y) * dst.stride + region.x;
+            for (int x = 0; x < region.width; x++, s += 3) {
+                dst.data[d + x] = (src[s + 2] & 0xFF) << 16 | (src[s + 1] & 0xFF) << 8 | (src[s] & 0xFF);
+            }
+        }
+    }
+
+    private void ensureScratch(int width, int height) {
+        if (scratch == null || scratch.getWidth() < width || scratch.getHeight() < height) {
+            int w = Math.max(width, scratch != null ? scratch.getWidth() : 0);
+            int h = Math.max(height, scratch != null ? scratch.getHeight() : 0);
+            scratch = new BufferedImage(w, h, BufferedImage.TYPE_3BYTE_BGR);
+        }
+    }
+}
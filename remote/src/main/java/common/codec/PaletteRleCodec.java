@@ -0,0 +1,131 @@
+package common.codec;
+
+import common.ImagePixels;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+ * Vùng ít màu (nền phẳng, icon, thanh tiêu đề): bảng màu + run-length theo thứ tự dòng.
+ * Định dạng: [ubyte số màu - 1][3 byte RGB mỗi màu] rồi các run [ubyte chỉ số màu][varint độ dài - 1]
+ */
+public class PaletteRleCodec implements FrameCodec {
+    public static final int MAX_COLORS = 256;
+    private static final int HASH_SIZE = 1024;
+
+    private final int[] hashKeys = new int[HASH_SIZE];
+    private final int[] hashValues = new int[HASH_SIZE];
+    private final int[] palette = new int[MAX_COLORS];
+    private final EncodeBuffer body = new EncodeBuffer(4096);
+    private int[] pixels = new int[0];
+
+    @Override
+    public byte getId() {
+        return Codecs.PALETTE_RLE;
+    }
+
+    @Override
+    public String getName() {
+        return "palette-rle";
+    }
+
+    @Override
+    public void encode(BufferedImage frame, Rectangle region, float quality, EncodeBuffer out) throws IOException {
+        ImagePixels src = ImagePixels.of(frame);
+        Arrays.fill(hashValues, -1);
+        int colors = 0;
+        body.reset();
+
+        int runIndex = -1;
+        int runLength = 0;
+        for (int y = region.y; y < region.y + region.height; y++) {
+            int line = src.offset + y * src.stride;
+            for (int x = region.x; x < region.x + region.width; x++) {
+                int rgb = src.data[line + x] & 0xFFFFFF;
+                int slot = (rgb * 0x9E3779B1 >>> 22) & (HASH_SIZE - 1);
+                while (hashValues[slot] >= 0 && hashKeys[slot] != rgb) {
+                    slot = (slot + 1) & (HASH_SIZE - 1);
+                }
+                int index = hashValues[slot];
+                if (index < 0) {
+                    if (colors == MAX_COLORS) {
+                        throw new IOException("Region has more than " + MAX_COLORS + " colors");
+                    }
+                    index = colors;
+                    palette[colors++] = rgb;
+                    hashKeys[slot] = rgb;
+                    hashValues[slot] = index;
+                }
+
+                if (index == runIndex) {
+                    runLength++;
+                } else {
+                    if (runLength > 0) {
+                        writeRun(runIndex, runLength);
+                    }
+                    runIndex = index;
+                    runLength = 1;
+                }
+            }
+        }
+        if (runLength > 0) {
+            writeRun(runIndex, runLength);
+        }
+
+        out.write(colors - 1);
+        for (int i = 0; i < colors; i++) {
+            out.write(palette[i] >> 16);
+            out.write(palette[i] >> 8);
+            out.write(palette[i]);
+        }
+        out.write(body.array(), 0, body.size());
+    }
+
+    private void writeRun(int index, int length) {
+        body.write(index);
+        int value = length - 1;
+        while ((value & ~0x7F) != 0) {
+            body.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        body.write(value);
+    }
+
+    @Override
+    public void decode(byte[] data, int length, BufferedImage target, Rectangle region) throws IOException {
+        int count = region.width * region.height;
+        if (pixels.length < count) {
+            pixels = new int[count];
+        }
+        try {
+            int p = 0;
+            int colors = (data[p++] & 0xFF) + 1;
+            for (int i = 0; i < colors; i++, p += 3) {
+                palette[i] = (data[p] & 0xFF) << 16 | (data[p + 1] & 0xFF) << 8 | (data[p + 2] & 0xFF);
+            }
+
+            int filled = 0;
+            while (filled < count) {
+                int index = data[p++] & 0xFF;
+                int run = 0;
+                int shift = 0;
+                int b;
+                do {
+                    b = data[p++];
+                    run |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                run++;
+                if (index >= colors || run > count - filled || p > length) {
+                    throw new IOException("Invalid palette run");
+                }
+                Arrays.fill(pixels, filled, filled + run, palette[index]);
+                filled += run;
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Truncated palette tile");
+        }
+        ImagePixels.write(target, region, pixels);
+    }
+}
@@ -0,0 +1,62 @@
+package common.codec;
+
+import common.ImagePixels;
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/*
+ * Chọn codec cho 1 ô bằng cách đếm số màu khác nhau (dừng sớm khi vượt ngưỡng):
+ * ít màu → palette/RLE, vừa (chữ, giao diện khử răng cưa) → zlib, nhiều màu → JPEG.
+ */
+public class TileClassifier {
+    static final int PALETTE_MAX_COLORS = 16;
+    static final int LOSSLESS_MAX_COLORS = PaletteRleCodec.MAX_COLORS;
+    private static final int HASH_SIZE = 1024;
+
+    private final int[] hashKeys = new int[HASH_SIZE];
+    private final boolean[] used = new boolean[HASH_SIZE];
+
+    public byte classify(ImagePixels pixels, Rectangle region, int codecMask) {
+        int colors = countColors(pixels, region, LOSSLESS_MAX_COLORS + 1);
+        if (colors <= PALETTE_MAX_COLORS && Codecs.isEnabled(codecMask, Codecs.PALETTE_RLE)) {
+            return Codecs.PALETTE_RLE;
+        }
+        if (colors <= LOSSLESS_MAX_COLORS) {
+            if (Codecs.isEnabled(codecMask, Codecs.ZLIB)) {
+                return Codecs.ZLIB;
+            }
+            if (Codecs.isEnabled(codecMask, Codecs.PALETTE_RLE)) {
+                return Codecs.PALETTE_RLE;
+            }
+        }
+        return Codecs.JPEG;
+    }
+
+    private int countColors(ImagePixels pixels, Rectangle region, int limit) {
+        Arrays.fill(used, false);
+        int colors = 0;
+        int last = -1;
+        for (int y = region.y; y < region.y + region.height; y++) {
+            int line = pixels.offset + y * pixels.stride;
+            for (int x = region.x; x < region.x + region.width; x++) {
+                int rgb = pixels.data[line + x] & 0xFFFFFF;
+                if (rgb == last) {
+                    continue;
+                }
+                last = rgb;
+                int slot = (rgb * 0x9E3779B1 >>> 22) & (HASH_SIZE - 1);
+                while (used[slot] && hashKeys[slot] != rgb) {
+                    slot = (slot + 1) & (HASH_SIZE - 1);
+                }
+                if (!used[slot]) {
+                    used[slot] = true;
+                    hashKeys[slot] = rgb;
+                    if (++colors >= limit) {
+                        return colors;
+                    }
+                }
+            }
+        }
+        return colors;
+    }
+}
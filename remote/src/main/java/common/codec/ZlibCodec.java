@@ -0,0 +1,87 @@
+package common.codec;
+
+import common.ImagePixels;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Pixel RGB thô (3 byte/pixel) nén zlib: không mất mát, hợp với chữ và giao diện nhiều màu khử răng cưa
+public class ZlibCodec implements FrameCodec {
+    private static final int LEVEL = 1;
+
+    private final Deflater deflater = new Deflater(LEVEL);
+    private final Inflater inflater = new Inflater();
+    private byte[] raw = new byte[0];
+    private int[] pixels = new int[0];
+
+    @Override
+    public byte getId() {
+        return Codecs.ZLIB;
+    }
+
+    @Override
+    public String getName() {
+        return "zlib";
+    }
+
+    @Override
+    public void encode(BufferedImage frame, Rectangle region, float quality, EncodeBuffer out) {
+        ImagePixels src = ImagePixels.of(frame);
+        int size = region.width * region.height * 3;
+        if (raw.length < size) {
+            raw = new byte[size];
+        }
+        int p = 0;
+        for (int y = region.y; y < region.y + region.height; y++) {
+            int line = src.offset + y * src.stride;
+            for (int x = region.x; x < region.x + region.width; x++) {
+                int rgb = src.data[line + x];
+                raw[p++] = (byte) (rgb >> 16);
+                raw[p++] = (byte) (rgb >> 8);
+                raw[p++] = (byte) rgb;
+            }
+        }
+
+        deflater.reset();
+        deflater.setInput(raw, 0, size);
+        deflater.finish();
+        while (!deflater.finished()) {
+            byte[] dst = out.ensureFree(Math.max(4096, size / 4));
+            out.advance(deflater.deflate(dst, out.size(), dst.length - out.size()));
+        }
+    }
+
+    @Override
+    public void decode(byte[] data, int length, BufferedImage target, Rectangle region) throws IOException {
+        int count = region.width * region.height;
+        int size = count * 3;
+        if (raw.length < size) {
+            raw = new byte[size];
+        }
+        inflater.reset();
+        inflater.setInput(data, 0, length);
+        try {
+            int n = 0;
+            while (n < size) {
+                int read = inflater.inflate(raw, n, size - n);
+                if (read == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Truncated zlib tile");
+                }
+                n += read;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid zlib tile: " + e.getMessage());
+        }
+
+        if (pixels.length < count) {
+            pixels = new int[count];
+        }
+        for (int i = 0, p = 0; i < count; i++, p += 3) {
+            pixels[i] = (raw[p] & 0xFF) << 16 | (raw[p + 1] & 0xFF) << 8 | (raw[p + 2] & 0xFF);
+        }
+        ImagePixels.write(target, region, pixels);
+    }
+}
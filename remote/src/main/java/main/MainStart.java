@@ -2,6 +2,7 @@ package main;
 
 import javax.swing.*;
 import client.ReceiveScreen;
+import common.MuxConnection;
 import io.github.cdimascio.dotenv.Dotenv;
 import monitor.MonitoringManager;
 import java.awt.*;
@@ -151,11 +152,23 @@ public class MainStart extends JFrame {
                                     .directory("./")
                                     .ignoreIfMissing()
                                     .load();
+                            String initMessage = username + "," + password + ",sharer," + screen.getWidth() + ","
+                                    + screen.getHeight();
+                            if (isMuxMode(dotenv)) {
+                                socketScreen = openMuxSocket(ipServer, dotenv, initMessage);
+                                String response = new DataInputStream(socketScreen.getInputStream()).readUTF();
+                                if (response.startsWith("false")) {
+                                    throw new Exception("Server response: " + response);
+                                }
+                                MuxConnection mux = new MuxConnection(socketScreen);
+                                socketScreen = mux.getSocket(MuxConnection.CHANNEL_SCREEN);
+                                socketControl = mux.getSocket(MuxConnection.CHANNEL_CONTROL);
+                                socketChat = mux.getSocket(MuxConnection.CHANNEL_CHAT);
+                                return null;
+                            }
                             socketScreen = new Socket(ipServer, Integer.parseInt(dotenv.get("SCREEN_PORT", "5002")));
                             socketControl = new Socket(ipServer, Integer.parseInt(dotenv.get("CONTROL_PORT", "6002")));
                             socketChat = new Socket(ipServer, Integer.parseInt(dotenv.get("CHAT_PORT", "7002")));
-                            String initMessage = username + "," + password + ",sharer," + screen.getWidth() + ","
-                                    + screen.getHeight();
                             DataOutputStream dosScreen = new DataOutputStream(socketScreen.getOutputStream());
                             DataOutputStream dosControl = new DataOutputStream(socketControl.getOutputStream());
                             DataOutputStream dosChat = new DataOutputStream(socketChat.getOutputStream());
@@ -366,11 +379,30 @@ public class MainStart extends JFrame {
                                 .directory("./")
                                 .ignoreIfMissing()
                                 .load();
+                        String initMessage = partnerID + "," + partnerPassword + ",viewer," + screen.getWidth() + ","
+                                + screen.getHeight();
+                        if (isMuxMode(dotenv)) {
+                            socketScreen = openMuxSocket(ipServer, dotenv, initMessage);
+                            String response = new DataInputStream(socketScreen.getInputStream()).readUTF();
+                            if (response.startsWith("false")) {
+                                serverErrorMessage = response.split(",")[1];
+                                throw new Exception(serverErrorMessage);
+                            }
+                            String[] res = response.split(",");
+                            if (res.length < 3) {
+                                throw new Exception("Lỗi dữ liệu trả về: " + response);
+                            }
+                            remoteWidth = Float.parseFloat(res[1]);
+                            remoteHeight = Float.parseFloat(res[2]);
+                            MuxConnection mux = new MuxConnection(socketScreen);
+                            socketScreen = mux.getSocket(MuxConnection.CHANNEL_SCREEN);
+                            socketControl = mux.getSocket(MuxConnection.CHANNEL_CONTROL);
+                            socketChat = mux.getSocket(MuxConnection.CHANNEL_CHAT);
+                            return null;
+                        }
                         socketScreen = new Socket(ipServer, Integer.parseInt(dotenv.get("SCREEN_PORT", "5002")));
                         socketControl = new Socket(ipServer, Integer.parseInt(dotenv.get("CONTROL_PORT", "6002")));
                         socketChat = new Socket(ipServer, Integer.parseInt(dotenv.get("CHAT_PORT", "7002")));
-                        String initMessage = partnerID + "," + partnerPassword + ",viewer," + screen.getWidth() + ","
-                                + screen.getHeight();
                         DataOutputStream dosScreen = new DataOutputStream(socketScreen.getOutputStream());
                         DataOutputStream dosControl = new DataOutputStream(socketControl.getOutputStream());
                         DataOutputStream dosChat = new DataOutputStream(socketChat.getOutputStream());
@@ -457,6 +489,19 @@ public class MainStart extends JFrame {
         add(UIHelper.createStatusBar(), BorderLayout.SOUTH);
     }
 
+    // CONNECTION_MODE=mux: 1 socket mang cả screen/control/chat; mặc định 3 socket như cũ
+    private static boolean isMuxMode(Dotenv dotenv) {
+        return "mux".equalsIgnoreCase(dotenv.get("CONNECTION_MODE", "legacy"));
+    }
+
+    private static Socket openMuxSocket(String ipServer, Dotenv dotenv, String initMessage) throws Exception {
+        Socket socket = new Socket(ipServer, Integer.parseInt(dotenv.get("SCREEN_PORT", "5002")));
+        DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
+        dos.writeUTF(initMessage + ",mux");
+        dos.flush();
+        return socket;
+    }
+
     public static void main(String[] args) {
         Dotenv dotenv = Dotenv.configure()
                 .directory("./")
@@ -0,0 +1,96 @@
+package server;
+
+/*
+ * Điều chỉnh fps, chất lượng JPEG và ngưỡng full frame theo số đo của stage send,
+ * để độ trễ chụp → ghi xong nằm trong LATENCY_BUDGET_NANOS.
+ * - Thời gian ghi socket dài = đường truyền chậm (socket buffer đầy, write bị chặn)
+ * - Nghẽn: giảm fps về mức băng thông đo được chịu nổi, giảm quality, ưu tiên delta
+ * - Thông thoáng: tăng dần lại từng bước
+ */
+public class AdaptiveController {
+    static final int MAX_FPS = 20;
+    static final int MIN_FPS = 2;
+    static final float MIN_QUALITY = 0.3f;
+    static final float MAX_QUALITY = 1.0f;
+    static final float MIN_FULL_FRAME_THRESHOLD = 0.35f;
+    static final float MAX_FULL_FRAME_THRESHOLD = 0.8f;
+    static final long LATENCY_BUDGET_NANOS = 150_000_000L;
+    static final long ADJUST_INTERVAL_NANOS = 500_000_000L;
+    // Chỉ coi thời gian ghi là do đường truyền khi dài hơn mức này
+    private static final long MIN_MEASURABLE_SEND_NANOS = 1_000_000L;
+    private static final double ALPHA = 0.2;
+
+    private volatile int fps = MAX_FPS;
+    private volatile float quality = 0.7f;
+    private volatile float fullFrameThreshold = MIN_FULL_FRAME_THRESHOLD;
+
+    private double latencyNanos = 0;
+    private double sendNanos = 0;
+    private double bytesPerFrame = 0;
+    private double bytesPerSecond = 0; // 0 = chưa đo được (đường truyền không phải nút thắt)
+    private long lastAdjust = System.nanoTime();
+
+    public synchronized void onFrameSent(int bytes, long sendTimeNanos, long captureToWireNanos) {
+        latencyNanos = ewma(latencyNanos, captureToWireNanos);
+        sendNanos = ewma(sendNanos, sendTimeNanos);
+        bytesPerFrame = ewma(bytesPerFrame, bytes);
+        if (sendTimeNanos >= MIN_MEASURABLE_SEND_NANOS) {
+            bytesPerSecond = ewma(bytesPerSecond, bytes * 1e9 / sendTimeNanos);
+        }
+
+        long now = System.nanoTime();
+        if (now - lastAdjust >= ADJUST_INTERVAL_NANOS) {
+            lastAdjust = now;
+            adjust();
+        }
+    }
+
+    private void adjust() {
+        double frameInterval = 1e9 / fps;
+        double load = sendNanos / frameInterval;
+
+        if (latencyNanos > LATENCY_BUDGET_NANOS || load > 0.9) {
+            int target = fps * 3 / 4;
+            if (bytesPerSecond > 0 && bytesPerFrame > 0) {
+                // Dùng ~80% băng thông đo được
+                target = Math.min(target, (int) (0.8 * bytesPerSecond / bytesPerFrame));
+            }
+            fps = clamp(target, MIN_FPS, fps - 1);
+            quality = Math.max(MIN_QUALITY, quality - 0.1f);
+            fullFrameThreshold = Math.min(MAX_FULL_FRAME_THRESHOLD, fullFrameThreshold + 0.1f);
+        } else if (latencyNanos < LATENCY_BUDGET_NANOS / 2 && load < 0.5) {
+            fps = Math.min(MAX_FPS, fps + 1);
+            quality = Math.min(MAX_QUALITY, quality + 0.05f);
+            fullFrameThreshold = Math.max(MIN_FULL_FRAME_THRESHOLD, fullFrameThreshold - 0.05f);
+        }
+    }
+
+    public int getFps() {
+        return fps;
+    }
+
+    public float getQuality() {
+        return quality;
+    }
+
+    public float getFullFrameThreshold() {
+        return fullFrameThreshold;
+    }
+
+    public synchronized double getBandwidthKBps() {
+        return bytesPerSecond / 1024;
+    }
+
+    public String describe() {
+        return String.format("fps=%d quality=%.2f fullThreshold=%.2f bw=%.0fKB/s", fps, quality,
+                fullFrameThreshold, getBandwidthKBps());
+    }
+
+    private static double ewma(double current, double sample) {
+        return current == 0 ? sample : current + ALPHA * (sample - current);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(Math.max(min, max), value));
+    }
+}
@@ -0,0 +1,117 @@
+package server;
+
+import common.ScreenProtocol;
+import java.awt.GraphicsDevice;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Các nguồn sharer có thể chia sẻ, theo tọa độ desktop ảo: từng màn hình (GraphicsDevice)
+ * và thêm 1 vùng tùy chọn (SHARE_REGION=x,y,w,h). Id nguồn = chỉ số trong danh sách.
+ * Nguồn ban đầu: vùng nếu có, không thì SHARE_DISPLAY hoặc màn hình mặc định.
+ */
+class CaptureStreams {
+    private final List<Rectangle> bounds = new ArrayList<>();
+    private final List<Byte> kinds = new ArrayList<>();
+    private int initial = 0;
+
+    // display: chỉ số màn hình (null = mặc định); region: "x,y,w,h" (null = không có)
+    static CaptureStreams detect(String display, String region) {
+        CaptureStreams streams = new CaptureStreams();
+        GraphicsEnvironment env = GraphicsEnvironment.getLocalGraphicsEnvironment();
+        GraphicsDevice defaultDevice = env.getDefaultScreenDevice();
+        GraphicsDevice[] devices = env.getScreenDevices();
+        for (int i = 0; i < devices.length; i++) {
+            streams.add(devices[i].getDefaultConfiguration().getBounds(), ScreenProtocol.STREAM_DISPLAY);
+            if (devices[i] == defaultDevice) {
+                streams.initial = i;
+            }
+        }
+
+        if (display != null && !display.trim().isEmpty()) {
+            try {
+                int index = Integer.parseInt(display.trim());
+                if (index >= 0 && index < devices.length) {
+                    streams.initial = index;
+                } else {
+                    System.err.println("[CaptureStreams] SHARE_DISPLAY ngoài phạm vi: " + index);
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("[CaptureStreams] SHARE_DISPLAY không hợp lệ: " + display);
+            }
+        }
+
+        Rectangle desktop = new Rectangle();
+        for (GraphicsDevice device : devices) {
+            desktop.add(device.getDefaultConfiguration().getBounds());
+        }
+        streams.addRegion(region, desktop);
+        return streams;
+    }
+
+    // displays màn hình width x height xếp ngang và vùng tùy chọn, không cần GraphicsEnvironment
+    // (dùng cho nguồn ảnh tổng hợp); nguồn ban đầu như detect(): vùng nếu có, không thì màn hình 0
+    static CaptureStreams synthetic(int displays, int width, int height, String region) {
+        CaptureStreams streams = new CaptureStreams();
+        Rectangle desktop = new Rectangle();
+        for (int i = 0; i < displays; i++) {
+            Rectangle display = new Rectangle(i * width, 0, width, height);
+            streams.add(display, ScreenProtocol.STREAM_DISPLAY);
+            desktop.add(display);
+        }
+        streams.addRegion(region, desktop);
+        return streams;
+    }
+
+    private void addRegion(String region, Rectangle desktop) {
+        Rectangle area = parseRegion(region, desktop);
+        if (area != null) {
+            add(area, ScreenProtocol.STREAM_REGION);
+            initial = size() - 1;
+        }
+    }
+
+    private void add(Rectangle area, byte kind) {
+        bounds.add(new Rectangle(area));
+        kinds.add(kind);
+    }
+
+    int size() {
+        return bounds.size();
+    }
+
+    int getInitial() {
+        return initial;
+    }
+
+    Rectangle getBounds(int stream) {
+        return new Rectangle(bounds.get(stream));
+    }
+
+    byte getKind(int stream) {
+        return kinds.get(stream);
+    }
+
+    // Vùng phải có diện tích và nằm trong desktop ảo (hợp các màn hình)
+    private static Rectangle parseRegion(String region, Rectangle desktop) {
+        if (region == null || region.trim().isEmpty()) {
+            return null;
+        }
+        String[] parts = region.split(",");
+        try {
+            if (parts.length == 4) {
+                Rectangle area = new Rectangle(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()),
+                        Integer.parseInt(parts[2].trim()), Integer.parseInt(parts[3].trim()));
+                if (!area.isEmpty() && desktop.contains(area)) {
+                    return area;
+                }
+            }
+        } catch (NumberFormatException e) {
+            // báo lỗi chung bên dưới
+        }
+        System.err.println("[CaptureStreams] SHARE_REGION không hợp lệ (x,y,w,h trong desktop): " + region);
+        return null;
+    }
+}
@@ -0,0 +1,70 @@
+package server;
+
+import common.ScreenProtocol;
+import java.awt.Point;
+import java.awt.Rectangle;
+
+/*
+ * Vị trí con trỏ chuột của sharer, gửi riêng bằng MSG_CURSOR thay vì qua pixel màn hình.
+ * Tọa độ tính theo vùng chụp; con trỏ nằm ngoài vùng chụp (màn hình khác) = ẩn.
+ * Thread cursor gọi poll(); thread capture gọi locate() ngay sau khi chụp để gắn vị trí khớp với ảnh vào frame.
+ */
+class CursorTracker {
+    // Vùng con trỏ có thể che quanh điểm nóng (con trỏ hệ thống thường tối đa 32x32, nhọn ở góc trên trái)
+    private static final int COVER_BEFORE = 2;
+    private static final int COVER_SIZE = 34;
+
+    private final FrameSource source;
+    private volatile Rectangle area;
+    private volatile Point position;
+    private byte shape = ScreenProtocol.CURSOR_HIDDEN;
+    private volatile boolean resend = false;
+
+    CursorTracker(Rectangle area, FrameSource source) {
+        this.area = new Rectangle(area);
+        this.source = source;
+    }
+
+    // Đổi nguồn chia sẻ: lần poll() sau gửi lại vị trí theo vùng mới
+    void setArea(Rectangle area) {
+        this.area = new Rectangle(area);
+        this.resend = true;
+    }
+
+    // true nếu vị trí hoặc trạng thái hiện/ẩn đổi so với lần trước
+    boolean poll() {
+        Point next = locate();
+        byte nextShape = next != null ? ScreenProtocol.CURSOR_ARROW : ScreenProtocol.CURSOR_HIDDEN;
+        Point current = position;
+        if (!resend && nextShape == shape && (next == null || next.equals(current))) {
+            return false;
+        }
+        resend = false;
+        position = next;
+        shape = nextShape;
+        return true;
+    }
+
+    // Vị trí hiện tại theo vùng chụp, không đổi trạng thái đã gửi; null = ngoài vùng chụp
+    Point locate() {
+        Point location = source.getPointer();
+        Rectangle area = this.area;
+        return location != null && area.contains(location)
+                ? new Point(location.x - area.x, location.y - area.y)
+                : null;
+    }
+
+    // null = con trỏ ẩn
+    Point getPosition() {
+        return position;
+    }
+
+    byte getShape() {
+        return shape;
+    }
+
+    // Các pixel có thể bị con trỏ vẽ đè khi ảnh chụp có kèm con trỏ
+    static Rectangle coverage(Point position) {
+        return new Rectangle(position.x - COVER_BEFORE, position.y - COVER_BEFORE, COVER_SIZE, COVER_SIZE);
+    }
+}
@@ -0,0 +1,111 @@
+package server;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Gom các ô thay đổi (TileDiffer hoặc DirtyTiles đã gộp) thành danh sách hình chữ nhật.
+ * Mỗi vùng gửi đi tốn thêm 1 header JPEG + header thông điệp, nên 2 vùng được gộp
+ * khi phần diện tích thừa (pixel không đổi bị gửi kèm) rẻ hơn chi phí đó.
+ */
+public class DirtyRegions {
+    // Chi phí cố định của 1 vùng, quy ra số pixel (~16 ô)
+    static final int RECT_OVERHEAD_PIXELS = 16 * TileDiffer.TILE_SIZE * TileDiffer.TILE_SIZE;
+    static final int MAX_RECTS = 32;
+
+    private DirtyRegions() {
+    }
+
+    public static List<Rectangle> merge(TileGrid grid, int width, int height) {
+        List<Rectangle> rects = tileRuns(grid);
+
+        // Gộp cặp rẻ nhất cho tới khi không còn cặp nào có lợi (và số vùng <= MAX_RECTS)
+        while (rects.size() > 1) {
+            int bestI = -1, bestJ = -1;
+            long bestCost = Long.MAX_VALUE;
+            for (int i = 0; i < rects.size(); i++) {
+                Rectangle a = rects.get(i);
+                for (int j = i + 1; j < rects.size(); j++) {
+                    Rectangle b = rects.get(j);
+                    long cost = area(a.union(b)) - area(a) - area(b);
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        bestI = i;
+                        bestJ = j;
+                    }
+                }
+            }
+            if (bestCost > RECT_OVERHEAD_PIXELS && rects.size() <= MAX_RECTS) {
+                break;
+            }
+            Rectangle merged = rects.get(bestI).union(rects.get(bestJ));
+            rects.remove(bestJ);
+            rects.set(bestI, merged);
+        }
+
+        // Tọa độ ô → pixel, cắt theo mép ảnh
+        Rectangle bounds = new Rectangle(width, height);
+        List<Rectangle> result = new ArrayList<>(rects.size());
+        for (Rectangle r : rects) {
+            Rectangle pixels = new Rectangle(r.x * TileDiffer.TILE_SIZE, r.y * TileDiffer.TILE_SIZE,
+                    r.width * TileDiffer.TILE_SIZE, r.height * TileDiffer.TILE_SIZE).intersection(bounds);
+            result.add(pixels);
+        }
+        return result;
+    }
+
+    // Tổng diện tích (pixel) của danh sách do merge() trả về
+    public static long totalArea(List<Rectangle> rects) {
+        long total = 0;
+        for (Rectangle r : rects) {
+            total += (long) r.width * r.height;
+        }
+        return total;
+    }
+
+    // Các dải ô thay đổi liên tiếp trên từng hàng; dải trùng cột với hàng trên được nối dài xuống
+    private static List<Rectangle> tileRuns(TileGrid grid) {
+        List<Rectangle> rects = new ArrayList<>();
+        List<Rectangle> open = new ArrayList<>();
+        List<Rectangle> nextOpen = new ArrayList<>();
+
+        for (int ty = 0; ty < grid.getTilesY(); ty++) {
+            nextOpen.clear();
+            int tx = 0;
+            while (tx < grid.getTilesX()) {
+                if (!grid.isDirty(tx, ty)) {
+                    tx++;
+                    continue;
+                }
+                int start = tx;
+                while (tx < grid.getTilesX() && grid.isDirty(tx, ty)) {
+                    tx++;
+                }
+
+                Rectangle run = null;
+                for (Rectangle r : open) {
+                    if (r.x == start && r.width == tx - start) {
+                        r.height++;
+                        run = r;
+                        break;
+                    }
+                }
+                if (run == null) {
+                    run = new Rectangle(start, ty, tx - start, 1);
+                    rects.add(run);
+                }
+                nextOpen.add(run);
+            }
+            List<Rectangle> swap = open;
+            open = nextOpen;
+            nextOpen = swap;
+        }
+        return rects;
+    }
+
+    // Rectangle ở đây tính theo ô, đổi ra pixel để so với RECT_OVERHEAD_PIXELS
+    private static long area(Rectangle r) {
+        return (long) r.width * r.height * TileDiffer.TILE_SIZE * TileDiffer.TILE_SIZE;
+    }
+}
@@ -0,0 +1,133 @@
+package server;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/*
+ * Bản sao lưới ô thay đổi của TileDiffer, dùng để chuyển qua stage encode.
+ * Nhiều kết quả diff liên tiếp chưa được encode có thể gộp (OR) lại thành 1.
+ */
+public class DirtyTiles implements TileGrid {
+    private final int tilesX;
+    private final int tilesY;
+    private final boolean[] dirty;
+
+    private DirtyTiles(int tilesX, int tilesY) {
+        this.tilesX = tilesX;
+        this.tilesY = tilesY;
+        this.dirty = new boolean[tilesX * tilesY];
+    }
+
+    // Mọi ô đều thay đổi (full frame)
+    public static DirtyTiles all(int width, int height) {
+        DirtyTiles tiles = new DirtyTiles((width + TileDiffer.TILE_SIZE - 1) / TileDiffer.TILE_SIZE,
+                (height + TileDiffer.TILE_SIZE - 1) / TileDiffer.TILE_SIZE);
+        Arrays.fill(tiles.dirty, true);
+        return tiles;
+    }
+
+    public DirtyTiles(TileDiffer differ) {
+        this.tilesX = differ.getTilesX();
+        this.tilesY = differ.getTilesY();
+        this.dirty = new boolean[tilesX * tilesY];
+        for (int ty = 0; ty < tilesY; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+                dirty[ty * tilesX + tx] = differ.isDirty(tx, ty);
+            }
+        }
+    }
+
+    // false nếu khác kích thước (khi đó cần gửi full frame)
+    public boolean merge(DirtyTiles other) {
+        if (other.tilesX != tilesX || other.tilesY != tilesY) {
+            return false;
+        }
+        for (int i = 0; i < dirty.length; i++) {
+            dirty[i] |= other.dirty[i];
+        }
+        return true;
+    }
+
+    // Gộp ô thay đổi của kết quả cũ khi kết quả mới có lệnh chép: ô cũ nằm trong vùng nguồn
+    // sẽ bị chép (với pixel chưa cập nhật) sang vị trí mới ở viewer, nên vị trí đó cũng phải gửi lại
+    public boolean mergeShifted(DirtyTiles older, ScrollDetector.Shift shift) {
+        if (older.tilesX != tilesX || older.tilesY != tilesY) {
+            return false;
+        }
+        int tile = TileDiffer.TILE_SIZE;
+        Rectangle source = new Rectangle(shift.dst);
+        source.translate(-shift.dx, -shift.dy);
+        for (int ty = 0; ty < tilesY; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+                if (!older.dirty[ty * tilesX + tx]) {
+                    continue;
+                }
+                Rectangle moved = source.intersection(new Rectangle(tx * tile, ty * tile, tile, tile));
+                if (!moved.isEmpty()) {
+                    moved.translate(shift.dx, shift.dy);
+                    mark(moved);
+                }
+            }
+        }
+        return true;
+    }
+
+    // Bỏ cờ các ô giao với vùng pixel (ô vẫn khác bản tham chiếu nên lần diff sau sẽ thấy lại); trả về số ô bỏ
+    public int clear(Rectangle pixels) {
+        return clear(pixels, tile -> true);
+    }
+
+    // Như clear(Rectangle) nhưng chỉ bỏ ô (hình chữ nhật pixel của ô) mà canDefer chấp nhận
+    public int clear(Rectangle pixels, Predicate<Rectangle> canDefer) {
+        int fromX = Math.max(0, pixels.x / TileDiffer.TILE_SIZE);
+        int fromY = Math.max(0, pixels.y / TileDiffer.TILE_SIZE);
+        int toX = Math.min(tilesX, (pixels.x + pixels.width + TileDiffer.TILE_SIZE - 1) / TileDiffer.TILE_SIZE);
+        int toY = Math.min(tilesY, (pixels.y + pixels.height + TileDiffer.TILE_SIZE - 1) / TileDiffer.TILE_SIZE);
+        int cleared = 0;
+        for (int ty = fromY; ty < toY; ty++) {
+            for (int tx = fromX; tx < toX; tx++) {
+                if (dirty[ty * tilesX + tx] && canDefer.test(new Rectangle(tx * TileDiffer.TILE_SIZE,
+                        ty * TileDiffer.TILE_SIZE, TileDiffer.TILE_SIZE, TileDiffer.TILE_SIZE))) {
+                    dirty[ty * tilesX + tx] = false;
+                    cleared++;
+                }
+            }
+        }
+        return cleared;
+    }
+
+    private void mark(Rectangle pixels) {
+        int fromX = Math.max(0, pixels.x / TileDiffer.TILE_SIZE);
+        int fromY = Math.max(0, pixels.y / TileDiffer.TILE_SIZE);
+        int toX = Math.min(tilesX, (pixels.x + pixels.width + TileDiffer.TILE_SIZE - 1) / TileDiffer.TILE_SIZE);
+        int toY = Math.min(tilesY, (pixels.y + pixels.height + TileDiffer.TILE_SIZE - 1) / TileDiffer.TILE_SIZE);
+        for (int ty = fromY; ty < toY; ty++) {
+            Arrays.fill(dirty, ty * tilesX + fromX, ty * tilesX + toX, true);
+        }
+    }
+
+    public boolean isEmpty() {
+        for (boolean d : dirty) {
+            if (d) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int getTilesX() {
+        return tilesX;
+    }
+
+    @Override
+    public int getTilesY() {
+        return tilesY;
+    }
+
+    @Override
+    public boolean isDirty(int tileX, int tileY) {
+        return dirty[tileY * tilesX + tileX];
+    }
+}
@@ -0,0 +1,20 @@
+package server;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/*
+ * Nguồn ảnh cho stage capture của ShareScreen: màn hình thật (RobotFrameSource) hoặc
+ * ảnh dựng theo kịch bản (SyntheticFrameSource) để đo pipeline trên máy không có màn hình.
+ * Chỉ thread capture gọi capture(); mỗi lần trả về 1 ảnh mới, pipeline giữ ảnh đó.
+ */
+interface FrameSource {
+    // Các nguồn con (màn hình/vùng) chọn được bằng ShareScreen.selectStream()
+    CaptureStreams getStreams();
+
+    BufferedImage capture(Rectangle area) throws Exception;
+
+    // Vị trí chuột (tọa độ desktop ảo) cho CursorTracker; null = không có chuột
+    Point getPointer();
+}
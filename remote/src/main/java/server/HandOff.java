@@ -0,0 +1,59 @@
+package server;
+
+import java.util.function.BinaryOperator;
+
+/*
+ * Chỗ trao đổi 1 phần tử giữa 2 stage của pipeline ShareScreen.
+ * - replace/merge: không bao giờ chặn bên gửi, phần tử chưa được lấy bị thay (hoặc gộp) bởi phần tử mới
+ * - put: chặn tới khi bên nhận lấy phần tử trước đó
+ * take() trả về null khi đã close().
+ */
+class HandOff<T> {
+    private T item;
+    private boolean closed = false;
+
+    // Trả về phần tử cũ bị thay thế (null nếu slot trống)
+    synchronized T replace(T value) {
+        T old = item;
+        item = value;
+        notifyAll();
+        return old;
+    }
+
+    // Gộp với phần tử chưa được lấy; trả về true nếu đã gộp
+    synchronized boolean merge(T value, BinaryOperator<T> merger) {
+        boolean merged = item != null;
+        item = merged ? merger.apply(item, value) : value;
+        notifyAll();
+        return merged;
+    }
+
+    synchronized void put(T value) throws InterruptedException {
+        while (item != null && !closed) {
+            wait();
+        }
+        if (closed) {
+            return;
+        }
+        item = value;
+        notifyAll();
+    }
+
+    synchronized T take() throws InterruptedException {
+        while (item == null && !closed) {
+            wait();
+        }
+        if (closed) {
+            return null;
+        }
+        T value = item;
+        item = null;
+        notifyAll();
+        return value;
+    }
+
+    synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+}
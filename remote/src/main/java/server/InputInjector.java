@@ -0,0 +1,242 @@
+package server;
+
+import common.Commands;
+import common.ControlProtocol;
+import java.awt.Rectangle;
+import java.awt.event.InputEvent;
+import java.util.function.Supplier;
+
+/*
+ * Thực thi sự kiện chuột/phím trên 1 thread riêng, theo đúng thứ tự nhận, để thread đọc socket control
+ * không bị chặn bởi lời gọi Robot chậm.
+ * - Hàng đợi vòng CAPACITY phần tử cấp sẵn (không cấp phát mỗi sự kiện); đầy thì submit() chờ, không bỏ sự kiện.
+ * - Di/kéo chuột trùng lệnh với phần tử cuối hàng đợi (chưa thực thi) thì ghi đè vị trí: khi Robot chậm,
+ *   chỉ vị trí mới nhất còn ý nghĩa; nút/phím không bao giờ bị gộp nên thứ tự với chúng giữ nguyên.
+ * - Seq (BATCH_SEQ) chỉ được coi là đã áp sau khi Robot thực thi xong sự kiện đó.
+ */
+class InputInjector {
+    private static final int CAPACITY = 1024;
+    private static final long STATS_INTERVAL_NANOS = 30_000_000_000L;
+
+    private final InputSink sink;
+    // Vùng đang chia sẻ; tỉ lệ tọa độ từ viewer tính theo vùng này
+    private final Supplier<Rectangle> captureArea;
+    private final Thread thread;
+
+    // Hàng đợi vòng, bảo vệ bởi lock
+    private final Object lock = new Object();
+    private final Commands[] commands = new Commands[CAPACITY];
+    private final int[] args = new int[CAPACITY];
+    private final double[] xs = new double[CAPACITY];
+    private final double[] ys = new double[CAPACITY];
+    private final int[] sequences = new int[CAPACITY];
+    private final long[] enqueuedNanos = new long[CAPACITY];
+    private int head = 0;
+    private int size = 0;
+    private boolean closed = false;
+
+    // Thống kê (bảo vệ bởi lock)
+    private long executed = 0;
+    private long coalesced = 0;
+    private long fullWaits = 0;
+    private long maxQueueNanos = 0;
+
+    private volatile int appliedInput = 0;
+
+    InputInjector(InputSink sink, Supplier<Rectangle> captureArea) {
+        this.sink = sink;
+        this.captureArea = captureArea;
+        this.thread = new Thread(this::run, "ReceiveEvent-input");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Chép sự kiện vào hàng đợi (event được dùng lại bởi người gọi); sequence 0 = không đánh số
+    void submit(ControlProtocol.Event event, int sequence) throws InterruptedException {
+        long now = System.nanoTime();
+        synchronized (lock) {
+            if (size > 0 && event.command != null && event.command.hasPointer()) {
+                int tail = (head + size - 1) % CAPACITY;
+                if (commands[tail] == event.command) {
+                    args[tail] = event.arg;
+                    xs[tail] = event.x;
+                    ys[tail] = event.y;
+                    sequences[tail] = sequence != 0 ? sequence : sequences[tail];
+                    coalesced++;
+                    return;
+                }
+            }
+            if (size == CAPACITY) {
+                fullWaits++;
+                while (size == CAPACITY && !closed) {
+                    lock.wait();
+                }
+            }
+            if (closed) {
+                return;
+            }
+            int slot = (head + size) % CAPACITY;
+            commands[slot] = event.command;
+            args[slot] = event.arg;
+            xs[slot] = event.x;
+            ys[slot] = event.y;
+            sequences[slot] = sequence;
+            enqueuedNanos[slot] = now;
+            size++;
+            lock.notifyAll();
+        }
+    }
+
+    int getAppliedInput() {
+        return appliedInput;
+    }
+
+    // Viewer mới đánh số lại từ đầu
+    void resetAppliedInput() {
+        appliedInput = 0;
+    }
+
+    void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        thread.interrupt();
+    }
+
+    String describe() {
+        synchronized (lock) {
+            return String.format("events=%d coalesced=%d queue=%d full waits=%d max queue delay=%.2f ms", executed,
+                    coalesced, size, fullWaits, maxQueueNanos / 1e6);
+        }
+    }
+
+    long getExecuted() {
+        synchronized (lock) {
+            return executed;
+        }
+    }
+
+    // Độ trễ hàng đợi lớn nhất từ lần gọi trước
+    long takeMaxQueueNanos() {
+        synchronized (lock) {
+            long max = maxQueueNanos;
+            maxQueueNanos = 0;
+            return max;
+        }
+    }
+
+    private void run() {
+        ControlProtocol.Event event = new ControlProtocol.Event();
+        long lastStats = System.nanoTime();
+        try {
+            while (true) {
+                int sequence;
+                synchronized (lock) {
+                    while (size == 0 && !closed) {
+                        lock.wait();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    event.command = commands[head];
+                    event.arg = args[head];
+                    event.x = xs[head];
+                    event.y = ys[head];
+                    sequence = sequences[head];
+                    long queued = System.nanoTime() - enqueuedNanos[head];
+                    maxQueueNanos = Math.max(maxQueueNanos, queued);
+                    commands[head] = null;
+                    head = (head + 1) % CAPACITY;
+                    size--;
+                    executed++;
+                    lock.notifyAll();
+                }
+                // Lỗi của 1 sự kiện (Robot từ chối mã phím...) không làm dừng các sự kiện sau
+                try {
+                    dispatch(event);
+                } catch (Exception e) {
+                    System.err.println("Error processing control event: " + e.getMessage());
+                    e.printStackTrace();
+                }
+                if (sequence != 0) {
+                    appliedInput = sequence;
+                }
+
+                long now = System.nanoTime();
+                if (now - lastStats >= STATS_INTERVAL_NANOS) {
+                    System.out.println("[InputInjector] " + describe());
+                    lastStats = now;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void dispatch(ControlProtocol.Event event) {
+        if (event.command == null) {
+            System.out.println("Unknown command: " + event.arg);
+            return;
+        }
+        switch (event.command) {
+            case PRESS_MOUSE: {
+                int buttonMask = getButtonMask(event.arg);
+                if (buttonMask != 0) {
+                    sink.mousePress(buttonMask);
+                }
+                break;
+            }
+            case RELEASE_MOUSE: {
+                int releaseMask = getButtonMask(event.arg);
+                if (releaseMask != 0) {
+                    sink.mouseRelease(releaseMask);
+                }
+                break;
+            }
+            case PRESS_KEY:
+                if (isValidKeyCode(event.arg)) {
+                    sink.keyPress(event.arg);
+                }
+                break;
+            case RELEASE_KEY:
+                if (isValidKeyCode(event.arg)) {
+                    sink.keyRelease(event.arg);
+                }
+                break;
+            case MOVE_MOUSE:
+            case MOUSE_DRAGGED: {
+                Rectangle area = captureArea.get();
+                sink.mouseMove(area.x + (int) (event.x * area.width), area.y + (int) (event.y * area.height));
+                break;
+            }
+            case QUANTITY: // Mouse click
+                sink.mousePress(event.arg);
+                sink.mouseRelease(event.arg);
+                break;
+            case MOUSE_WHEEL_MOVED:
+                sink.mouseWheel(event.arg);
+                break;
+            default:
+                System.out.println("Unknown command: " + event.command);
+                break;
+        }
+    }
+
+    static int getButtonMask(int button) {
+        switch (button) {
+            case 1:
+                return InputEvent.BUTTON1_DOWN_MASK;
+            case 2:
+                return InputEvent.BUTTON2_DOWN_MASK;
+            case 3:
+                return InputEvent.BUTTON3_DOWN_MASK;
+            default:
+                return 0;
+        }
+    }
+
+    private static boolean isValidKeyCode(int keyCode) {
+        return keyCode > 0 && keyCode <= 65535;
+    }
+}
@@ -0,0 +1,19 @@
+package server;
+
+/*
+ * Đích của sự kiện chuột/phím mà InputInjector thực thi: Robot thật (RobotInputSink) hoặc sink giả
+ * để đo hàng đợi mà không đụng tới màn hình. Chỉ thread của InputInjector gọi.
+ */
+interface InputSink {
+    void mouseMove(int x, int y);
+
+    void mousePress(int buttons);
+
+    void mouseRelease(int buttons);
+
+    void mouseWheel(int amount);
+
+    void keyPress(int keyCode);
+
+    void keyRelease(int keyCode);
+}
@@ -0,0 +1,142 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Thời gian từng stage của pipeline ShareScreen và độ trễ từ lúc chụp tới lúc ghi xong xuống socket
+public class PipelineMetrics {
+    public static final int CAPTURE = 0;
+    public static final int DIFF = 1;
+    public static final int ENCODE = 2;
+    public static final int SEND = 3;
+    private static final String[] STAGE_NAMES = { "capture", "diff", "encode", "send" };
+
+    private final AtomicLongArray stageCount = new AtomicLongArray(STAGE_NAMES.length);
+    private final AtomicLongArray stageTotalNanos = new AtomicLongArray(STAGE_NAMES.length);
+    private final AtomicLongArray stageMaxNanos = new AtomicLongArray(STAGE_NAMES.length);
+
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong latencyTotalNanos = new AtomicLong();
+    private final AtomicLong latencyMaxNanos = new AtomicLong();
+    // Frame bị frame mới hơn thay thế (capture → diff) hoặc gộp vào (diff → encode)
+    private final AtomicLong framesSuperseded = new AtomicLong();
+    // Lưu lượng tách riêng ảnh và con trỏ, cùng số ô bị hoãn vì nằm dưới con trỏ
+    private final AtomicLong frameBytes = new AtomicLong();
+    private final AtomicLong cursorBytes = new AtomicLong();
+    private final AtomicLong deferredTiles = new AtomicLong();
+    // Cache khối: số lần tra, số lần trúng, số byte ước tính không phải gửi
+    private final AtomicLong cacheLookups = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheSavedBytes = new AtomicLong();
+    private volatile long lastSnapshot = System.nanoTime();
+
+    public void recordStage(int stage, long nanos) {
+        stageCount.incrementAndGet(stage);
+        stageTotalNanos.addAndGet(stage, nanos);
+        long max;
+        while (nanos > (max = stageMaxNanos.get(stage))) {
+            if (stageMaxNanos.compareAndSet(stage, max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    public void recordSent(long captureToWireNanos) {
+        framesSent.incrementAndGet();
+        latencyTotalNanos.addAndGet(captureToWireNanos);
+        long max;
+        while (captureToWireNanos > (max = latencyMaxNanos.get())) {
+            if (latencyMaxNanos.compareAndSet(max, captureToWireNanos)) {
+                break;
+            }
+        }
+    }
+
+    public void recordSuperseded() {
+        framesSuperseded.incrementAndGet();
+    }
+
+    public void recordFrameBytes(long bytes) {
+        frameBytes.addAndGet(bytes);
+    }
+
+    public void recordCursorBytes(long bytes) {
+        cursorBytes.addAndGet(bytes);
+    }
+
+    public void recordDeferred(int tiles) {
+        deferredTiles.addAndGet(tiles);
+    }
+
+    public void recordCache(int lookups, int hits, long savedBytes) {
+        cacheLookups.addAndGet(lookups);
+        cacheHits.addAndGet(hits);
+        cacheSavedBytes.addAndGet(savedBytes);
+    }
+
+    public double getCacheHitRate() {
+        long lookups = cacheLookups.get();
+        return lookups == 0 ? 0 : (double) cacheHits.get() / lookups;
+    }
+
+    public double getAverageStageMillis(int stage) {
+        long count = stageCount.get(stage);
+        return count == 0 ? 0 : stageTotalNanos.get(stage) / (count * 1e6);
+    }
+
+    public double getMaxStageMillis(int stage) {
+        return stageMaxNanos.get(stage) / 1e6;
+    }
+
+    public double getAverageLatencyMillis() {
+        long count = framesSent.get();
+        return count == 0 ? 0 : latencyTotalNanos.get() / (count * 1e6);
+    }
+
+    public double getMaxLatencyMillis() {
+        return latencyMaxNanos.get() / 1e6;
+    }
+
+    public long getFramesSent() {
+        return framesSent.get();
+    }
+
+    public long getFramesSuperseded() {
+        return framesSuperseded.get();
+    }
+
+    // Chuỗi tóm tắt rồi đặt lại bộ đếm (dùng cho log định kỳ)
+    public String snapshotAndReset() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < STAGE_NAMES.length; i++) {
+            sb.append(String.format("%s=%.1f/%.1fms ", STAGE_NAMES[i],
+                    getAverageStageMillis(i), getMaxStageMillis(i)));
+        }
+        sb.append(String.format("latency=%.1f/%.1fms sent=%d superseded=%d",
+                getAverageLatencyMillis(), getMaxLatencyMillis(), framesSent.get(), framesSuperseded.get()));
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-3, (now - lastSnapshot) / 1e9);
+        sb.append(String.format(" screen=%.1fKB/s cursor=%.0fB/s deferred=%d",
+                frameBytes.get() / 1024.0 / seconds, cursorBytes.get() / seconds, deferredTiles.get()));
+        sb.append(String.format(" cache=%d/%d(%.0f%%) saved=%.1fKB/s", cacheHits.get(), cacheLookups.get(),
+                getCacheHitRate() * 100, cacheSavedBytes.get() / 1024.0 / seconds));
+
+        for (int i = 0; i < STAGE_NAMES.length; i++) {
+            stageCount.set(i, 0);
+            stageTotalNanos.set(i, 0);
+            stageMaxNanos.set(i, 0);
+        }
+        framesSent.set(0);
+        latencyTotalNanos.set(0);
+        latencyMaxNanos.set(0);
+        framesSuperseded.set(0);
+        frameBytes.set(0);
+        cursorBytes.set(0);
+        deferredTiles.set(0);
+        cacheLookups.set(0);
+        cacheHits.set(0);
+        cacheSavedBytes.set(0);
+        lastSnapshot = now;
+        return sb.toString();
+    }
+}
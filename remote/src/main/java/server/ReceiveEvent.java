@@ -1,10 +1,14 @@
 package server;
 
+import common.ControlProtocol;
+import common.ScreenProtocol;
+import java.awt.Rectangle;
 import java.awt.Robot;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.net.Socket;
-import java.awt.event.InputEvent;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javax.swing.JButton;
 import javax.swing.SwingUtilities;
 
@@ -17,7 +21,16 @@ public class ReceiveEvent extends Thread {
     private Socket screenSocket;
     private Socket chatSocket;
     private JButton btnStartShare;
-    private ShareScreen currentShareScreen = null;
+    private volatile ShareScreen currentShareScreen = null;
+    // Thread này chỉ đọc socket; Robot chạy ở InputInjector, khởi động/dừng ShareScreen ở sessionControl
+    private final InputInjector injector;
+    private final ExecutorService sessionControl = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "ReceiveEvent-session");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Chờ ShareScreen cũ dừng hẳn trước khi ShareScreen mới dùng lại kênh screen
+    private static final long SHARE_STOP_TIMEOUT_MS = 2000;
 
     public ReceiveEvent(Socket controlSocket, Socket screenSocket, Socket chatSocket,
             Robot robot, int h, int w, JButton btnStartShare) {
@@ -30,6 +43,7 @@ public class ReceiveEvent extends Thread {
         this.w = w;
 
         this.btnStartShare = btnStartShare;
+        this.injector = new InputInjector(new RobotInputSink(robot), this::getCaptureArea);
         try {
             this.dis = new DataInputStream(this.controlSocket.getInputStream());
         } catch (Exception e) {
@@ -43,125 +57,64 @@ public class ReceiveEvent extends Thread {
     public void run() {
         try {
 
+            ControlProtocol.Event event = new ControlProtocol.Event();
+            ControlProtocol.BatchReader batch = new ControlProtocol.BatchReader();
             while (true) {
-                String data = dis.readUTF();
+                // Frame sự kiện, sự kiện nhị phân lẻ hoặc chuỗi writeUTF (lệnh của relay, viewer cũ)
+                int first = dis.readUnsignedByte();
+                if (first == ControlProtocol.BATCH || first == ControlProtocol.BATCH_SEQ) {
+                    batch.read(dis, first);
+                    while (batch.next(event)) {
+                        injector.submit(event, batch.getSequence());
+                    }
+                    continue;
+                }
+                if (first == ControlProtocol.MARKER) {
+                    ControlProtocol.readEvent(dis, event);
+                    injector.submit(event, 0);
+                    continue;
+                }
+                if (first == ControlProtocol.SIZED) {
+                    // Mã lệnh lạ được bỏ qua, InputInjector báo "Unknown command"
+                    ControlProtocol.readSizedEvent(dis, event);
+                    injector.submit(event, 0);
+                    continue;
+                }
+                String data = ControlProtocol.readUTF(dis, first);
 
                 if (data.equals("START_SESSION")) {
                     System.out.println("ReceiveEvent (Sharer): Nhận START_SESSION - Khởi động ShareScreen");
-
-                    new Thread(() -> {
-                        try {
-                            currentShareScreen = new ShareScreen(this.screenSocket, this.chatSocket);
-                        } catch (Exception e) {
-                            System.err.println("Error starting ShareScreen: " + e.getMessage());
-                            e.printStackTrace();
-                        }
-                    }).start();
-
+                    sessionControl.execute(() -> startShareScreen(false));
                     continue;
                 }
 
                 if (data.equals("RESTART_SHARESCREEN")) {
                     System.out.println("ReceiveEvent (Sharer): Nhận RESTART_SHARESCREEN");
+                    sessionControl.execute(() -> startShareScreen(true));
+                    continue;
+                }
 
-                    if (currentShareScreen != null) {
-                        currentShareScreen.stop();
-                        System.out.println("ReceiveEvent (Sharer): Đã dừng ShareScreen cũ");
-                        Thread.sleep(500); // Đợi thread cũ dừng hoàn toàn
-                    }
-
-                    new Thread(() -> {
-                        try {
-                            currentShareScreen = new ShareScreen(this.screenSocket, this.chatSocket);
-                            System.out.println("ReceiveEvent (Sharer): Đã khởi động ShareScreen mới");
-                        } catch (Exception e) {
-                            System.err.println("Error restarting ShareScreen: " + e.getMessage());
-                            e.printStackTrace();
+                if (data.startsWith(ScreenProtocol.SELECT_STREAM + ",")) {
+                    ShareScreen shareScreen = currentShareScreen;
+                    try {
+                        int stream = Integer.parseInt(data.substring(ScreenProtocol.SELECT_STREAM.length() + 1));
+                        if (shareScreen == null || !shareScreen.selectStream(stream)) {
+                            System.err.println("ReceiveEvent (Sharer): Không chọn được nguồn " + stream);
                         }
-                    }).start();
-
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid control data format (not a number): " + data);
+                    }
                     continue;
                 }
 
                 try {
-                    String[] parts = data.split(",");
-                    if (parts.length == 0) {
-                        System.err.println("Invalid control data (empty): " + data);
-                        continue;
-                    }
-
-                    int command = Integer.parseInt(parts[0]);
-
-                    switch (command) {
-                        case -1: {
-                            int buttonMask = getButtonMask(Integer.parseInt(parts[1]));
-                            if (buttonMask != 0) {
-                                robot.mousePress(buttonMask);
-                            }
-                            break;
-                        }
-                        case -2: {
-                            int releaseMask = getButtonMask(Integer.parseInt(parts[1]));
-                            if (releaseMask != 0) {
-                                robot.mouseRelease(releaseMask);
-                            }
-                            break;
-                        }
-                        case -3: {
-                            int keycode = Integer.parseInt(parts[1]);
-                            if (isValidKeyCode(keycode)) {
-                                robot.keyPress(keycode);
-                            }
-                            break;
-                        }
-                        case -4: {
-                            int keycode = Integer.parseInt(parts[1]);
-                            if (isValidKeyCode(keycode)) {
-                                robot.keyRelease(keycode);
-                            }
-                            break;
-                        }
-                        case -5: {
-                            if (parts.length < 4) {
-                                break;
-                            }
-                            double xRatio = Double.parseDouble(parts[2]);
-                            double yRatio = Double.parseDouble(parts[3]);
-                            int x = (int) (xRatio * w);
-                            int y = (int) (yRatio * h);
-                            robot.mouseMove(x, y);
-                            break;
-                        }
-                        case -6: // Mouse click
-                            robot.mousePress(Integer.parseInt(parts[1]));
-                            robot.mouseRelease(Integer.parseInt(parts[1]));
-                            break;
-                        case -7: // Mouse wheel
-                            robot.mouseWheel(Integer.parseInt(parts[1]));
-                            break;
-                        case -8: { // Mouse drag
-                            if (parts.length < 4) {
-
-                                break;
-                            }
-                            double xRatio = Double.parseDouble(parts[2]);
-                            double yRatio = Double.parseDouble(parts[3]);
-                            int x = (int) (xRatio * w);
-                            int y = (int) (yRatio * h);
-                            robot.mouseMove(x, y);
-                            break;
-                        }
-                        default:
-                            System.out.println("Unknown command: " + command);
-                            break;
+                    if (ControlProtocol.parseText(data, event)) {
+                        injector.submit(event, 0);
+                    } else {
+                        System.err.println("Invalid control data format (missing parts): " + data);
                     }
                 } catch (NumberFormatException e) {
                     System.err.println("Invalid control data format (not a number): " + data);
-                } catch (ArrayIndexOutOfBoundsException e) {
-                    System.err.println("Invalid control data format (missing parts): " + data);
-                } catch (Exception e) {
-                    System.err.println("Error processing control event: " + e.getMessage());
-                    e.printStackTrace();
                 }
             }
 
@@ -172,6 +125,8 @@ public class ReceiveEvent extends Thread {
             e.printStackTrace();
         } finally {
 
+            injector.close();
+            sessionControl.shutdownNow();
             if (currentShareScreen != null) {
                 currentShareScreen.stop();
             }
@@ -201,26 +156,41 @@ public class ReceiveEvent extends Thread {
         }
     }
 
-    public int getButtonMask(int button) {
-        switch (button) {
-            case 1:
-                return InputEvent.BUTTON1_DOWN_MASK;
-            case 2:
-                return InputEvent.BUTTON2_DOWN_MASK;
-            case 3:
-                return InputEvent.BUTTON3_DOWN_MASK;
-            default:
-                return 0;
+    // Chạy trên thread sessionControl, nên START/RESTART liên tiếp luôn thực hiện lần lượt
+    private void startShareScreen(boolean restart) {
+        try {
+            ShareScreen old = currentShareScreen;
+            if (restart && old != null) {
+                old.stop();
+                if (old.awaitStopped(SHARE_STOP_TIMEOUT_MS)) {
+                    System.out.println("ReceiveEvent (Sharer): Đã dừng ShareScreen cũ");
+                } else {
+                    System.err.println("ReceiveEvent (Sharer): ShareScreen cũ chưa dừng sau " + SHARE_STOP_TIMEOUT_MS
+                            + " ms, vẫn khởi động bản mới");
+                }
+            }
+            // Viewer mới đánh số sự kiện lại từ đầu
+            injector.resetAppliedInput();
+            currentShareScreen = new ShareScreen(this.screenSocket, this.chatSocket, injector::getAppliedInput);
+            if (restart) {
+                System.out.println("ReceiveEvent (Sharer): Đã khởi động ShareScreen mới");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println((restart ? "Error restarting ShareScreen: " : "Error starting ShareScreen: ")
+                    + e.getMessage());
+            e.printStackTrace();
         }
     }
 
-    private boolean isValidKeyCode(int keyCode) {
-        if (keyCode < 0 || keyCode > 65535) {
-            return false;
-        }
-        if (keyCode == 0) {
-            return false;
-        }
-        return true;
+    // Tỉ lệ từ viewer tính theo vùng đang chia sẻ (màn hình đang chọn hoặc vùng con), không phải màn hình chính
+    private Rectangle getCaptureArea() {
+        ShareScreen shareScreen = currentShareScreen;
+        return shareScreen != null ? shareScreen.getCaptureArea() : new Rectangle(w, h);
+    }
+
+    public int getButtonMask(int button) {
+        return InputInjector.getButtonMask(button);
     }
-}
\ No newline at end of file
+}
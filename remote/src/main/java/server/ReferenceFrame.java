@@ -0,0 +1,65 @@
+package server;
+
+import common.ImagePixels;
+import java.awt.image.BufferedImage;
+
+/*
+ * Bản sao những pixel đã được đưa sang encode (tức viewer sẽ có). Stage diff so với bản này
+ * thay vì frame chụp trước, nên ô bị hoãn (dưới con trỏ) vẫn thấy là thay đổi cho tới khi được gửi.
+ * Chỉ thread diff dùng.
+ */
+class ReferenceFrame {
+    private BufferedImage image;
+
+    // null trước frame đầu tiên
+    BufferedImage getImage() {
+        return image;
+    }
+
+    // Áp lệnh chép giống hệt viewer sẽ làm
+    void apply(ScrollDetector.Shift shift) {
+        ImagePixels.copyArea(image, shift.dst, shift.dx, shift.dy);
+    }
+
+    // Chép các ô đã gửi của frame vào bản tham chiếu; sent null hoặc khác kích thước = chép toàn bộ
+    void update(BufferedImage frame, TileGrid sent) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        boolean resized = image == null || image.getWidth() != width || image.getHeight() != height;
+        if (resized) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+
+        ImagePixels src = ImagePixels.of(frame);
+        ImagePixels dst = ImagePixels.of(image);
+        if (resized || sent == null) {
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(src.data, src.offset + y * src.stride, dst.data, dst.offset + y * dst.stride, width);
+            }
+            return;
+        }
+
+        int tile = TileDiffer.TILE_SIZE;
+        for (int ty = 0; ty < sent.getTilesY(); ty++) {
+            int endY = Math.min((ty + 1) * tile, height);
+            int tx = 0;
+            while (tx < sent.getTilesX()) {
+                if (!sent.isDirty(tx, ty)) {
+                    tx++;
+                    continue;
+                }
+                // Chép cả dãy ô liền nhau trên cùng hàng trong 1 lần arraycopy mỗi dòng
+                int runStart = tx;
+                while (tx < sent.getTilesX() && sent.isDirty(tx, ty)) {
+                    tx++;
+                }
+                int x = runStart * tile;
+                int length = Math.min(tx * tile, width) - x;
+                for (int y = ty * tile; y < endY; y++) {
+                    System.arraycopy(src.data, src.offset + y * src.stride + x,
+                            dst.data, dst.offset + y * dst.stride + x, length);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package server;
+
+import common.ImagePixels;
+import common.ScreenProtocol;
+import common.codec.Codecs;
+import common.codec.EncodeBuffer;
+import common.codec.FrameCodec;
+import common.codec.TileClassifier;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Chia mỗi vùng thay đổi thành khối BLOCK_SIZE, phân loại từng khối để chọn codec,
+ * rồi gộp các khối liền nhau cùng codec (theo hàng, và cả dải hàng giống hệt nhau)
+ * để không tốn header cho từng khối.
+ */
+public class RegionEncoder {
+    static final int BLOCK_SIZE = 4 * TileDiffer.TILE_SIZE;
+
+    private final FrameCodec[] codecs = Codecs.createAll();
+    private final TileClassifier classifier = new TileClassifier();
+    private int codecMask = 1 << Codecs.JPEG;
+
+    public void setCodecMask(int viewerMask) {
+        this.codecMask = (viewerMask & Codecs.SUPPORTED_MASK) | 1 << Codecs.JPEG;
+    }
+
+    // Dữ liệu được ghi nối vào buffer; kết quả là vị trí của từng vùng trong buffer
+    public List<EncodedRegion> encode(BufferedImage frame, List<Rectangle> regions, float quality,
+            EncodeBuffer buffer) throws IOException {
+        ImagePixels pixels = ImagePixels.of(frame);
+        List<EncodedRegion> result = new ArrayList<>();
+        for (Rectangle region : regions) {
+            Rectangle previous = null;
+            byte previousCodec = -1;
+            boolean previousWholeRow = false;
+
+            for (int y = region.y; y < region.y + region.height; y += BLOCK_SIZE) {
+                int h = Math.min(BLOCK_SIZE, region.y + region.height - y);
+                List<Rectangle> runs = new ArrayList<>();
+                List<Byte> runCodecs = new ArrayList<>();
+                for (int x = region.x; x < region.x + region.width; x += BLOCK_SIZE) {
+                    int w = Math.min(BLOCK_SIZE, region.x + region.width - x);
+                    byte codec = classifier.classify(pixels, new Rectangle(x, y, w, h), codecMask);
+                    int last = runs.size() - 1;
+                    if (last >= 0 && runCodecs.get(last) == codec) {
+                        runs.get(last).width += w;
+                    } else {
+                        runs.add(new Rectangle(x, y, w, h));
+                        runCodecs.add(codec);
+                    }
+                }
+
+                // Cả hàng khối dùng 1 codec, giống hàng trước → nối dài vùng trước xuống
+                boolean wholeRow = runs.size() == 1;
+                if (wholeRow && previousWholeRow && previousCodec == runCodecs.get(0)) {
+                    previous.height += h;
+                    continue;
+                }
+                for (int i = 0; i < runs.size(); i++) {
+                    if (previous != null) {
+                        result.add(encodeRun(frame, previous, previousCodec, quality, buffer));
+                    }
+                    previous = runs.get(i);
+                    previousCodec = runCodecs.get(i);
+                }
+                previousWholeRow = wholeRow;
+            }
+            if (previous != null) {
+                result.add(encodeRun(frame, previous, previousCodec, quality, buffer));
+            }
+        }
+        return result;
+    }
+
+    // Lệnh chép vùng (ScreenProtocol.REGION_COPY): dữ liệu là [int dx][int dy]
+    public EncodedRegion encodeCopy(ScrollDetector.Shift shift, EncodeBuffer buffer) throws IOException {
+        int offset = buffer.size();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(shift.dx);
+        out.writeInt(shift.dy);
+        return new EncodedRegion(shift.dst, ScreenProtocol.REGION_COPY, offset, buffer.size() - offset);
+    }
+
+    private EncodedRegion encodeRun(BufferedImage frame, Rectangle rect, byte codecId, float quality,
+            EncodeBuffer buffer) throws IOException {
+        int offset = buffer.size();
+        codecs[codecId].encode(frame, rect, quality, buffer);
+        return new EncodedRegion(rect, codecId, offset, buffer.size() - offset);
+    }
+
+    public static class EncodedRegion {
+        final Rectangle rect;
+        final byte codec;
+        final int offset;
+        final int length;
+
+        EncodedRegion(Rectangle rect, byte codec, int offset, int length) {
+            this.rect = rect;
+            this.codec = codec;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
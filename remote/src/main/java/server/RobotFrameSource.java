@@ -0,0 +1,36 @@
+package server;
+
+import java.awt.AWTException;
+import java.awt.MouseInfo;
+import java.awt.Point;
+import java.awt.PointerInfo;
+import java.awt.Rectangle;
+import java.awt.Robot;
+import java.awt.image.BufferedImage;
+
+// Chụp màn hình thật bằng java.awt.Robot
+class RobotFrameSource implements FrameSource {
+    private final CaptureStreams streams;
+    private final Robot robot;
+
+    RobotFrameSource(CaptureStreams streams) throws AWTException {
+        this.streams = streams;
+        this.robot = new Robot();
+    }
+
+    @Override
+    public CaptureStreams getStreams() {
+        return streams;
+    }
+
+    @Override
+    public BufferedImage capture(Rectangle area) {
+        return robot.createScreenCapture(area);
+    }
+
+    @Override
+    public Point getPointer() {
+        PointerInfo info = MouseInfo.getPointerInfo();
+        return info != null ? info.getLocation() : null;
+    }
+}
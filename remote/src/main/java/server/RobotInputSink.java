@@ -0,0 +1,42 @@
+package server;
+
+import java.awt.Robot;
+
+// Thực thi sự kiện bằng java.awt.Robot
+class RobotInputSink implements InputSink {
+    private final Robot robot;
+
+    RobotInputSink(Robot robot) {
+        this.robot = robot;
+    }
+
+    @Override
+    public void mouseMove(int x, int y) {
+        robot.mouseMove(x, y);
+    }
+
+    @Override
+    public void mousePress(int buttons) {
+        robot.mousePress(buttons);
+    }
+
+    @Override
+    public void mouseRelease(int buttons) {
+        robot.mouseRelease(buttons);
+    }
+
+    @Override
+    public void mouseWheel(int amount) {
+        robot.mouseWheel(amount);
+    }
+
+    @Override
+    public void keyPress(int keyCode) {
+        robot.keyPress(keyCode);
+    }
+
+    @Override
+    public void keyRelease(int keyCode) {
+        robot.keyRelease(keyCode);
+    }
+}
@@ -0,0 +1,240 @@
+package server;
+
+import common.ImagePixels;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/*
+ * Tìm khối nội dung bị dịch dọc (cuộn) hoặc ngang giữa ảnh viewer đang có và frame mới.
+ * Băm từng dòng (hoặc cột) của vùng thay đổi theo dải SEGMENT pixel, bầu chọn độ dịch từ
+ * vài dòng "có nét", rồi lấy dải liền dài nhất khớp với độ dịch đó ở mọi dải cột.
+ * Va chạm hash không gây sai ảnh: sau khi chép, stage diff so lại pixel và gửi phần còn khác.
+ * Chỉ thread diff dùng.
+ */
+class ScrollDetector {
+    private static final int SEGMENT = 64;
+    // Số dòng (cột) liền tối thiểu đáng để gửi lệnh chép
+    private static final int MIN_RUN = 32;
+    private static final int ANCHORS_PER_SEGMENT = 8;
+    private static final int MIN_VOTES = 3;
+
+    private int[] oldHashes = new int[0];
+    private int[] newHashes = new int[0];
+    private int[] votes = new int[0];
+
+    // null nếu không thấy khối dịch nào đủ lớn trong box
+    Shift detect(BufferedImage oldImg, BufferedImage newImg, Rectangle box) {
+        ImagePixels oldPixels = ImagePixels.of(oldImg);
+        ImagePixels newPixels = ImagePixels.of(newImg);
+        Shift shift = detect(oldPixels, newPixels, box, true);
+        return shift != null ? shift : detect(oldPixels, newPixels, box, false);
+    }
+
+    // rows = true: dòng là các hàng pixel, dải chia theo x (cuộn dọc); false: dòng là cột (cuộn ngang)
+    private Shift detect(ImagePixels oldPixels, ImagePixels newPixels, Rectangle box, boolean rows) {
+        int lines = rows ? box.height : box.width;
+        int span = rows ? box.width : box.height;
+        if (lines < 2 * MIN_RUN || span < SEGMENT) {
+            return null;
+        }
+        int segments = (span + SEGMENT - 1) / SEGMENT;
+        if (oldHashes.length < segments * lines) {
+            oldHashes = new int[segments * lines];
+            newHashes = new int[segments * lines];
+        }
+        hashLines(oldPixels, box, rows, segments, lines, oldHashes);
+        hashLines(newPixels, box, rows, segments, lines, newHashes);
+
+        int offset = bestOffset(segments, lines);
+        if (offset == 0) {
+            return null;
+        }
+
+        // Dải cột liền dài nhất mà mỗi dải khớp ít nhất MIN_RUN dòng với độ dịch này
+        int bestFrom = 0, bestTo = 0;
+        int from = 0;
+        for (int s = 0; s <= segments; s++) {
+            if (s < segments && matchingLines(s, lines, offset) >= MIN_RUN) {
+                continue;
+            }
+            if (s - from > bestTo - bestFrom) {
+                bestFrom = from;
+                bestTo = s;
+            }
+            from = s + 1;
+        }
+        if (bestTo == bestFrom) {
+            return null;
+        }
+        int segFrom = bestFrom, segTo = bestTo;
+
+        // Dải dòng liền dài nhất khớp ở mọi dải cột đã chọn; dải ở mép (thanh cuộn...) có thể cắt ngắn
+        // dải dòng, nên thử bỏ bớt 1 dải mỗi mép và giữ phương án có diện tích lớn nhất
+        long bestArea = 0;
+        int runStart = 0, runLength = 0;
+        for (int trim = 0; trim < 4; trim++) {
+            int trimFrom = bestFrom + (trim & 1);
+            int trimTo = bestTo - (trim >> 1);
+            if (trimTo <= trimFrom) {
+                continue;
+            }
+            long run = longestRun(trimFrom, trimTo, lines, offset);
+            int length = (int) run;
+            if ((long) length * (trimTo - trimFrom) > bestArea) {
+                bestArea = (long) length * (trimTo - trimFrom);
+                runStart = (int) (run >>> 32);
+                runLength = length;
+                segFrom = trimFrom;
+                segTo = trimTo;
+            }
+        }
+        if (runLength < MIN_RUN) {
+            return null;
+        }
+
+        // Dải cột ở mép (thanh cuộn, viền...) chỉ khớp 1 phần: nới từng cột pixel bằng so sánh trực tiếp
+        int spanFrom = segFrom * SEGMENT;
+        int spanTo = Math.min(span, segTo * SEGMENT);
+        while (spanFrom > 0 && crossLineMatches(oldPixels, newPixels, box, rows, spanFrom - 1, runStart, runLength,
+                offset)) {
+            spanFrom--;
+        }
+        while (spanTo < span && crossLineMatches(oldPixels, newPixels, box, rows, spanTo, runStart, runLength,
+                offset)) {
+            spanTo++;
+        }
+        if (rows) {
+            return new Shift(new Rectangle(box.x + spanFrom, box.y + runStart, spanTo - spanFrom, runLength),
+                    0, offset);
+        }
+        return new Shift(new Rectangle(box.x + runStart, box.y + spanFrom, runLength, spanTo - spanFrom),
+                offset, 0);
+    }
+
+    // Duyệt ảnh theo hàng (đọc bộ nhớ liên tục) trong cả 2 trường hợp; hash[s * lines + l]
+    private static void hashLines(ImagePixels p, Rectangle box, boolean rows, int segments, int lines,
+            int[] hashes) {
+        Arrays.fill(hashes, 0, segments * lines, 1);
+        for (int y = 0; y < box.height; y++) {
+            int base = p.offset + (box.y + y) * p.stride + box.x;
+            if (rows) {
+                for (int s = 0; s < segments; s++) {
+                    int h = 1;
+                    int end = Math.min(box.width, (s + 1) * SEGMENT);
+                    for (int x = s * SEGMENT; x < end; x++) {
+                        h = 31 * h + p.data[base + x];
+                    }
+                    hashes[s * lines + y] = h;
+                }
+            } else {
+                int row = (y / SEGMENT) * lines;
+                for (int x = 0; x < box.width; x++) {
+                    hashes[row + x] = 31 * hashes[row + x] + p.data[base + x];
+                }
+            }
+        }
+    }
+
+    // Mỗi dải chọn vài dòng có nét (khác 2 dòng kề), tìm dòng cùng hash ở ảnh cũ và bầu cho độ dịch tương ứng
+    private int bestOffset(int segments, int lines) {
+        int maxShift = lines - MIN_RUN;
+        if (votes.length < 2 * lines + 1) {
+            votes = new int[2 * lines + 1];
+        }
+        Arrays.fill(votes, 0, 2 * lines + 1, 0);
+        int step = Math.max(1, lines / ANCHORS_PER_SEGMENT);
+        for (int s = 0; s < segments; s++) {
+            int base = s * lines;
+            for (int l = 1; l < lines - 1; l += step) {
+                int anchor = l;
+                int h = newHashes[base + anchor];
+                while (anchor < lines - 1 && (h == newHashes[base + anchor - 1] || h == newHashes[base + anchor + 1])) {
+                    anchor++;
+                    h = newHashes[base + anchor];
+                }
+                if (anchor >= lines - 1) {
+                    break;
+                }
+                for (int old = Math.max(0, anchor - maxShift); old <= Math.min(lines - 1, anchor + maxShift); old++) {
+                    if (old != anchor && oldHashes[base + old] == h) {
+                        votes[anchor - old + lines]++;
+                    }
+                }
+            }
+        }
+        int best = 0;
+        for (int i = 0; i < 2 * lines + 1; i++) {
+            if (i != lines && votes[i] > votes[best]) {
+                best = i;
+            }
+        }
+        return votes[best] >= MIN_VOTES ? best - lines : 0;
+    }
+
+    // Pixel thứ position trên mọi dòng của dải [runStart, runStart + runLength) khớp với ảnh cũ đã dịch
+    private static boolean crossLineMatches(ImagePixels oldPixels, ImagePixels newPixels, Rectangle box,
+            boolean rows, int position, int runStart, int runLength, int offset) {
+        for (int l = runStart; l < runStart + runLength; l++) {
+            int x = box.x + (rows ? position : l);
+            int y = box.y + (rows ? l : position);
+            int oldX = rows ? x : x - offset;
+            int oldY = rows ? y - offset : y;
+            if (newPixels.data[newPixels.offset + y * newPixels.stride + x]
+                    != oldPixels.data[oldPixels.offset + oldY * oldPixels.stride + oldX]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // (start << 32) | length của dải dòng liền dài nhất khớp ở mọi dải cột [from, to)
+    private long longestRun(int from, int to, int lines, int offset) {
+        int runStart = 0, runLength = 0;
+        int start = -1;
+        int firstLine = Math.max(0, offset);
+        int endLine = Math.min(lines, lines + offset);
+        for (int l = firstLine; l <= endLine; l++) {
+            boolean match = l < endLine;
+            for (int s = from; s < to && match; s++) {
+                match = newHashes[s * lines + l] == oldHashes[s * lines + l - offset];
+            }
+            if (match) {
+                if (start < 0) {
+                    start = l;
+                }
+            } else if (start >= 0) {
+                if (l - start > runLength) {
+                    runStart = start;
+                    runLength = l - start;
+                }
+                start = -1;
+            }
+        }
+        return (long) runStart << 32 | runLength;
+    }
+
+    private int matchingLines(int segment, int lines, int offset) {
+        int base = segment * lines;
+        int count = 0;
+        for (int l = Math.max(0, offset); l < Math.min(lines, lines + offset); l++) {
+            if (newHashes[base + l] == oldHashes[base + l - offset]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Vùng dst của frame mới = vùng (dst.x - dx, dst.y - dy) của ảnh cũ
+    static class Shift {
+        final Rectangle dst;
+        final int dx;
+        final int dy;
+
+        Shift(Rectangle dst, int dx, int dy) {
+            this.dst = dst;
+            this.dx = dx;
+            this.dy = dy;
+        }
+    }
+}
@@ -1,42 +1,149 @@
 package server;
 
 import common.ChatWindow;
-import javax.imageio.IIOImage;
-import javax.imageio.ImageIO;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.ImageWriter;
-import javax.imageio.stream.MemoryCacheImageOutputStream;
+import common.ControlProtocol;
+import common.ImagePixels;
+import common.MuxConnection;
+import common.ScreenProtocol;
+import common.codec.EncodeBuffer;
+import io.github.cdimascio.dotenv.Dotenv;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.IntSupplier;
 
 public class ShareScreen implements Runnable {
-    private static final int BLOCK_SIZE = 16;
-    private static final float FULL_FRAME_THRESHOLD = 0.35f;
-    private final AtomicReference<ScreenFrame> latestFrame = new AtomicReference<>();
-    private static final int fps = 20;
+    // Chất lượng JPEG tối đa; AdaptiveController chỉ hạ xuống dưới mức này
     private static float quality = 0.7f;
-
-    private int lastSentSeq = -1;
-    private BufferedImage lastSentImage = null;
+    private static final long METRICS_LOG_INTERVAL_NANOS = 10_000_000_000L;
+    private static final long CURSOR_POLL_MS = 20;
+    // Số frame liên tiếp tối đa được hoãn các ô dưới con trỏ đang di chuyển
+    private static final int MAX_CURSOR_DEFER_FRAMES = 5;
+    // Chỉ dò cuộn khi số ô thay đổi đủ lớn (1 khối 64x64 = 16 ô)
+    private static final int MIN_SCROLL_TILES = 64;
+    // Số slot cache khối tối đa phía sharer (mỗi slot chỉ tốn 1 entry hash), viewer có thể yêu cầu ít hơn
+    private static final int MAX_CACHE_BLOCKS = 4096;
+    // Chỉ lưu khối vào cache với thay đổi lớn (đổi cửa sổ, đổi tab...), để delta nhỏ vẫn DROPPABLE
+    private static final float CACHE_STORE_MIN_RATIO = 0.25f;
+
+    /*
+     * Pipeline: capture → diff → encode → send, mỗi stage 1 thread.
+     * - capture → diff: frame chưa diff bị thay bằng frame mới nhất
+     * - diff → encode: vùng thay đổi chưa encode được gộp với kết quả mới, encode theo pixel mới nhất
+     * - encode → send: chờ send ghi xong thông điệp trước (2 bộ đệm luân phiên)
+     * Con trỏ chuột đi kênh riêng (thread cursor, MSG_CURSOR) nếu viewer tự vẽ được.
+     */
+    private final HandOff<ScreenFrame> captureSlot = new HandOff<>();
+    private final HandOff<DiffResult> diffSlot = new HandOff<>();
+    private final HandOff<EncodedFrame> sendSlot = new HandOff<>();
+    private final BlockingQueue<EncodeBuffer> freeBuffers = new ArrayBlockingQueue<>(2);
+    private final PipelineMetrics metrics = new PipelineMetrics();
+    private final AdaptiveController controller = new AdaptiveController();
+
+    private final TileDiffer tileDiffer = new TileDiffer();
+    private final RegionEncoder regionEncoder = new RegionEncoder();
+    // null nếu viewer không hỗ trợ CAP_COPY_RECT; chỉ thread diff dùng
+    private ScrollDetector scrollDetector;
+    // null nếu viewer không báo CAP_TILE_CACHE; chỉ thread encode dùng
+    private TileCache tileCache;
+    // Nguồn ảnh (Robot hoặc tổng hợp) và các màn hình/vùng của nó; viewer đổi nguồn giữa phiên bằng selectStream()
+    private final FrameSource source;
+    private final CaptureStreams streams;
+    private volatile int activeStream;
+    private volatile boolean streamsEnabled = false;
+    // null nếu viewer không hỗ trợ CAP_CURSOR (khi đó con trỏ chỉ có trong ảnh chụp, nếu hệ điều hành vẽ vào)
+    private volatile CursorTracker cursorTracker;
+    private final IntSupplier appliedInput;
+    // Viewer báo CAP_INPUT_ECHO: header frame mang seq sự kiện control đã áp trước khi chụp
+    private volatile boolean inputEcho = false;
+    // Viewer không báo CAP_REGIONS: gửi theo định dạng cũ (chỉ JPEG, mỗi vùng 1 delta)
+    private boolean regionFormat = false;
 
     private Socket screenSocket = null;
+    private OutputStream screenOut;
     private ChatWindow chatWindow;
 
+    private Thread shareThread;
     private Thread captureThread;
+    private Thread diffThread;
+    private Thread encodeThread;
+    private Thread cursorThread;
     private volatile boolean running = true;
 
     public ShareScreen(Socket screenSocket, Socket chatSocket) throws Exception {
+        this(screenSocket, chatSocket, () -> 0);
+    }
+
+    // appliedInput: seq sự kiện control đã áp gần nhất (ReceiveEvent), gửi lại cho viewer trong header frame
+    public ShareScreen(Socket screenSocket, Socket chatSocket, IntSupplier appliedInput) throws Exception {
+        this(screenSocket, chatSocket, createRobotSource(), appliedInput);
+    }
+
+    // chatSocket null = không mở cửa sổ chat (chạy headless, vd. SyntheticShare)
+    ShareScreen(Socket screenSocket, Socket chatSocket, FrameSource source) {
+        this(screenSocket, chatSocket, source, () -> 0);
+    }
+
+    ShareScreen(Socket screenSocket, Socket chatSocket, FrameSource source, IntSupplier appliedInput) {
         this.screenSocket = screenSocket;
-        Thread shareThread = new Thread(this);
+        this.appliedInput = appliedInput;
+        this.source = source;
+        this.streams = source.getStreams();
+        this.activeStream = streams.getInitial();
+        shareThread = new Thread(this);
         shareThread.setDaemon(true);
         shareThread.start();
-        this.chatWindow = new ChatWindow(chatSocket, "Client");
-        new ChatToggleButton(this.chatWindow);
+        if (chatSocket != null) {
+            this.chatWindow = new ChatWindow(chatSocket, "Client");
+            new ChatToggleButton(this.chatWindow);
+        }
+    }
+
+    private static FrameSource createRobotSource() throws AWTException {
+        Dotenv dotenv = Dotenv.configure()
+                .directory("./")
+                .ignoreIfMissing()
+                .load();
+        return new RobotFrameSource(
+                CaptureStreams.detect(dotenv.get("SHARE_DISPLAY", null), dotenv.get("SHARE_REGION", null)));
+    }
+
+    public PipelineMetrics getPipelineMetrics() {
+        return metrics;
+    }
+
+    public AdaptiveController getController() {
+        return controller;
+    }
+
+    // Vùng đang chia sẻ (tọa độ desktop ảo), dùng để đổi tọa độ chuột từ viewer
+    public Rectangle getCaptureArea() {
+        return streams.getBounds(activeStream);
+    }
+
+    // Đổi màn hình/vùng mà không khởi động lại phiên; false nếu viewer không hỗ trợ hoặc id sai
+    public boolean selectStream(int stream) {
+        if (!streamsEnabled || stream < 0 || stream >= streams.size()) {
+            return false;
+        }
+        activeStream = stream;
+        CursorTracker tracker = cursorTracker;
+        if (tracker != null) {
+            tracker.setArea(streams.getBounds(stream));
+        }
+        System.out.println("[ShareScreen] Chuyển sang nguồn #" + stream + " " + streams.getBounds(stream));
+        return true;
     }
 
     @Override
@@ -45,47 +152,83 @@ public class ShareScreen implements Runnable {
             captureThread = new Thread(new CaptureTask());
             captureThread.start();
 
-            try (DataOutputStream out = new DataOutputStream(screenSocket.getOutputStream())) {
+            screenOut = screenSocket.getOutputStream();
+            // Gom các header nhỏ; dữ liệu lớn hơn bộ đệm được ghi thẳng xuống socket
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(screenOut, 64 * 1024))) {
                 System.out.println("[ShareScreen] Gửi dữ liệu tới: " + screenSocket.getInetAddress());
 
-                // Đợi frame đầu tiên
-                ScreenFrame firstFrame;
-                while ((firstFrame = latestFrame.get()) == null && running) {
-                    Thread.sleep(100);
+                // Viewer gửi hello (codec hỗ trợ) ngay khi mở kênh screen
+                int[] caps = awaitHello(screenSocket.getInputStream());
+                regionFormat = caps[ScreenProtocol.CAP_REGIONS] != 0;
+                if (!regionFormat) {
+                    // Định dạng cũ không mang được codec khác, copy-rect, cache, con trỏ...
+                    caps = ScreenProtocol.newCaps();
+                    System.out.println("[ShareScreen] Viewer không báo CAP_REGIONS, dùng định dạng cũ");
+                }
+                regionEncoder.setCodecMask(caps[ScreenProtocol.CAP_CODECS]);
+                if (caps[ScreenProtocol.CAP_COPY_RECT] != 0) {
+                    scrollDetector = new ScrollDetector();
+                }
+                if (caps[ScreenProtocol.CAP_TILE_CACHE] > 0) {
+                    tileCache = new TileCache(Math.min(MAX_CACHE_BLOCKS, caps[ScreenProtocol.CAP_TILE_CACHE]),
+                            metrics);
                 }
+                if (caps[ScreenProtocol.CAP_CURSOR] != 0) {
+                    cursorTracker = new CursorTracker(getCaptureArea(), source);
+                }
+                streamsEnabled = caps[ScreenProtocol.CAP_STREAMS] != 0;
+                inputEcho = caps[ScreenProtocol.CAP_INPUT_ECHO] != 0;
+                int controlVersion = Math.min(caps[ScreenProtocol.CAP_CONTROL], ControlProtocol.VERSION);
 
-                if (!running) {
+                // Đợi frame đầu tiên
+                ScreenFrame firstFrame = captureSlot.take();
+                if (firstFrame == null || !running) {
                     System.out.println("[ShareScreen] Stopped before sending first frame");
                     return;
                 }
 
+                if (regionFormat) {
+                    int[] used = ScreenProtocol.newCaps();
+                    used[ScreenProtocol.CAP_REGIONS] = 1;
+                    used[ScreenProtocol.CAP_CODECS] = caps[ScreenProtocol.CAP_CODECS];
+                    used[ScreenProtocol.CAP_CURSOR] = cursorTracker != null ? 1 : 0;
+                    used[ScreenProtocol.CAP_COPY_RECT] = scrollDetector != null ? 1 : 0;
+                    used[ScreenProtocol.CAP_TILE_CACHE] = tileCache != null
+                            ? Math.min(MAX_CACHE_BLOCKS, caps[ScreenProtocol.CAP_TILE_CACHE]) : 0;
+                    used[ScreenProtocol.CAP_STREAMS] = streamsEnabled ? 1 : 0;
+                    used[ScreenProtocol.CAP_CONTROL] = controlVersion;
+                    used[ScreenProtocol.CAP_INPUT_ECHO] = inputEcho ? 1 : 0;
+                    ScreenProtocol.writeHello(out, used);
+                }
+
                 // Gửi width và height
                 out.writeInt(firstFrame.rawImage.getWidth());
                 out.writeInt(firstFrame.rawImage.getHeight());
+                // Viewer chỉ chuyển sang sự kiện nhị phân khi biết sharer đọc được
+                if (caps[ScreenProtocol.CAP_CONTROL] > 0) {
+                    out.writeByte(ScreenProtocol.MSG_CONTROL);
+                    out.writeInt(firstFrame.sequence);
+                    out.writeByte(controlVersion);
+                }
                 out.flush();
                 System.out.println("[ShareScreen] ✅ Sent width=" + firstFrame.rawImage.getWidth() +
                         " height=" + firstFrame.rawImage.getHeight());
 
-                // Gửi full frame đầu tiên
-                sendFullFrame(out, firstFrame);
-
-                // Vòng lặp gửi frame
-                while (!screenSocket.isClosed() && running) {
-                    ScreenFrame currentFrame = latestFrame.get();
-                    if (currentFrame != null && currentFrame.sequence > lastSentSeq) {
-                        Rectangle changeBox = findChangeBoundingBox(lastSentImage, currentFrame.rawImage);
-                        if (changeBox != null) {
-                            float changedAreaRatio = (float) (changeBox.width * changeBox.height)
-                                    / (lastSentImage.getWidth() * lastSentImage.getHeight());
-                            if (changedAreaRatio > FULL_FRAME_THRESHOLD) {
-                                sendFullFrame(out, currentFrame);
-                            } else {
-                                sendDeltaFrame(out, currentFrame, changeBox);
-                            }
-                        }
-                    }
-                    Thread.sleep(1000 / fps);
+                freeBuffers.add(new EncodeBuffer(256 * 1024));
+                freeBuffers.add(new EncodeBuffer(256 * 1024));
+                diffThread = new Thread(new DiffTask(firstFrame), "ShareScreen-diff");
+                diffThread.setDaemon(true);
+                diffThread.start();
+                encodeThread = new Thread(new EncodeTask(), "ShareScreen-encode");
+                encodeThread.setDaemon(true);
+                encodeThread.start();
+                if (cursorTracker != null) {
+                    cursorThread = new Thread(() -> cursorLoop(out), "ShareScreen-cursor");
+                    cursorThread.setDaemon(true);
+                    cursorThread.start();
                 }
+
+                sendLoop(out);
             } catch (IOException e) {
                 if (running) {
                     System.out.println("[ShareScreen] Client disconnected: " + screenSocket.getInetAddress());
@@ -97,7 +240,8 @@ public class ShareScreen implements Runnable {
             System.err.println("[ShareScreen] Error: " + e.getMessage());
             e.printStackTrace();
         } finally {
-            stopCapture();
+            running = false;
+            stopPipeline();
             try {
                 if (screenSocket != null && !screenSocket.isClosed()) {
                     screenSocket.close();
@@ -109,17 +253,181 @@ public class ShareScreen implements Runnable {
         }
     }
 
+    // Stage send: chạy trên thread của ShareScreen
+    private void sendLoop(DataOutputStream out) throws IOException, InterruptedException {
+        long lastLog = System.nanoTime();
+        int sentStream = -1;
+        while (!screenSocket.isClosed() && running) {
+            EncodedFrame message = sendSlot.take();
+            if (message == null) {
+                break;
+            }
+            if (streamsEnabled && message.frame.stream != sentStream) {
+                writeStream(out, message.frame);
+                sentStream = message.frame.stream;
+            }
+
+            long start = System.nanoTime();
+            int totalBytes;
+            try {
+                byte flags = message.type == ScreenProtocol.MSG_FULL ? MuxConnection.FLAG_SYNC : 0;
+                // Thông điệp lưu cache phải tới viewer, nếu không cache 2 bên lệch nhau
+                if (!message.storesCache) {
+                    flags |= MuxConnection.FLAG_DROPPABLE;
+                }
+                // Thread cursor ghi xen giữa các thông điệp, không bao giờ giữa 1 thông điệp
+                synchronized (out) {
+                    MuxConnection.markMessage(screenOut, flags);
+                    totalBytes = regionFormat ? writeRegions(out, message) : writeLegacy(out, message);
+                }
+            } finally {
+                freeBuffers.offer(message.buffer);
+            }
+            long end = System.nanoTime();
+            metrics.recordFrameBytes(totalBytes);
+            metrics.recordStage(PipelineMetrics.SEND, end - start);
+            metrics.recordSent(end - message.frame.captureNanos);
+            controller.onFrameSent(totalBytes, end - start, end - message.frame.captureNanos);
+
+            if (message.frame.sequence % 30 == 0) {
+                String kind = message.type == ScreenProtocol.MSG_FULL ? "FULL" : "DELTA";
+                System.out.println("[ShareScreen] " + kind + " frame #" + message.frame.sequence + ", "
+                        + message.regions.size() + " vùng (" + totalBytes / 1024 + " KB) sent to "
+                        + screenSocket.getInetAddress());
+            }
+            if (end - lastLog >= METRICS_LOG_INTERVAL_NANOS) {
+                System.out.println("[ShareScreen] Pipeline: " + metrics.snapshotAndReset()
+                        + " | " + controller.describe());
+                lastLog = end;
+            }
+        }
+    }
+
+    // Báo nguồn mới trước frame đầu tiên của nó; không DROPPABLE vì viewer cần để đổi kích thước ảnh
+    private void writeStream(DataOutputStream out, ScreenFrame frame) throws IOException {
+        synchronized (out) {
+            out.writeByte(ScreenProtocol.MSG_STREAM);
+            out.writeInt(frame.sequence);
+            out.writeInt(frame.stream);
+            out.writeByte(streams.size());
+            for (int i = 0; i < streams.size(); i++) {
+                Rectangle bounds = streams.getBounds(i);
+                out.writeByte(streams.getKind(i));
+                out.writeInt(bounds.width);
+                out.writeInt(bounds.height);
+            }
+            out.flush();
+        }
+    }
+
+    // Viewer cũ (trước hello) không gửi gì trên kênh screen: hết thời gian chờ thì coi như không có cap nào
+    private static int[] awaitHello(InputStream in) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + ScreenProtocol.HELLO_TIMEOUT_MS * 1_000_000L;
+        while (in.available() == 0) {
+            if (System.nanoTime() > deadline) {
+                return ScreenProtocol.newCaps();
+            }
+            Thread.sleep(20);
+        }
+        return ScreenProtocol.readHello(new DataInputStream(in));
+    }
+
+    // Định dạng cũ chỉ có 1 vùng/thông điệp: mỗi vùng (luôn JPEG vì viewer không báo codec) thành 1 delta.
+    // Viewer cũ tạo sẵn ảnh width x height nên full frame gửi dạng delta phủ kín màn hình vẫn đúng
+    private int writeLegacy(DataOutputStream out, EncodedFrame message) throws IOException {
+        int totalBytes = 0;
+        for (RegionEncoder.EncodedRegion region : message.regions) {
+            out.writeBoolean(false);
+            out.writeInt(message.frame.sequence);
+            out.writeInt(region.rect.x);
+            out.writeInt(region.rect.y);
+            out.writeInt(region.rect.width);
+            out.writeInt(region.rect.height);
+            out.writeInt(region.length);
+            message.buffer.writeTo(out, region.offset, region.length);
+            totalBytes += region.length;
+        }
+        out.flush();
+        return totalBytes;
+    }
+
+    private int writeRegions(DataOutputStream out, EncodedFrame message) throws IOException {
+        int totalBytes = 0;
+        out.writeByte(message.type);
+        out.writeInt(message.frame.sequence);
+        if (inputEcho) {
+            out.writeInt(message.frame.appliedInput);
+        }
+        out.writeInt(message.regions.size());
+        for (RegionEncoder.EncodedRegion region : message.regions) {
+            out.writeInt(region.rect.x);
+            out.writeInt(region.rect.y);
+            out.writeInt(region.rect.width);
+            out.writeInt(region.rect.height);
+            out.writeByte(region.codec);
+            out.writeInt(region.length);
+            message.buffer.writeTo(out, region.offset, region.length);
+            totalBytes += region.length;
+        }
+        out.flush();
+        return totalBytes;
+    }
+
+    // Thread cursor: gửi vị trí con trỏ khi đổi; thông điệp nhỏ, không DROPPABLE để relay không bỏ vị trí cuối
+    private void cursorLoop(DataOutputStream out) {
+        int sequence = 0;
+        try {
+            while (running && !screenSocket.isClosed()) {
+                if (cursorTracker.poll()) {
+                    Point position = cursorTracker.getPosition();
+                    synchronized (out) {
+                        out.writeByte(ScreenProtocol.MSG_CURSOR);
+                        out.writeInt(++sequence);
+                        out.writeInt(position != null ? position.x : 0);
+                        out.writeInt(position != null ? position.y : 0);
+                        out.writeByte(cursorTracker.getShape());
+                        out.flush();
+                    }
+                    metrics.recordCursorBytes(14);
+                }
+                Thread.sleep(CURSOR_POLL_MS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // Lỗi ghi được sendLoop báo và xử lý
+        }
+    }
+
     public void stop() {
         this.running = false;
-        stopCapture();
+        stopPipeline();
         System.out.println("[ShareScreen] Stop requested");
     }
 
-    private void stopCapture() {
+    // Sau stop(): chờ thread gửi kết thúc (đã đóng socket screen); false nếu quá thời gian
+    public boolean awaitStopped(long timeoutMs) throws InterruptedException {
+        shareThread.join(timeoutMs);
+        return !shareThread.isAlive();
+    }
+
+    private void stopPipeline() {
+        captureSlot.close();
+        diffSlot.close();
+        sendSlot.close();
         if (captureThread != null && captureThread.isAlive()) {
             captureThread.interrupt();
             System.out.println("[ShareScreen] Stopped CaptureTask thread");
         }
+        if (diffThread != null) {
+            diffThread.interrupt();
+        }
+        if (encodeThread != null) {
+            encodeThread.interrupt();
+        }
+        if (cursorThread != null) {
+            cursorThread.interrupt();
+        }
     }
 
     public static void setQuality(float q) {
@@ -129,10 +437,64 @@ public class ShareScreen implements Runnable {
     static class ScreenFrame {
         final BufferedImage rawImage;
         final int sequence;
-
-        ScreenFrame(BufferedImage rawImage, int sequence) {
+        final long captureNanos;
+        // Vị trí con trỏ lúc chụp, null nếu ẩn hoặc không gửi riêng con trỏ
+        final Point cursor;
+        final int stream;
+        // Seq sự kiện control đã áp trước khi bắt đầu chụp (ảnh đã phản ánh sự kiện đó)
+        final int appliedInput;
+
+        ScreenFrame(BufferedImage rawImage, int sequence, long captureNanos, Point cursor, int stream,
+                int appliedInput) {
             this.rawImage = rawImage;
             this.sequence = sequence;
+            this.captureNanos = captureNanos;
+            this.cursor = cursor;
+            this.stream = stream;
+            this.appliedInput = appliedInput;
+        }
+    }
+
+    // Kết quả diff chờ encode; full = phải gửi cả màn hình (frame đầu, đổi kích thước).
+    // Viewer áp các lệnh chép (shifts) theo thứ tự trước, rồi mới tới các ô thay đổi.
+    static class DiffResult {
+        final ScreenFrame frame;
+        final DirtyTiles dirty;
+        final List<ScrollDetector.Shift> shifts;
+        boolean full;
+
+        DiffResult(ScreenFrame frame, DirtyTiles dirty, List<ScrollDetector.Shift> shifts, boolean full) {
+            this.frame = frame;
+            this.dirty = dirty;
+            this.shifts = shifts;
+            this.full = full;
+        }
+
+        // Kết quả mới gộp thêm các ô thay đổi và lệnh chép của kết quả cũ chưa được encode
+        static DiffResult merge(DiffResult older, DiffResult newer) {
+            for (ScrollDetector.Shift shift : newer.shifts) {
+                newer.full |= !newer.dirty.mergeShifted(older.dirty, shift);
+            }
+            newer.full |= older.full || !newer.dirty.merge(older.dirty);
+            newer.shifts.addAll(0, older.shifts);
+            return newer;
+        }
+    }
+
+    static class EncodedFrame {
+        final byte type;
+        final ScreenFrame frame;
+        final List<RegionEncoder.EncodedRegion> regions;
+        final EncodeBuffer buffer;
+        final boolean storesCache;
+
+        EncodedFrame(byte type, ScreenFrame frame, List<RegionEncoder.EncodedRegion> regions, EncodeBuffer buffer,
+                boolean storesCache) {
+            this.type = type;
+            this.frame = frame;
+            this.regions = regions;
+            this.buffer = buffer;
+            this.storesCache = storesCache;
         }
     }
 
@@ -141,15 +503,25 @@ public class ShareScreen implements Runnable {
 
         public void run() {
             try {
-                Robot robot = new Robot();
-                Rectangle screenRect = new Rectangle(Toolkit.getDefaultToolkit().getScreenSize());
-                System.out.println("[CaptureTask] Started capturing screen at " + fps + " FPS");
+                System.out.println("[CaptureTask] Started capturing screen at " + controller.getFps() + " FPS");
 
                 while (!Thread.currentThread().isInterrupted() && running) {
                     try {
-                        BufferedImage screen = robot.createScreenCapture(screenRect);
-                        latestFrame.set(new ScreenFrame(screen, ++sequence));
-                        Thread.sleep(1000 / fps);
+                        long start = System.nanoTime();
+                        int input = appliedInput.getAsInt();
+                        // Chỉ chụp đúng nguồn đang chọn: màn hình nhỏ/vùng nhỏ → ít pixel phải diff và encode
+                        int stream = activeStream;
+                        BufferedImage screen = source.capture(streams.getBounds(stream));
+                        CursorTracker tracker = cursorTracker;
+                        Point cursor = tracker != null ? tracker.locate() : null;
+                        metrics.recordStage(PipelineMetrics.CAPTURE, System.nanoTime() - start);
+                        ScreenFrame frame = new ScreenFrame(screen, ++sequence, start, cursor, stream, input);
+                        if (captureSlot.replace(frame) != null) {
+                            metrics.recordSuperseded();
+                        }
+                        // Giữ nhịp fps: trừ thời gian chụp khỏi thời gian ngủ
+                        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+                        Thread.sleep(Math.max(1, 1000 / controller.getFps() - elapsedMs));
                     } catch (InterruptedException e) {
                         Thread.currentThread().interrupt();
                         break;
@@ -166,106 +538,167 @@ public class ShareScreen implements Runnable {
         }
     }
 
-    private void sendFullFrame(DataOutputStream out, ScreenFrame frame) throws IOException {
-        byte[] compressedData = compressImage(frame.rawImage, quality);
-
-        out.writeBoolean(true); // isFullFrame = true
-        out.writeInt(frame.sequence);
-        out.writeInt(compressedData.length);
-        out.write(compressedData);
-        out.flush();
-
-        this.lastSentImage = frame.rawImage;
-        this.lastSentSeq = frame.sequence;
-        if (frame.sequence % 30 == 0) {
-            System.out.println("[ShareScreen] FULL frame #" + frame.sequence +
-                    " (" + compressedData.length / 1024 + " KB) sent to " + screenSocket.getInetAddress());
-        }
-    }
-
-    private void sendDeltaFrame(DataOutputStream out, ScreenFrame frame, Rectangle rect) throws IOException {
-        BufferedImage deltaImage = frame.rawImage.getSubimage(rect.x, rect.y, rect.width, rect.height);
-        byte[] compressedData = compressImage(deltaImage, quality);
-
-        out.writeBoolean(false); // isFullFrame = false
-        out.writeInt(frame.sequence);
-        out.writeInt(rect.x);
-        out.writeInt(rect.y);
-        out.writeInt(rect.width);
-        out.writeInt(rect.height);
-        out.writeInt(compressedData.length);
-        out.write(compressedData);
-        out.flush();
+    // Stage diff: so với bản tham chiếu (pixel đã đưa sang encode); vùng chưa encode được gộp lại ở diffSlot
+    class DiffTask implements Runnable {
+        private final ReferenceFrame reference = new ReferenceFrame();
+        private ScreenFrame frame;
+        private Point lastCursor;
+        private int deferredFrames = 0;
+        private int lastStream = -1;
 
-        this.lastSentImage = frame.rawImage;
-        this.lastSentSeq = frame.sequence;
-        if (frame.sequence % 30 == 0) {
-            System.out.println("[ShareScreen] DELTA frame #" + frame.sequence +
-                    " (" + compressedData.length / 1024 + " KB) sent to " + screenSocket.getInetAddress());
+        DiffTask(ScreenFrame firstFrame) {
+            this.frame = firstFrame;
         }
-    }
 
-    private byte[] compressImage(BufferedImage image, float quality) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
-        ImageWriteParam param = writer.getDefaultWriteParam();
-        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-        param.setCompressionQuality(quality);
-
-        try (MemoryCacheImageOutputStream ios = new MemoryCacheImageOutputStream(baos)) {
-            writer.setOutput(ios);
-            writer.write(null, new IIOImage(image, null, null), param);
-        } finally {
-            writer.dispose();
+        public void run() {
+            try {
+                while (running && frame != null) {
+                    long start = System.nanoTime();
+                    BufferedImage previous = reference.getImage();
+                    Rectangle changeBox = tileDiffer.diff(previous, frame.rawImage);
+                    // Đổi nguồn: viewer bắt đầu lại bằng full frame (cache khối giúp quay lại nguồn cũ vẫn rẻ)
+                    boolean full = previous == null || previous.getWidth() != frame.rawImage.getWidth()
+                            || previous.getHeight() != frame.rawImage.getHeight() || frame.stream != lastStream;
+                    lastStream = frame.stream;
+                    List<ScrollDetector.Shift> shifts = new ArrayList<>(1);
+                    if (changeBox != null && !full && scrollDetector != null
+                            && tileDiffer.getDirtyCount() >= MIN_SCROLL_TILES) {
+                        ScrollDetector.Shift shift = scrollDetector.detect(previous, frame.rawImage, changeBox);
+                        if (shift != null) {
+                            // Bản tham chiếu chép giống viewer, rồi diff lại để chỉ còn phần mới lộ ra
+                            reference.apply(shift);
+                            shifts.add(shift);
+                            changeBox = tileDiffer.diff(previous, frame.rawImage);
+                        }
+                    }
+                    if (changeBox != null || full || !shifts.isEmpty()) {
+                        DirtyTiles dirty = new DirtyTiles(tileDiffer);
+                        if (!full) {
+                            deferUnderCursor(dirty, previous);
+                        }
+                        if (full || !dirty.isEmpty() || !shifts.isEmpty()) {
+                            reference.update(frame.rawImage, full ? null : dirty);
+                            if (diffSlot.merge(new DiffResult(frame, dirty, shifts, full), DiffResult::merge)) {
+                                metrics.recordSuperseded();
+                            }
+                        }
+                    }
+                    metrics.recordStage(PipelineMetrics.DIFF, System.nanoTime() - start);
+                    lastCursor = frame.cursor;
+                    frame = captureSlot.take();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
-        return baos.toByteArray();
-    }
 
-    private Rectangle findChangeBoundingBox(BufferedImage oldImg, BufferedImage newImg) {
-        if (oldImg == null) {
-            return new Rectangle(newImg.getWidth(), newImg.getHeight());
+        // Con trỏ đang di chuyển: ô quanh vị trí cũ/mới đổi vì ảnh chụp có vẽ con trỏ, mà viewer đã tự vẽ.
+        // Chỉ hoãn ô mà mọi pixel đổi nằm trong vùng con trỏ cũ/mới (ô có nội dung khác đổi vẫn gửi ngay),
+        // tới khi con trỏ dừng, tối đa MAX_CURSOR_DEFER_FRAMES frame để nội dung thật không bị treo.
+        private void deferUnderCursor(DirtyTiles dirty, BufferedImage previous) {
+            Point cursor = frame.cursor;
+            if (cursor == null || lastCursor == null || cursor.equals(lastCursor)
+                    || deferredFrames >= MAX_CURSOR_DEFER_FRAMES) {
+                deferredFrames = 0;
+                return;
+            }
+            Rectangle now = CursorTracker.coverage(cursor);
+            Rectangle before = CursorTracker.coverage(lastCursor);
+            ImagePixels a = ImagePixels.of(previous);
+            ImagePixels b = ImagePixels.of(frame.rawImage);
+            int deferred = dirty.clear(now, tile -> changedOnlyUnder(a, b, tile, now, before))
+                    + dirty.clear(before, tile -> changedOnlyUnder(a, b, tile, now, before));
+            if (deferred > 0) {
+                deferredFrames++;
+                metrics.recordDeferred(deferred);
+            }
         }
 
-        int width = newImg.getWidth();
-        int height = newImg.getHeight();
-        int minX = width, minY = height, maxX = 0, maxY = 0;
-        boolean changed = false;
-
-        for (int y = 0; y < height; y += BLOCK_SIZE) {
-            for (int x = 0; x < width; x += BLOCK_SIZE) {
-                if (!isBlockSame(oldImg, newImg, x, y)) {
-                    if (x < minX)
-                        minX = x;
-                    if (y < minY)
-                        minY = y;
-                    if (x + BLOCK_SIZE > maxX)
-                        maxX = x + BLOCK_SIZE;
-                    if (y + BLOCK_SIZE > maxY)
-                        maxY = y + BLOCK_SIZE;
-                    changed = true;
+        // true nếu mọi pixel khác nhau trong ô đều thuộc 1 trong 2 vùng con trỏ
+        private boolean changedOnlyUnder(ImagePixels a, ImagePixels b, Rectangle tile, Rectangle now,
+                Rectangle before) {
+            int endY = Math.min(tile.y + tile.height, frame.rawImage.getHeight());
+            int endX = Math.min(tile.x + tile.width, frame.rawImage.getWidth());
+            for (int y = tile.y; y < endY; y++) {
+                int lineA = a.offset + y * a.stride;
+                int lineB = b.offset + y * b.stride;
+                for (int x = tile.x; x < endX; x++) {
+                    if (a.data[lineA + x] != b.data[lineB + x] && !now.contains(x, y) && !before.contains(x, y)) {
+                        return false;
+                    }
                 }
             }
+            return true;
         }
+    }
 
-        if (changed) {
-            maxX = Math.min(width, maxX);
-            maxY = Math.min(height, maxY);
-            return new Rectangle(minX, minY, maxX - minX, maxY - minY);
-        }
+    class EncodeTask implements Runnable {
+        public void run() {
+            try {
+                while (running) {
+                    DiffResult job = diffSlot.take();
+                    if (job == null) {
+                        break;
+                    }
+                    EncodeBuffer buffer = freeBuffers.take();
+                    buffer.reset();
+
+                    long start = System.nanoTime();
+                    BufferedImage image = job.frame.rawImage;
+                    Rectangle screen = new Rectangle(image.getWidth(), image.getHeight());
+                    boolean full = job.full;
+                    List<Rectangle> regions = null;
+                    float changedAreaRatio = 1f;
+                    if (!full) {
+                        regions = DirtyRegions.merge(job.dirty, screen.width, screen.height);
+                        changedAreaRatio = (float) DirtyRegions.totalArea(regions)
+                                / ((long) screen.width * screen.height);
+                        full = changedAreaRatio > controller.getFullFrameThreshold();
+                    }
+                    if (full) {
+                        regions = Collections.singletonList(screen);
+                    }
+                    float frameQuality = Math.min(quality, controller.getQuality());
 
-        return null;
-    }
+                    // Thứ tự vùng trong thông điệp: chép (cuộn) → dán từ cache → ảnh mã hóa → lưu cache
+                    List<RegionEncoder.EncodedRegion> encoded = new ArrayList<>();
+                    if (!full) {
+                        for (ScrollDetector.Shift shift : job.shifts) {
+                            encoded.add(regionEncoder.encodeCopy(shift, buffer));
+                        }
+                    }
+                    if (tileCache != null) {
+                        DirtyTiles dirty = full ? DirtyTiles.all(screen.width, screen.height) : job.dirty;
+                        List<RegionEncoder.EncodedRegion> hits = tileCache.encodeHits(image, dirty, buffer);
+                        if (!hits.isEmpty()) {
+                            encoded.addAll(hits);
+                            regions = DirtyRegions.merge(dirty, screen.width, screen.height);
+                        }
+                    }
+                    int imageStart = buffer.size();
+                    encoded.addAll(regionEncoder.encode(image, regions, frameQuality, buffer));
+                    boolean storesCache = false;
+                    if (tileCache != null && (full || changedAreaRatio >= CACHE_STORE_MIN_RATIO)) {
+                        long pixels = Math.max(1, DirtyRegions.totalArea(regions));
+                        int bytesPerBlock = (int) ((long) (buffer.size() - imageStart)
+                                * ScreenProtocol.CACHE_BLOCK_SIZE * ScreenProtocol.CACHE_BLOCK_SIZE / pixels);
+                        List<RegionEncoder.EncodedRegion> stores = tileCache.encodeStores(bytesPerBlock, buffer);
+                        encoded.addAll(stores);
+                        storesCache = !stores.isEmpty();
+                    }
+                    metrics.recordStage(PipelineMetrics.ENCODE, System.nanoTime() - start);
 
-    private boolean isBlockSame(BufferedImage oldImg, BufferedImage newImg, int x, int y) {
-        int endX = Math.min(x + BLOCK_SIZE, newImg.getWidth());
-        int endY = Math.min(y + BLOCK_SIZE, newImg.getHeight());
-        for (int j = y; j < endY; j++) {
-            for (int i = x; i < endX; i++) {
-                if (oldImg.getRGB(i, j) != newImg.getRGB(i, j)) {
-                    return false;
+                    byte type = full ? ScreenProtocol.MSG_FULL : ScreenProtocol.MSG_DELTA;
+                    sendSlot.put(new EncodedFrame(type, job.frame, encoded, buffer, storesCache));
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                System.err.println("[ShareScreen] Encode error: " + e.getMessage());
+                e.printStackTrace();
+                running = false;
+                sendSlot.close();
             }
         }
-        return true;
     }
-}
\ No newline at end of file
+}
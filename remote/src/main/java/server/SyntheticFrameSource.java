@@ -0,0 +1,317 @@
+package server;
+
+import common.ImagePixels;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/*
+ * Màn hình giả dựng theo kịch bản, không cần GraphicsEnvironment: cửa sổ soạn thảo đang gõ chữ,
+ * danh sách đang cuộn và 1 vùng video; cursor-blink chỉ có con trỏ soạn thảo nhấp nháy,
+ * full-change vẽ lại toàn màn hình mỗi frame (chuyển slide, mở ứng dụng toàn màn hình);
+ * window-switch cứ SWITCH_FRAMES frame lại chuyển qua lại giữa desktop và 1 cửa sổ toàn màn hình (Alt+Tab). Frame thứ n chỉ phụ thuộc (kích thước, kịch bản, seed, n),
+ * nên cùng tham số luôn cho cùng chuỗi ảnh → đo diff/encode lặp lại được.
+ * setPointer(true): chuột giả di chuyển qua màn hình và, như hệ điều hành vẽ con trỏ vào ảnh chụp,
+ * mũi tên được vẽ vào ảnh trả về (không vào canvas).
+ * Nhiều màn hình (displays) xếp ngang trên 1 desktop ảo như CaptureStreams.detect, thêm vùng tùy chọn:
+ * kịch bản chạy trên màn hình 0, các màn hình khác hiện tài liệu tĩnh (nội dung khác nhau để thấy việc đổi nguồn).
+ * Chữ vẽ bằng glyph bitmap tự sinh (không dùng font hệ thống, tránh khác biệt giữa các máy).
+ */
+class SyntheticFrameSource implements FrameSource {
+    static final String[] SCENARIOS = { "mixed", "typing", "scrolling", "video", "static", "cursor-blink",
+            "full-change", "window-switch" };
+
+    private static final int CHARS_PER_FRAME = 2;
+    private static final int SCROLL_STEP = 4;
+    // Glyph 5x7 điểm, mỗi điểm 2x2 pixel
+    private static final int DOT = 2;
+    private static final int ADVANCE = 6 * DOT;
+    private static final int LINE_HEIGHT = 9 * DOT;
+    private static final int ROW_HEIGHT = 24;
+    private static final int SWITCH_FRAMES = 10;
+    // Mũi tên con trỏ 12x19, điểm nóng ở góc trên trái
+    private static final int[] ARROW_X = { 0, 0, 4, 7, 9, 6, 11 };
+    private static final int[] ARROW_Y = { 0, 16, 12, 18, 17, 11, 11 };
+    private static final String SCRIPT = "for (Rectangle r : dirty) { encoder.encode(frame, r, buffer); } "
+            + "int total = metrics.snapshot(); if (total > limit) { controller.slowDown(); } ";
+
+    private final CaptureStreams streams;
+    // Cả desktop ảo; width x height là kích thước 1 màn hình
+    private final BufferedImage canvas;
+    private final int width;
+    private final int height;
+    private final boolean typing;
+    private final boolean scrolling;
+    private final boolean video;
+    private final boolean caret;
+    private final boolean fullChange;
+    // Cửa sổ toàn màn hình của window-switch, null với kịch bản khác
+    private final BufferedImage other;
+    private final long seed;
+
+    private final Rectangle editor;
+    private final Rectangle list;
+    private final Rectangle player;
+
+    private int frameIndex = 0;
+    private int typed = 0;
+    private int scrollOffset = 0;
+    private boolean pointerMoving = false;
+    private volatile Point pointer;
+
+    SyntheticFrameSource(int width, int height, String scenario, long seed) {
+        this(width, height, scenario, seed, 1, null);
+    }
+
+    // region: "x,y,w,h" trong desktop ảo (null = không có), như SHARE_REGION
+    SyntheticFrameSource(int width, int height, String scenario, long seed, int displays, String region) {
+        this.streams = CaptureStreams.synthetic(displays, width, height, region);
+        this.canvas = new BufferedImage(width * displays, height, BufferedImage.TYPE_INT_RGB);
+        this.width = width;
+        this.height = height;
+        boolean mixed = "mixed".equals(scenario);
+        this.typing = mixed || "typing".equals(scenario);
+        this.scrolling = mixed || "scrolling".equals(scenario);
+        this.video = mixed || "video".equals(scenario);
+        this.caret = "cursor-blink".equals(scenario);
+        this.fullChange = "full-change".equals(scenario);
+        boolean switching = "window-switch".equals(scenario);
+        if (!mixed && !typing && !scrolling && !video && !caret && !fullChange && !switching
+                && !"static".equals(scenario)) {
+            throw new IllegalArgumentException("Unknown scenario: " + scenario);
+        }
+        this.seed = seed;
+        this.editor = new Rectangle(width / 20, height / 12, width * 9 / 20, height * 5 / 6);
+        this.list = new Rectangle(width * 11 / 20, height / 12, width * 2 / 5, height / 2);
+        this.player = new Rectangle(width * 11 / 20, height * 5 / 8, width * 2 / 5, height * 3 / 10);
+        drawDesktop();
+        if (displays > 1) {
+            Graphics2D g = canvas.createGraphics();
+            try {
+                for (int i = 1; i < displays; i++) {
+                    g.drawImage(drawDocument(width, height, i), i * width, 0, null);
+                }
+            } finally {
+                g.dispose();
+            }
+        }
+        this.other = switching ? drawDocument(canvas.getWidth(), height, 0) : null;
+    }
+
+    @Override
+    public CaptureStreams getStreams() {
+        return streams;
+    }
+
+    void setPointer(boolean moving) {
+        pointerMoving = moving;
+        pointer = moving ? pointerAt(frameIndex) : null;
+    }
+
+    @Override
+    public Point getPointer() {
+        return pointer;
+    }
+
+    @Override
+    public BufferedImage capture(Rectangle area) {
+        if (frameIndex > 0) {
+            if (typing) {
+                typeNext();
+            }
+            if (scrolling) {
+                scrollOffset += SCROLL_STEP;
+                drawList();
+            }
+        }
+        if (video) {
+            drawVideo(player);
+        }
+        if (caret) {
+            drawCaret();
+        }
+        if (fullChange) {
+            drawVideo(new Rectangle(width, height));
+        }
+        if (pointerMoving) {
+            pointer = pointerAt(frameIndex);
+        }
+        boolean front = other != null && frameIndex / SWITCH_FRAMES % 2 == 1;
+        frameIndex++;
+
+        // Mỗi lần chụp là 1 ảnh mới như Robot; canvas vẫn thuộc về nguồn
+        BufferedImage frame = new BufferedImage(area.width, area.height, BufferedImage.TYPE_INT_RGB);
+        ImagePixels src = ImagePixels.of(front ? other : canvas);
+        ImagePixels dst = ImagePixels.of(frame);
+        for (int y = 0; y < area.height; y++) {
+            System.arraycopy(src.data, src.offset + (area.y + y) * src.stride + area.x,
+                    dst.data, dst.offset + y * dst.stride, area.width);
+        }
+        Point at = pointer;
+        if (at != null && area.contains(at)) {
+            drawArrow(frame, at.x - area.x, at.y - area.y);
+        }
+        return frame;
+    }
+
+    // Đường Lissajous qua cả màn hình, tối đa ~1 ô diff mỗi trục mỗi frame
+    private Point pointerAt(int t) {
+        return new Point(width / 2 + (int) (width * 2 / 5 * Math.sin(t * 0.04)),
+                height / 2 + (int) (height * 2 / 5 * Math.sin(t * 0.06)));
+    }
+
+    private static void drawArrow(BufferedImage frame, int x, int y) {
+        Graphics2D g = frame.createGraphics();
+        try {
+            g.translate(x, y);
+            g.setColor(Color.WHITE);
+            g.fillPolygon(ARROW_X, ARROW_Y, ARROW_X.length);
+            g.setColor(Color.BLACK);
+            g.drawPolygon(ARROW_X, ARROW_Y, ARROW_X.length);
+        } finally {
+            g.dispose();
+        }
+    }
+
+    private void drawDesktop() {
+        Graphics2D g = canvas.createGraphics();
+        try {
+            for (int y = 0; y < height; y++) {
+                int shade = 40 + y * 60 / height;
+                g.setColor(new Color(shade / 2, shade, shade + 40));
+                g.drawLine(0, y, width - 1, y);
+            }
+            for (Rectangle window : new Rectangle[] { editor, list, player }) {
+                g.setColor(new Color(70, 70, 80));
+                g.fillRect(window.x - 2, window.y - 22, window.width + 4, window.height + 24);
+            }
+            g.setColor(Color.WHITE);
+            g.fillRect(editor.x, editor.y, editor.width, editor.height);
+            g.setColor(Color.BLACK);
+            g.fillRect(player.x, player.y, player.width, player.height);
+        } finally {
+            g.dispose();
+        }
+        drawList();
+    }
+
+    // Tài liệu toàn màn hình: thanh tiêu đề và các dòng chữ, mỗi dòng khác nhau; page đổi nội dung các dòng
+    private static BufferedImage drawDocument(int width, int height, int page) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(new Color(250, 250, 245));
+            g.fillRect(0, 0, width, height);
+            g.setColor(new Color(60, 90, 140));
+            g.fillRect(0, 0, width, 3 * ROW_HEIGHT / 2);
+            g.setColor(new Color(30, 30, 30));
+            for (int line = 0; (line + 3) * LINE_HEIGHT < height; line++) {
+                int y = (line + 2) * LINE_HEIGHT;
+                for (int i = 0; (i + 4) * ADVANCE < width; i++) {
+                    drawGlyph(g, SCRIPT.charAt(((line + page * 53) * 37 + i) % SCRIPT.length()), (i + 2) * ADVANCE, y);
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    // Gõ tiếp CHARS_PER_FRAME ký tự; hết trang thì xóa trắng và gõ lại từ đầu
+    private void typeNext() {
+        int columns = Math.max(1, (editor.width - 2 * ADVANCE) / ADVANCE);
+        int rows = Math.max(1, (editor.height - LINE_HEIGHT) / LINE_HEIGHT);
+        Graphics2D g = canvas.createGraphics();
+        try {
+            for (int i = 0; i < CHARS_PER_FRAME; i++) {
+                if (typed == columns * rows) {
+                    g.setColor(Color.WHITE);
+                    g.fillRect(editor.x, editor.y, editor.width, editor.height);
+                    typed = 0;
+                }
+                char c = SCRIPT.charAt((frameIndex * CHARS_PER_FRAME + i) % SCRIPT.length());
+                int x = editor.x + ADVANCE + (typed % columns) * ADVANCE;
+                int y = editor.y + LINE_HEIGHT / 2 + (typed / columns) * LINE_HEIGHT;
+                g.setColor(new Color(30, 30, 30));
+                drawGlyph(g, c, x, y);
+                typed++;
+            }
+        } finally {
+            g.dispose();
+        }
+    }
+
+    // Hàng thứ i luôn có cùng nội dung, chỉ vị trí đổi theo scrollOffset (nên dò cuộn thấy được)
+    private void drawList() {
+        Graphics2D g = canvas.createGraphics();
+        try {
+            g.setClip(list);
+            int first = scrollOffset / ROW_HEIGHT;
+            int last = (scrollOffset + list.height) / ROW_HEIGHT;
+            for (int row = first; row <= last; row++) {
+                int y = list.y + row * ROW_HEIGHT - scrollOffset;
+                g.setColor(row % 2 == 0 ? new Color(245, 245, 250) : new Color(225, 230, 240));
+                g.fillRect(list.x, y, list.width, ROW_HEIGHT);
+                g.setColor(new Color((row * 53) & 0xFF, (row * 97) & 0xFF, 160));
+                g.fillRect(list.x + 4, y + 4, ROW_HEIGHT - 8, ROW_HEIGHT - 8);
+                g.setColor(new Color(40, 40, 60));
+                String label = "Item " + row + " size " + (row * 7919 % 100000);
+                for (int i = 0; i < label.length(); i++) {
+                    drawGlyph(g, label.charAt(i), list.x + ROW_HEIGHT + i * ADVANCE, y + (ROW_HEIGHT - 7 * DOT) / 2);
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+    }
+
+    // Con trỏ văn bản ở đầu trang soạn thảo: hiện ở frame chẵn, ẩn ở frame lẻ
+    private void drawCaret() {
+        Graphics2D g = canvas.createGraphics();
+        try {
+            g.setColor(frameIndex % 2 == 0 ? Color.BLACK : Color.WHITE);
+            g.fillRect(editor.x + ADVANCE, editor.y + LINE_HEIGHT / 2, DOT, LINE_HEIGHT);
+        } finally {
+            g.dispose();
+        }
+    }
+
+    // Mẫu chuyển động + nhiễu nhẹ, đổi toàn bộ vùng mỗi frame như video thật
+    private void drawVideo(Rectangle player) {
+        ImagePixels pixels = ImagePixels.of(canvas);
+        int t = frameIndex;
+        long state = seed ^ (t + 1) * 0x9E3779B97F4A7C15L;
+        for (int y = 0; y < player.height; y++) {
+            int line = pixels.offset + (player.y + y) * pixels.stride + player.x;
+            for (int x = 0; x < player.width; x++) {
+                state ^= state << 13;
+                state ^= state >>> 7;
+                state ^= state << 17;
+                int noise = (int) state & 0x0F;
+                int v = ((x + 3 * t) ^ (y + 2 * t)) & 0xFF;
+                int r = (v + noise) & 0xFF;
+                int gr = ((x * 255 / Math.max(1, player.width)) + t) & 0xFF;
+                int b = ((y * 255 / Math.max(1, player.height)) + noise) & 0xFF;
+                pixels.data[line + x] = r << 16 | gr << 8 | b;
+            }
+        }
+    }
+
+    // 35 bit của hash ký tự = bitmap 5x7; khoảng trắng không vẽ gì
+    private static void drawGlyph(Graphics2D g, char c, int x, int y) {
+        if (c == ' ') {
+            return;
+        }
+        long bits = (c + 1) * 0x9E3779B97F4A7C15L;
+        bits ^= bits >>> 29;
+        for (int row = 0; row < 7; row++) {
+            for (int col = 0; col < 5; col++) {
+                if ((bits >>> (row * 5 + col) & 1) != 0) {
+                    g.fillRect(x + col * DOT, y + row * DOT, DOT, DOT);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package server;
+
+import common.ScreenProtocol;
+import common.codec.Codecs;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Chạy pipeline ShareScreen thật với SyntheticFrameSource qua socket loopback, không cần màn hình.
+ * Thread đọc đóng vai viewer (báo caps như ReceiveScreen, chỉ đếm thông điệp, không giải mã).
+ * Mỗi giây in FPS (thông điệp màn hình nhận được), KB/s, CPU của cả tiến trình và trạng thái AdaptiveController.
+ * --bandwidth giới hạn tốc độ viewer đọc (KB/s, 0 = không giới hạn) với bộ đệm socket nhỏ, để thấy controller
+ * hội tụ về fps/quality/ngưỡng full frame hợp với đường truyền; nhiều giá trị cách nhau dấu phẩy thì
+ * mỗi giá trị chạy 1 phần bằng nhau của --seconds (vd. 5000,1000,300 = đường truyền xấu dần).
+ * --cursor channel|pixels: chuột giả di chuyển và được vẽ vào ảnh chụp; channel = viewer báo CAP_CURSOR
+ * (vị trí đi MSG_CURSOR, ô chỉ đổi vì con trỏ được hoãn), pixels = không có kênh con trỏ, ô đó gửi như nội dung.
+ * So KB/s 2 chế độ (dòng tổng có screen= và cursor=) để thấy kênh con trỏ tiết kiệm bao nhiêu.
+ * --streams N: N màn hình giả xếp ngang; --region x,y,w,h: thêm 1 vùng trong desktop ảo (như SHARE_REGION,
+ * là nguồn ban đầu). Có hơn 1 nguồn thì viewer báo CAP_STREAMS và lần lượt chọn từng nguồn trong
+ * các phần bằng nhau của --seconds, như viewer đổi màn hình giữa phiên.
+ *
+ * java -Djava.awt.headless=true -cp remote-0.0.1.jar server.SyntheticShare
+ *      [--scenario mixed|typing|scrolling|video|static|cursor-blink|full-change|window-switch] [--size 1920x1080]
+ *      [--seconds 20] [--seed 1] [--bandwidth 0] [--cursor none|channel|pixels]
+ *      [--streams 1] [--region x,y,w,h]
+ */
+public class SyntheticShare {
+    // Giống CACHE_BLOCKS của ReceiveScreen
+    private static final int VIEWER_CACHE_BLOCKS = 2048;
+    // Bộ đệm socket khi giới hạn băng thông: đủ nhỏ để bên gửi bị chặn gần như ngay khi viewer đọc chậm lại
+    private static final int THROTTLED_SOCKET_BUFFER = 64 * 1024;
+
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    // Chỉ thread đọc dùng
+    private byte[] scratch = new byte[64 * 1024];
+
+    public static void main(String[] args) throws Exception {
+        String scenario = "mixed";
+        int width = 1920;
+        int height = 1080;
+        int seconds = 20;
+        long seed = 1;
+        String bandwidth = "0";
+        String cursor = "none";
+        int displays = 1;
+        String region = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--scenario":
+                    scenario = value;
+                    break;
+                case "--size": {
+                    String[] parts = value.toLowerCase().split("x");
+                    width = Integer.parseInt(parts[0]);
+                    height = Integer.parseInt(parts[1]);
+                    break;
+                }
+                case "--seconds":
+                    seconds = Integer.parseInt(value);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(value);
+                    break;
+                case "--bandwidth":
+                    bandwidth = value;
+                    break;
+                case "--cursor":
+                    cursor = value;
+                    break;
+                case "--streams":
+                    displays = Integer.parseInt(value);
+                    break;
+                case "--region":
+                    region = value;
+                    break;
+                default:
+                    System.err.println("[SyntheticShare] Tham số không hợp lệ: " + args[i]);
+                    return;
+            }
+        }
+        String[] parts = bandwidth.split(",");
+        long[] kbps = new long[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            kbps[i] = Long.parseLong(parts[i].trim());
+        }
+        if (!"none".equals(cursor) && !"channel".equals(cursor) && !"pixels".equals(cursor)) {
+            System.err.println("[SyntheticShare] --cursor phải là none, channel hoặc pixels");
+            return;
+        }
+        if (displays < 1) {
+            System.err.println("[SyntheticShare] --streams phải >= 1");
+            return;
+        }
+        SyntheticFrameSource source = new SyntheticFrameSource(width, height, scenario, seed, displays, region);
+        source.setPointer(!"none".equals(cursor));
+        new SyntheticShare().run(source, seconds, kbps, "channel".equals(cursor));
+    }
+
+    void run(FrameSource source, int seconds, long[] kbps, boolean cursorChannel) throws Exception {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        boolean throttled = false;
+        for (long rate : kbps) {
+            throttled |= rate > 0;
+        }
+        try (ServerSocket listener = new ServerSocket(0, 1, loopback);
+                Socket viewer = new Socket()) {
+            if (throttled) {
+                // Bộ đệm nhận phải đặt trước khi kết nối (window scaling)
+                viewer.setReceiveBufferSize(THROTTLED_SOCKET_BUFFER);
+            }
+            viewer.connect(new InetSocketAddress(loopback, listener.getLocalPort()));
+            Socket sharer = listener.accept();
+            if (throttled) {
+                sharer.setSendBufferSize(THROTTLED_SOCKET_BUFFER);
+            }
+            ShareScreen share = new ShareScreen(sharer, null, source);
+
+            int[] caps = ScreenProtocol.newCaps();
+            caps[ScreenProtocol.CAP_CODECS] = Codecs.SUPPORTED_MASK;
+            caps[ScreenProtocol.CAP_COPY_RECT] = 1;
+            caps[ScreenProtocol.CAP_TILE_CACHE] = VIEWER_CACHE_BLOCKS;
+            caps[ScreenProtocol.CAP_REGIONS] = 1;
+            caps[ScreenProtocol.CAP_CURSOR] = cursorChannel ? 1 : 0;
+            caps[ScreenProtocol.CAP_STREAMS] = 1;
+            ScreenProtocol.writeHello(new DataOutputStream(viewer.getOutputStream()), caps);
+
+            ThrottledInputStream link = new ThrottledInputStream(viewer.getInputStream());
+            link.setRate(kbps[0] * 1024);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(link, 64 * 1024));
+            ScreenProtocol.readHello(in);
+            int screenWidth = in.readInt();
+            int screenHeight = in.readInt();
+            System.out.println("[SyntheticShare] " + screenWidth + "x" + screenHeight + ", chạy " + seconds + "s");
+            Thread reader = new Thread(() -> readMessages(in), "SyntheticShare-viewer");
+            reader.setDaemon(true);
+            reader.start();
+
+            OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+            long startNanos = System.nanoTime();
+            long startCpu = processCpuNanos(os);
+            long lastNanos = startNanos, lastCpu = startCpu, lastFrames = 0, lastBytes = 0;
+            CaptureStreams streams = source.getStreams();
+            int stream = streams.getInitial();
+            for (int second = 1; second <= seconds; second++) {
+                int next = (streams.getInitial() + (second - 1) * streams.size() / seconds) % streams.size();
+                if (next != stream) {
+                    stream = next;
+                    share.selectStream(stream);
+                }
+                long rate = kbps[Math.min(kbps.length - 1, (second - 1) * kbps.length / seconds)];
+                if (rate * 1024 != link.getRate()) {
+                    link.setRate(rate * 1024);
+                    System.out.println("[SyntheticShare] Băng thông viewer: "
+                            + (rate > 0 ? rate + " KB/s" : "không giới hạn"));
+                }
+                Thread.sleep(1000);
+                long now = System.nanoTime();
+                long cpu = processCpuNanos(os);
+                long totalFrames = frames.get();
+                long totalBytes = bytes.get();
+                System.out.println("[SyntheticShare] " + second + "s " + format(totalFrames - lastFrames,
+                        totalBytes - lastBytes, cpu < 0 ? -1 : cpu - lastCpu, now - lastNanos)
+                        + " | " + share.getController().describe());
+                lastNanos = now;
+                lastCpu = cpu;
+                lastFrames = totalFrames;
+                lastBytes = totalBytes;
+            }
+            long cpu = processCpuNanos(os);
+            System.out.println("[SyntheticShare] Tổng: " + format(frames.get(), bytes.get(),
+                    cpu < 0 ? -1 : cpu - startCpu, System.nanoTime() - startNanos));
+            System.out.println("[SyntheticShare] " + share.getPipelineMetrics().snapshotAndReset());
+            share.stop();
+            sharer.close();
+        }
+    }
+
+    // Chỉ tách biên thông điệp theo định dạng của ShareScreen để đếm, bỏ qua nội dung
+    private void readMessages(DataInputStream in) {
+        try {
+            while (true) {
+                byte type = in.readByte();
+                in.readInt(); // seq
+                long size = 5;
+                if (type == ScreenProtocol.MSG_CURSOR) {
+                    size += skip(in, 9);
+                } else if (type == ScreenProtocol.MSG_STREAM) {
+                    in.readInt();
+                    int count = in.readUnsignedByte();
+                    size += 5 + skip(in, count * 9);
+                } else {
+                    int count = in.readInt();
+                    size += 4;
+                    for (int i = 0; i < count; i++) {
+                        skip(in, 17);
+                        int length = in.readInt();
+                        size += 21 + skip(in, length);
+                    }
+                    frames.incrementAndGet();
+                }
+                bytes.addAndGet(size);
+            }
+        } catch (IOException e) {
+            // Socket đóng khi kết thúc
+        }
+    }
+
+    // Đường truyền hẹp giả lập phía viewer: token bucket rate byte/s, dồn tối đa 100 ms
+    private static class ThrottledInputStream extends FilterInputStream {
+        private volatile long rate = 0;
+        private double tokens = 0;
+        private long lastRefill = System.nanoTime();
+
+        ThrottledInputStream(InputStream in) {
+            super(in);
+        }
+
+        void setRate(long bytesPerSecond) {
+            rate = bytesPerSecond;
+        }
+
+        long getRate() {
+            return rate;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long limit = rate;
+            if (limit <= 0) {
+                return super.read(b, off, len);
+            }
+            while (true) {
+                long now = System.nanoTime();
+                tokens = Math.min(limit / 10.0, tokens + (now - lastRefill) * limit / 1e9);
+                lastRefill = now;
+                if (tokens >= 1) {
+                    break;
+                }
+                try {
+                    Thread.sleep(Math.max(1, (long) ((1 - tokens) * 1000 / limit)));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted");
+                }
+            }
+            int n = super.read(b, off, (int) Math.min(len, (long) tokens));
+            if (n > 0) {
+                tokens -= n;
+            }
+            return n;
+        }
+    }
+
+    // skipBytes() có thể bỏ qua ít hơn yêu cầu, nên đọc hẳn vào bộ đệm tạm
+    private int skip(DataInputStream in, int length) throws IOException {
+        if (scratch.length < length) {
+            scratch = new byte[length];
+        }
+        in.readFully(scratch, 0, length);
+        return length;
+    }
+
+    private static String format(long frames, long bytes, long cpuNanos, long wallNanos) {
+        double seconds = wallNanos / 1e9;
+        // cpu tính theo 1 core (có thể > 100% khi các stage chạy song song)
+        String cpu = cpuNanos < 0 ? "n/a" : String.format("%.0f%%", 100.0 * cpuNanos / wallNanos);
+        return String.format("fps=%.1f %.1f KB/s cpu=%s", frames / seconds, bytes / 1024.0 / seconds, cpu);
+    }
+
+    // -1 nếu JVM không có com.sun.management
+    private static long processCpuNanos(OperatingSystemMXBean os) {
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return -1;
+    }
+}
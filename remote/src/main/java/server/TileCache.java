@@ -0,0 +1,154 @@
+package server;
+
+import common.ImagePixels;
+import common.ScreenProtocol;
+import common.codec.EncodeBuffer;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Phía sharer của cache khối CACHE_BLOCK_SIZE x CACHE_BLOCK_SIZE: hash nội dung → slot ở viewer, loại theo LRU.
+ * Viewer chỉ giữ mảng slot và làm theo REGION_CACHE_STORE/HIT, nên 2 bên khớp nhau miễn là mọi
+ * thông điệp có STORE tới nơi (ShareScreen không đánh DROPPABLE cho chúng).
+ * Chỉ thread encode dùng.
+ */
+class TileCache {
+    private static final int BLOCK = ScreenProtocol.CACHE_BLOCK_SIZE;
+    private static final int TILES_PER_BLOCK = BLOCK / TileDiffer.TILE_SIZE;
+    // Header 1 vùng trên dây + [int slot]
+    private static final int HIT_BYTES = 25;
+
+    private final int capacity;
+    private final PipelineMetrics metrics;
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private int nextSlot = 0;
+
+    // Khối gửi nguyên vẹn trong thông điệp đang encode, có thể lưu ở encodeStores()
+    private final List<Rectangle> candidates = new ArrayList<>();
+    private final List<Long> candidateHashes = new ArrayList<>();
+
+    TileCache(int capacity, PipelineMetrics metrics) {
+        this.capacity = capacity;
+        this.metrics = metrics;
+    }
+
+    // Trước khi encode: khối có ô thay đổi mà viewer đã có → lệnh HIT, bỏ cờ các ô của khối
+    List<RegionEncoder.EncodedRegion> encodeHits(BufferedImage frame, DirtyTiles dirty, EncodeBuffer buffer)
+            throws IOException {
+        candidates.clear();
+        candidateHashes.clear();
+        List<RegionEncoder.EncodedRegion> hits = new ArrayList<>();
+        ImagePixels pixels = ImagePixels.of(frame);
+        int blocksX = frame.getWidth() / BLOCK;
+        int blocksY = frame.getHeight() / BLOCK;
+        int lookups = 0;
+        long saved = 0;
+        for (int by = 0; by < blocksY; by++) {
+            for (int bx = 0; bx < blocksX; bx++) {
+                int changed = dirtyTiles(dirty, bx, by);
+                if (changed == 0) {
+                    continue;
+                }
+                Rectangle block = new Rectangle(bx * BLOCK, by * BLOCK, BLOCK, BLOCK);
+                long hash = hash(pixels, block);
+                if (hash == 0) {
+                    continue; // khối 1 màu: codec palette đã rất rẻ
+                }
+                lookups++;
+                Entry entry = entries.get(hash);
+                if (entry != null) {
+                    hits.add(encodeSlot(ScreenProtocol.REGION_CACHE_HIT, block, entry.slot, buffer));
+                    dirty.clear(block);
+                    saved += Math.max(0, entry.encodedBytes - HIT_BYTES);
+                } else if (changed == TILES_PER_BLOCK * TILES_PER_BLOCK) {
+                    candidates.add(block);
+                    candidateHashes.add(hash);
+                }
+            }
+        }
+        metrics.recordCache(lookups, hits.size(), saved);
+        return hits;
+    }
+
+    // Sau khi encode: lưu các khối ứng viên; bytesPerBlock ước lượng chi phí encode để tính phần tiết kiệm
+    List<RegionEncoder.EncodedRegion> encodeStores(int bytesPerBlock, EncodeBuffer buffer) throws IOException {
+        List<RegionEncoder.EncodedRegion> stores = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            Long hash = candidateHashes.get(i);
+            if (entries.containsKey(hash)) {
+                continue; // khối trùng nội dung trong cùng thông điệp
+            }
+            int slot;
+            if (entries.size() < capacity) {
+                slot = nextSlot++;
+            } else {
+                Iterator<Map.Entry<Long, Entry>> eldest = entries.entrySet().iterator();
+                slot = eldest.next().getValue().slot;
+                eldest.remove();
+            }
+            entries.put(hash, new Entry(slot, bytesPerBlock));
+            stores.add(encodeSlot(ScreenProtocol.REGION_CACHE_STORE, candidates.get(i), slot, buffer));
+        }
+        candidates.clear();
+        candidateHashes.clear();
+        return stores;
+    }
+
+    private int dirtyTiles(DirtyTiles dirty, int bx, int by) {
+        int count = 0;
+        for (int ty = by * TILES_PER_BLOCK; ty < (by + 1) * TILES_PER_BLOCK; ty++) {
+            for (int tx = bx * TILES_PER_BLOCK; tx < (bx + 1) * TILES_PER_BLOCK; tx++) {
+                if (dirty.isDirty(tx, ty)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static RegionEncoder.EncodedRegion encodeSlot(byte kind, Rectangle block, int slot, EncodeBuffer buffer)
+            throws IOException {
+        int offset = buffer.size();
+        new DataOutputStream(buffer).writeInt(slot);
+        return new RegionEncoder.EncodedRegion(block, kind, offset, buffer.size() - offset);
+    }
+
+    // FNV-1a 64 bit trên từng pixel + trộn cuối; 0 = khối chỉ có 1 màu
+    static long hash(ImagePixels pixels, Rectangle block) {
+        int first = pixels.data[pixels.offset + block.y * pixels.stride + block.x];
+        boolean uniform = true;
+        long h = 0xcbf29ce484222325L;
+        for (int y = block.y; y < block.y + block.height; y++) {
+            int line = pixels.offset + y * pixels.stride;
+            for (int x = block.x; x < block.x + block.width; x++) {
+                int p = pixels.data[line + x];
+                uniform &= p == first;
+                h = (h ^ (p & 0xFFFFFFL)) * 0x100000001b3L;
+            }
+        }
+        if (uniform) {
+            return 0;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+
+    private static class Entry {
+        final int slot;
+        final int encodedBytes;
+
+        Entry(int slot, int encodedBytes) {
+            this.slot = slot;
+            this.encodedBytes = encodedBytes;
+        }
+    }
+}
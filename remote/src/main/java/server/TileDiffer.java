@@ -0,0 +1,177 @@
+package server;
+
+import common.ImagePixels;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * So sánh 2 frame theo ô TILE_SIZE x TILE_SIZE, đọc thẳng mảng int[] của DataBufferInt
+ * (không gọi getRGB từng pixel). Mỗi ô dừng so sánh ngay khi gặp pixel khác.
+ * Các hàng ô được chia cho ForkJoinPool khi frame đủ lớn.
+ * Không thread-safe: kết quả (lưới ô thay đổi) được dùng lại giữa các lần gọi diff().
+ */
+public class TileDiffer implements TileGrid {
+    public static final int TILE_SIZE = 16;
+    // Số hàng ô tối đa cho 1 task (16 hàng ô = 256 dòng pixel)
+    private static final int ROWS_PER_TASK = 16;
+
+    private final ForkJoinPool pool;
+
+    private int width;
+    private int height;
+    private int tilesX;
+    private int tilesY;
+    private boolean[] dirty = new boolean[0];
+    private int dirtyCount;
+
+    public TileDiffer() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public TileDiffer(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    // Trả về hình chữ nhật bao các ô thay đổi, null nếu không đổi; oldImg null hoặc khác kích thước = đổi toàn bộ
+    public Rectangle diff(BufferedImage oldImg, BufferedImage newImg) {
+        resize(newImg.getWidth(), newImg.getHeight());
+
+        if (oldImg == null || oldImg.getWidth() != width || oldImg.getHeight() != height) {
+            Arrays.fill(dirty, true);
+            dirtyCount = dirty.length;
+            return new Rectangle(width, height);
+        }
+
+        ImagePixels oldPixels = ImagePixels.of(oldImg);
+        ImagePixels newPixels = ImagePixels.of(newImg);
+        DiffTask task = new DiffTask(oldPixels, newPixels, 0, tilesY);
+        if (tilesY > ROWS_PER_TASK && pool.getParallelism() > 1) {
+            pool.invoke(task);
+        } else {
+            task.compute();
+        }
+
+        return collectBounds();
+    }
+
+    @Override
+    public int getTilesX() {
+        return tilesX;
+    }
+
+    @Override
+    public int getTilesY() {
+        return tilesY;
+    }
+
+    @Override
+    public boolean isDirty(int tileX, int tileY) {
+        return dirty[tileY * tilesX + tileX];
+    }
+
+    public int getDirtyCount() {
+        return dirtyCount;
+    }
+
+    private void resize(int newWidth, int newHeight) {
+        width = newWidth;
+        height = newHeight;
+        tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        if (dirty.length != tilesX * tilesY) {
+            dirty = new boolean[tilesX * tilesY];
+        }
+    }
+
+    private Rectangle collectBounds() {
+        int minX = tilesX, minY = tilesY, maxX = -1, maxY = -1;
+        int count = 0;
+        for (int ty = 0; ty < tilesY; ty++) {
+            int row = ty * tilesX;
+            for (int tx = 0; tx < tilesX; tx++) {
+                if (dirty[row + tx]) {
+                    count++;
+                    if (tx < minX)
+                        minX = tx;
+                    if (tx > maxX)
+                        maxX = tx;
+                    if (ty < minY)
+                        minY = ty;
+                    maxY = ty;
+                }
+            }
+        }
+        dirtyCount = count;
+        if (count == 0) {
+            return null;
+        }
+
+        int x = minX * TILE_SIZE;
+        int y = minY * TILE_SIZE;
+        int right = Math.min(width, (maxX + 1) * TILE_SIZE);
+        int bottom = Math.min(height, (maxY + 1) * TILE_SIZE);
+        return new Rectangle(x, y, right - x, bottom - y);
+    }
+
+    // So sánh các hàng ô [fromTileY, toTileY): duyệt theo dòng pixel để đọc bộ nhớ liên tục,
+    // bỏ qua những ô đã biết là thay đổi
+    private void diffRows(ImagePixels oldPixels, ImagePixels newPixels, int fromTileY, int toTileY) {
+        int[] a = oldPixels.data;
+        int[] b = newPixels.data;
+        for (int ty = fromTileY; ty < toTileY; ty++) {
+            int row = ty * tilesX;
+            Arrays.fill(dirty, row, row + tilesX, false);
+            int remaining = tilesX;
+
+            int endY = Math.min((ty + 1) * TILE_SIZE, height);
+            for (int y = ty * TILE_SIZE; y < endY && remaining > 0; y++) {
+                int lineA = oldPixels.offset + y * oldPixels.stride;
+                int lineB = newPixels.offset + y * newPixels.stride;
+                for (int tx = 0; tx < tilesX; tx++) {
+                    if (dirty[row + tx]) {
+                        continue;
+                    }
+                    int x = tx * TILE_SIZE;
+                    int endX = Math.min(x + TILE_SIZE, width);
+                    for (int i = x; i < endX; i++) {
+                        if (a[lineA + i] != b[lineB + i]) {
+                            dirty[row + tx] = true;
+                            remaining--;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private class DiffTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ImagePixels oldPixels;
+        private final ImagePixels newPixels;
+        private final int fromTileY;
+        private final int toTileY;
+
+        DiffTask(ImagePixels oldPixels, ImagePixels newPixels, int fromTileY, int toTileY) {
+            this.oldPixels = oldPixels;
+            this.newPixels = newPixels;
+            this.fromTileY = fromTileY;
+            this.toTileY = toTileY;
+        }
+
+        @Override
+        protected void compute() {
+            if (toTileY - fromTileY <= ROWS_PER_TASK) {
+                diffRows(oldPixels, newPixels, fromTileY, toTileY);
+                return;
+            }
+            int mid = (fromTileY + toTileY) >>> 1;
+            invokeAll(new DiffTask(oldPixels, newPixels, fromTileY, mid),
+                    new DiffTask(oldPixels, newPixels, mid, toTileY));
+        }
+    }
+}
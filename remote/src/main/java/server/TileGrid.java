@@ -0,0 +1,11 @@
+package server;
+
+// Lưới ô TILE_SIZE x TILE_SIZE với cờ "thay đổi" cho từng ô
+public interface TileGrid {
+
+    int getTilesX();
+
+    int getTilesY();
+
+    boolean isDirty(int tileX, int tileY);
+}